@@ -0,0 +1,581 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+
+/**
+ * Receives entity change events from a server-sent events (SSE) endpoint of
+ * the REST server, and applies them to the entity listeners of a
+ * {@see StructrClient}, i.e. to its {@see EntityCache}, to {@see LiveQuery}s
+ * and to a {@see LocalStore}, so that they are kept up to date without
+ * polling.
+ *
+ * <p>The feed expects events named "created", "modified" or "deleted", whose
+ * data is the JSON representation of the entity, including its "type" and
+ * "id" properties. Only the types registered with {@see #register} are
+ * decoded. Every event should have an ID, so that the feed can resume from
+ * the last received event with the Last-Event-ID header when it reconnects
+ * after an error. Reconnects are delayed with exponential backoff, or by the
+ * "retry" value sent by the server.</p>
+ *
+ * <p>Events are passed from the connection to a dispatcher thread through a
+ * bounded queue. Events for the same entity that are still queued are
+ * coalesced, so only the latest state is dispatched. When the queue is full,
+ * the feed stops reading from the connection until the listeners caught up,
+ * which slows down the server instead of dropping events. The last event
+ * ID advances only when the listeners were notified, so a feed that is
+ * stopped with events still queued resumes before these events. Threads
+ * of a stopped feed end without touching the queue, and a restart waits
+ * until the event that is currently being dispatched was delivered, so
+ * events are never delivered by two dispatchers at once.</p>
+ * <pre>
+ * ChangeFeed feed = new ChangeFeed(StructrClient.getDefault(), "/events");
+ * feed.register(Example.class);
+ * feed.start();
+ * </pre>
+ *
+ * @author Christian Morgner
+ */
+public class ChangeFeed {
+
+	public static final int DEFAULT_CAPACITY = 256;
+	public static final long MIN_BACKOFF     = 1000L;
+	public static final long MAX_BACKOFF     = 60000L;
+
+	private final Map<String, Class<? extends StructrObject>> types = new ConcurrentHashMap<String, Class<? extends StructrObject>>();
+	private final Map<String, Event> queue                          = new LinkedHashMap<String, Event>();
+	private final Random random                                     = new Random();
+	private StructrClient client                                    = null;
+	private String lastEventId                                      = null;
+	private String path                                             = null;
+	private Event current                                           = null;
+	private Event tail                                              = null;
+	private Thread dispatching                                      = null;
+	private Thread reader                                           = null;
+	private HttpGet request                                         = null;
+	private boolean connected                                       = false;
+	private boolean running                                         = false;
+	private long retry                                              = -1L;
+	private int capacity                                            = DEFAULT_CAPACITY;
+	private int generation                                          = 0;
+	private long coalesced                                          = 0L;
+	private long dispatched                                         = 0L;
+	private long reconnects                                         = 0L;
+
+	/**
+	 * Creates a new change feed.
+	 *
+	 * @param client the client whose listeners receive the changes
+	 * @param path the path of the event stream
+	 */
+	public ChangeFeed(final StructrClient client, final String path) {
+
+		this.client = client;
+		this.path   = path;
+	}
+
+	/**
+	 * Registers an entity type, so that events for entities of this type are
+	 * decoded and dispatched.
+	 *
+	 * @param type the entity type
+	 */
+	public void register(final Class<? extends StructrObject> type) {
+		types.put(type.getSimpleName(), type);
+	}
+
+	/**
+	 * Sets the maximum number of queued events.
+	 *
+	 * @param capacity the maximum number of events that wait for dispatch
+	 */
+	public synchronized void setCapacity(final int capacity) {
+		this.capacity = Math.max(1, capacity);
+	}
+
+	/**
+	 * Sets the ID of the last event that was applied, e.g. from a previous
+	 * run of the app, so that the feed resumes after this event.
+	 *
+	 * @param id the ID of the last applied event, may be null
+	 */
+	public synchronized void setLastEventId(final String id) {
+		this.lastEventId = id;
+	}
+
+	/**
+	 * @return the ID of the last event that was passed to the listeners, or null
+	 */
+	public synchronized String getLastEventId() {
+		return lastEventId;
+	}
+
+	/**
+	 * Connects to the event stream and starts dispatching events.
+	 */
+	public synchronized void start() {
+
+		try {
+			// let a dispatcher of a previous start deliver its event first,
+			// unless the feed is restarted from within that delivery
+			while (!running && current != null && dispatching != Thread.currentThread()) {
+				wait();
+			}
+
+		} catch (InterruptedException iex) {
+
+			Thread.currentThread().interrupt();
+		}
+
+		if (running) {
+			return;
+		}
+
+		running = true;
+		generation++;
+
+		reader = new Thread(new Reader(generation), "structr change feed");
+		reader.setDaemon(true);
+		reader.start();
+
+		final Thread dispatcher = new Thread(new Dispatcher(generation), "structr change dispatcher");
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+
+	/**
+	 * Disconnects from the event stream. Events that are still queued are
+	 * discarded.
+	 */
+	public synchronized void stop() {
+
+		running = false;
+
+		if (request != null) {
+			request.abort();
+		}
+
+		if (reader != null) {
+
+			reader.interrupt();
+			reader = null;
+		}
+
+		queue.clear();
+		notifyAll();
+	}
+
+	/**
+	 * @return whether the feed is currently connected to the event stream
+	 */
+	public synchronized boolean isConnected() {
+		return connected;
+	}
+
+	/**
+	 * @return the number of events that were dispatched
+	 */
+	public synchronized long getDispatchedCount() {
+		return dispatched;
+	}
+
+	/**
+	 * @return the number of events that were replaced by a later event for the same entity before dispatch
+	 */
+	public synchronized long getCoalescedCount() {
+		return coalesced;
+	}
+
+	/**
+	 * @return the number of reconnects after errors
+	 */
+	public synchronized long getReconnectCount() {
+		return reconnects;
+	}
+
+	// ----- private methods -----
+	private void connect(final int feedGeneration) throws Throwable {
+
+		final HttpGet httpGet = new HttpGet();
+		String resumeId       = null;
+
+		synchronized (this) {
+
+			if (!isCurrent(feedGeneration)) {
+				return;
+			}
+
+			request  = httpGet;
+			resumeId = lastEventId;
+		}
+
+		final HttpResponse response = client.stream(httpGet, path, resumeId);
+
+		try {
+
+			synchronized (this) {
+				connected = true;
+			}
+
+			final BufferedReader lines = new BufferedReader(new InputStreamReader(response.getEntity().getContent(), "UTF-8"));
+			final StringBuilder data   = new StringBuilder();
+			String event               = null;
+			String id                  = null;
+			String line                = null;
+
+			while ((line = lines.readLine()) != null) {
+
+				if (line.length() == 0) {
+
+					// a blank line dispatches the event
+					if (data.length() > 0) {
+						enqueue(feedGeneration, id, event, data.toString());
+					}
+
+					data.setLength(0);
+					event = null;
+					id    = null;
+
+				} else if (!line.startsWith(":")) {
+
+					final int pos      = line.indexOf(':');
+					final String field = pos >= 0 ? line.substring(0, pos) : line;
+					String value       = pos >= 0 ? line.substring(pos + 1) : "";
+
+					if (value.startsWith(" ")) {
+						value = value.substring(1);
+					}
+
+					if ("data".equals(field)) {
+
+						if (data.length() > 0) {
+							data.append('\n');
+						}
+
+						data.append(value);
+
+					} else if ("event".equals(field)) {
+
+						event = value;
+
+					} else if ("id".equals(field)) {
+
+						id = value;
+
+					} else if ("retry".equals(field)) {
+
+						try {
+							retry = Long.parseLong(value);
+
+						} catch (NumberFormatException nfex) {
+
+							// ignore invalid values, like browsers do
+						}
+					}
+				}
+			}
+
+		} finally {
+
+			synchronized (this) {
+
+				if (isCurrent(feedGeneration)) {
+
+					connected = false;
+					request   = null;
+				}
+			}
+
+			httpGet.abort();
+		}
+	}
+
+	private void enqueue(final int feedGeneration, final String id, final String event, final String data) throws InterruptedException {
+
+		JsonElement element = null;
+
+		try {
+			element = new JsonParser().parse(data);
+
+		} catch (JsonParseException jpex) {
+
+			// skip malformed events instead of reconnecting
+		}
+
+		if (element == null || !element.isJsonObject()) {
+
+			skip(feedGeneration, id);
+			return;
+		}
+
+		final JsonObject object = element.getAsJsonObject();
+		final JsonElement type  = object.get("type");
+		final JsonElement key   = object.get("id");
+
+		if (type == null || key == null || !types.containsKey(type.getAsString())) {
+
+			skip(feedGeneration, id);
+			return;
+		}
+
+		final Event change = new Event(id, event != null ? event : "modified", types.get(type.getAsString()), object);
+		final String name  = type.getAsString() + "/" + key.getAsString();
+
+		synchronized (this) {
+
+			// apply backpressure instead of dropping events
+			while (isCurrent(feedGeneration) && queue.size() >= capacity && !queue.containsKey(name)) {
+				wait();
+			}
+
+			if (!isCurrent(feedGeneration)) {
+				return;
+			}
+
+			final Event previous = queue.remove(name);
+			if (previous != null) {
+
+				// a creation followed by a modification is still a creation
+				if ("created".equals(previous.name) && !"deleted".equals(change.name)) {
+					change.name = "created";
+				}
+
+				if (change.id == null) {
+					change.id = previous.id;
+				}
+
+				coalesced++;
+			}
+
+			queue.put(name, change);
+			tail = change;
+
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Records the ID of an event that is not dispatched. The ID becomes the
+	 * last event ID when all events received before it were dispatched.
+	 */
+	private synchronized void skip(final int feedGeneration, final String id) {
+
+		if (id != null && isCurrent(feedGeneration)) {
+
+			if (!queue.isEmpty()) {
+
+				tail.id = id;
+
+			} else if (current != null) {
+
+				current.id = id;
+
+			} else {
+
+				lastEventId = id;
+			}
+		}
+	}
+
+	private synchronized void dispatched(final Event event) {
+
+		// a feed that was restarted from within the delivery of this event
+		// may have dispatched later events already
+		if (current == event) {
+
+			if (event.id != null) {
+				lastEventId = event.id;
+			}
+
+			current     = null;
+			dispatching = null;
+
+			// wake up a restart that waits for this event
+			notifyAll();
+		}
+	}
+
+	private synchronized Event take(final int feedGeneration) throws InterruptedException {
+
+		while (isCurrent(feedGeneration) && queue.isEmpty()) {
+			wait();
+		}
+
+		if (!isCurrent(feedGeneration)) {
+			return null;
+		}
+
+		final Iterator<Event> it = queue.values().iterator();
+		final Event event        = it.next();
+
+		it.remove();
+		dispatched++;
+
+		current     = event;
+		dispatching = Thread.currentThread();
+
+		// wake up the reader if it waits for free capacity
+		notifyAll();
+
+		return event;
+	}
+
+	/**
+	 * @return whether the threads of the given start of this feed may still run
+	 */
+	private boolean isCurrent(final int feedGeneration) {
+		return running && generation == feedGeneration;
+	}
+
+	private long getBackoff(final int failures) {
+
+		if (retry >= 0) {
+			return retry;
+		}
+
+		final long backoff = Math.min(MAX_BACKOFF, MIN_BACKOFF << Math.min(failures, 6));
+
+		// spread the reconnects of many devices
+		return backoff / 2 + (long)(random.nextDouble() * backoff / 2);
+	}
+
+	// ----- nested classes -----
+	private class Reader implements Runnable {
+
+		private int feedGeneration = 0;
+
+		public Reader(final int feedGeneration) {
+			this.feedGeneration = feedGeneration;
+		}
+
+		@Override
+		public void run() {
+
+			client.setBackground(true);
+
+			int failures = 0;
+
+			while (true) {
+
+				synchronized (ChangeFeed.this) {
+
+					if (!isCurrent(feedGeneration)) {
+						return;
+					}
+				}
+
+				final long start = System.currentTimeMillis();
+
+				try {
+					connect(feedGeneration);
+
+				} catch (InterruptedException iex) {
+
+					return;
+
+				} catch (Throwable t) {
+
+					// reconnect below
+				}
+
+				// a connection that lasted a while was not a failure
+				failures = System.currentTimeMillis() - start > MAX_BACKOFF ? 0 : failures + 1;
+
+				synchronized (ChangeFeed.this) {
+					reconnects++;
+				}
+
+				try {
+					Thread.sleep(getBackoff(failures));
+
+				} catch (InterruptedException iex) {
+
+					return;
+				}
+			}
+		}
+	}
+
+	private class Dispatcher implements Runnable {
+
+		private int feedGeneration = 0;
+
+		public Dispatcher(final int feedGeneration) {
+			this.feedGeneration = feedGeneration;
+		}
+
+		@Override
+		public void run() {
+
+			try {
+				Event event = null;
+
+				while ((event = take(feedGeneration)) != null) {
+
+					try {
+						final StructrObject entity = client.getGson().fromJson(event.data, event.type);
+						if (entity != null) {
+							client.fireChange(event.name, entity);
+						}
+
+					} catch (JsonParseException jpex) {
+
+						// skip entities that cannot be decoded
+					}
+
+					dispatched(event);
+				}
+
+			} catch (InterruptedException iex) {
+
+				// stopped
+			}
+		}
+	}
+
+	private static class Event {
+
+		private Class<? extends StructrObject> type = null;
+		private JsonObject data                     = null;
+		private String name                         = null;
+		private String id                           = null;
+
+		public Event(final String id, final String name, final Class<? extends StructrObject> type, final JsonObject data) {
+
+			this.name = name;
+			this.id   = id;
+			this.type = type;
+			this.data = data;
+		}
+	}
+}
@@ -24,28 +24,82 @@
 
 package org.structr.android.restclient;
 
+import android.database.DataSetObservable;
 import android.database.DataSetObserver;
+import android.os.AsyncTask;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Adapter;
 import android.widget.ListAdapter;
 import android.widget.ListView;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
+ * A list adapter that can be registered as a {@see CollectionHandler} to
+ * display the results of a collection load operation in a ListView. When
+ * new results arrive for a list that is already displayed, the adapter
+ * computes a {@see ListDiff} in the background and notifies its observers
+ * only if the results actually changed, so the ListView keeps its scroll
+ * position and unchanged lists are not rebound at all.
+ *
+ * <p>Item IDs are derived from the structr ID of each entity, so they are
+ * stable across reloads. Placeholders for entities that are not loaded yet
+ * and entities without an ID are identified by their position. To display heterogeneous result lists, pass the
+ * entity subclasses that should get their own view type to the constructor;
+ * the ListView will then only recycle views between items of the same
+ * type.</p>
+ *
+ * <p>When the results are a {@see WindowedList}, the adapter is notified
+ * whenever a page of the list is loaded, and {@see #getViewForItem} is
+ * called with a null item for positions that are not loaded yet.</p>
  *
  * @author Christian Morgner
  */
-public abstract class CollectionHandlerListAdapter<T extends StructrObject> implements CollectionHandler<T>, ListAdapter {
+public abstract class CollectionHandlerListAdapter<T extends StructrObject> implements CollectionHandler<T>, ListAdapter, WindowedList.PageListener {
+
+	private static final long POSITION_IDS = Long.MIN_VALUE + 1;
 
-	private ListView listView = null;
-	private List<T> list      = null;
+	private final DataSetObservable observable     = new DataSetObservable();
+	private final Map<Class<?>, Integer> viewTypes = new HashMap<Class<?>, Integer>();
+	private Map<Object, String> states             = null;
+	private ListView listView                      = null;
+	private List<T> list                           = null;
+	private boolean bound                          = false;
+	private int generation                         = 0;
+
+	/**
+	 * Creates a new adapter for the given ListView.
+	 *
+	 * @param listView the ListView to display the results in
+	 * @param types the entity types (subclasses of T) that should be displayed with distinct view types, may be empty
+	 */
+	public CollectionHandlerListAdapter(final ListView listView, final Class<?>... types) {
 
-	public CollectionHandlerListAdapter(final ListView listView) {
 		this.listView = listView;
+
+		for (final Class<?> type : types) {
+
+			if (!viewTypes.containsKey(type)) {
+				viewTypes.put(type, viewTypes.size());
+			}
+		}
 	}
 
 	public abstract View getViewForItem(final T item, final View view, final ViewGroup vg);
 
+	/**
+	 * Override this method to react to incremental changes of the displayed
+	 * results, e.g. to highlight inserted rows. This method is called on the
+	 * main thread, after the new results have been set and before the
+	 * registered observers are notified.
+	 *
+	 * @param diff the difference between the old and the new results
+	 */
+	protected void onResultsChanged(final ListDiff diff) {
+	}
+
 	@Override
 	public void handleProgress(final Progress... progress) {
 	}
@@ -53,8 +107,47 @@ public abstract class CollectionHandlerListAdapter<T extends StructrObject> impl
 	@Override
 	public void handleResults(final List<T> results) {
 
-		this.list = results;
-		listView.setAdapter(this);
+		if (bound && list != null && !(list instanceof WindowedList) && !(results instanceof WindowedList)) {
+
+			new DiffTask(list, states, results, ++generation).execute();
+
+		} else {
+
+			// windowed lists are never diffed, because that would load all pages
+			if (list instanceof WindowedList && list != results) {
+				((WindowedList<?>)list).removePageListener(this);
+			}
+
+			if (results instanceof WindowedList && list != results) {
+				((WindowedList<?>)results).addPageListener(this);
+			}
+
+			this.list   = results;
+			this.states = null;
+			this.generation++;
+
+			if (!bound) {
+
+				this.bound = true;
+				listView.setAdapter(this);
+
+			} else {
+
+				notifyDataSetChanged();
+			}
+		}
+	}
+
+	/**
+	 * Notifies the registered observers that the displayed results changed.
+	 */
+	public void notifyDataSetChanged() {
+		observable.notifyChanged();
+	}
+
+	@Override
+	public void pageLoaded(final int firstIndex, final int count) {
+		notifyDataSetChanged();
 	}
 
 	@Override
@@ -69,10 +162,12 @@ public abstract class CollectionHandlerListAdapter<T extends StructrObject> impl
 
 	@Override
 	public void registerDataSetObserver(final DataSetObserver dso) {
+		observable.registerObserver(dso);
 	}
 
 	@Override
 	public void unregisterDataSetObserver(final DataSetObserver dso) {
+		observable.unregisterObserver(dso);
 	}
 
 	@Override
@@ -99,7 +194,13 @@ public abstract class CollectionHandlerListAdapter<T extends StructrObject> impl
 	public long getItemId(final int i) {
 
 		if (list != null) {
-			return list.get(i).hashCode();
+
+			final T item = peek(i);
+			if (item != null && item.getId() != null) {
+				return getStableId(item.getId());
+			}
+
+			return POSITION_IDS + i;
 		}
 
 		return -1;
@@ -117,12 +218,35 @@ public abstract class CollectionHandlerListAdapter<T extends StructrObject> impl
 
 	@Override
 	public int getItemViewType(int i) {
-		return -1;
+
+		if (viewTypes.isEmpty()) {
+			return 0;
+		}
+
+		if (list != null) {
+
+			final T item = peek(i);
+			if (item != null) {
+
+				Class<?> type = item.getClass();
+				while (type != null) {
+
+					final Integer viewType = viewTypes.get(type);
+					if (viewType != null) {
+						return viewType;
+					}
+
+					type = type.getSuperclass();
+				}
+			}
+		}
+
+		return Adapter.IGNORE_ITEM_VIEW_TYPE;
 	}
 
 	@Override
 	public int getViewTypeCount() {
-		return 1;
+		return Math.max(1, viewTypes.size());
 	}
 
 	@Override
@@ -133,7 +257,95 @@ public abstract class CollectionHandlerListAdapter<T extends StructrObject> impl
 	public void clear() {
 
 		if (list != null) {
+
 			list.clear();
+			states = null;
+
+			notifyDataSetChanged();
+		}
+	}
+
+	// ----- private methods -----
+	/**
+	 * Returns the item at the given position without loading pages of a
+	 * windowed list, so that ID and view type lookups have no side effects.
+	 */
+	private T peek(final int i) {
+
+		if (list instanceof WindowedList) {
+			return ((WindowedList<T>)list).peek(i);
+		}
+
+		return list.get(i);
+	}
+
+	// ----- private static methods -----
+	/**
+	 * Derives a 64-bit item ID from a structr ID. structr IDs are 128-bit
+	 * UUIDs in hex notation, which are folded into 64 bits; other IDs are
+	 * hashed with FNV-1a.
+	 */
+	private static long getStableId(final String id) {
+
+		if (id.length() == 32) {
+
+			try {
+				final long high = (Long.parseLong(id.substring(0,  8), 16) << 32) | Long.parseLong(id.substring(8, 16), 16);
+				final long low  = (Long.parseLong(id.substring(16, 24), 16) << 32) | Long.parseLong(id.substring(24, 32), 16);
+
+				return high ^ low;
+
+			} catch (NumberFormatException nfex) {
+				// not a UUID, use hash below
+			}
+		}
+
+		long hash = 0xcbf29ce484222325L;
+		for (int i=0; i<id.length(); i++) {
+
+			hash ^= id.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+
+		return hash;
+	}
+
+	// ----- nested classes -----
+	private class DiffTask extends AsyncTask<Void, Void, ListDiff> {
+
+		private Map<Object, String> oldStates = null;
+		private List<T> oldList               = null;
+		private List<T> newList               = null;
+		private int taskGeneration            = 0;
+
+		public DiffTask(final List<T> oldList, final Map<Object, String> oldStates, final List<T> newList, final int taskGeneration) {
+
+			this.oldStates      = oldStates;
+			this.oldList        = oldList;
+			this.newList        = newList;
+			this.taskGeneration = taskGeneration;
+		}
+
+		@Override
+		protected ListDiff doInBackground(final Void... parameters) {
+			return ListDiff.compute(oldList, oldStates, newList);
+		}
+
+		@Override
+		protected void onPostExecute(final ListDiff diff) {
+
+			// ignore outdated results when newer results arrived in the meantime
+			if (taskGeneration == generation) {
+
+				list   = newList;
+				states = diff.getStates();
+
+				if (!diff.isEmpty()) {
+
+					onResultsChanged(diff);
+					notifyDataSetChanged();
+				}
+			}
 		}
 	}
 }
@@ -0,0 +1,687 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Type;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.AbstractList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * A compact, read-only list of entities that stores the values of each
+ * exposed property in a separate column instead of keeping one object per
+ * entity. Numbers, booleans and dates are stored in primitive arrays, and
+ * equal strings share a single instance (across requests for fields that
+ * are annotated with {@see Interned} global). The JSON response is decoded
+ * directly into the columns, without creating intermediate entities.
+ *
+ * <p>Entities are materialized on access. Use {@see #get(int, StructrObject)}
+ * to fill a single, reusable entity instance while iterating over the list,
+ * or {@see #getValue} to read a single property without materializing the
+ * entity at all. Please note that onDbLoad() is not called for entities
+ * that are materialized from a columnar list.</p>
+ *
+ * @author Christian Morgner
+ */
+public class ColumnarList<T extends StructrObject> extends AbstractList<T> {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final Map<String, Column> columns = new LinkedHashMap<String, Column>();
+	private Class<T> type                     = null;
+	private int capacity                      = 0;
+	private int size                          = 0;
+
+	private ColumnarList(final StructrClient client, final Class<T> type) {
+
+		this.type = type;
+
+		for (final Field field : ExposedFields.get(type).values()) {
+			columns.put(field.getName(), createColumn(client, field));
+		}
+	}
+
+	/**
+	 * Fetches a sorted list of entities with the given type from the REST server
+	 * into a columnar list, using the default client.
+	 *
+	 * @param type the type of the entities to load
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 * @param params additional parameters, may be empty
+	 * @return a columnar list of entities matching the given type and parameters
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> ColumnarList<T> dbList(final Class<T> type, final String sortKey, final boolean asc, final Object... params) throws Throwable {
+		return dbList(StructrClient.getDefault(), type, sortKey, asc, params);
+	}
+
+	/**
+	 * Fetches a list of entities from the given path into a columnar list,
+	 * using the default client.
+	 *
+	 * @param type the type of the entities to load
+	 * @param path the path of the entities to load
+	 * @return a columnar list of entities from the given path
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> ColumnarList<T> dbList(final Class<T> type, final String path) throws Throwable {
+		return dbList(StructrClient.getDefault(), type, path);
+	}
+
+	/**
+	 * Fetches a sorted list of entities with the given type from the REST server
+	 * into a columnar list, using the given client.
+	 *
+	 * @param client the client to load the entities with
+	 * @param type the type of the entities to load
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 * @param params additional parameters, may be empty
+	 * @return a columnar list of entities matching the given type and parameters
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> ColumnarList<T> dbList(final StructrClient client, final Class<T> type, final String sortKey, final boolean asc, final Object... params) throws Throwable {
+
+		final ColumnarList<T> list = new ColumnarList<T>(client, type);
+
+		return client.dbRead(list.new Decoder(), "/", type.getSimpleName(), "?sort=", sortKey, asc ? "" : "&order=desc", params);
+	}
+
+	/**
+	 * Fetches a list of entities from the given path into a columnar list,
+	 * using the given client.
+	 *
+	 * @param client the client to load the entities with
+	 * @param type the type of the entities to load
+	 * @param path the path of the entities to load
+	 * @return a columnar list of entities from the given path
+	 * @throws Throwable
+	 */
+	public static <T extends StructrObject> ColumnarList<T> dbList(final StructrClient client, final Class<T> type, final String path) throws Throwable {
+
+		final ColumnarList<T> list = new ColumnarList<T>(client, type);
+
+		return client.dbRead(list.new Decoder(), path);
+	}
+
+	/**
+	 * Materializes the entity at the given position into a new instance.
+	 *
+	 * @param index the position of the entity
+	 * @return a new entity instance
+	 */
+	@Override
+	public T get(final int index) {
+
+		try {
+			return get(index, type.newInstance());
+
+		} catch (InstantiationException iex) {
+			throw new IllegalStateException(iex);
+
+		} catch (IllegalAccessException iaex) {
+			throw new IllegalStateException(iaex);
+		}
+	}
+
+	/**
+	 * Materializes the entity at the given position into the given instance.
+	 *
+	 * @param index the position of the entity
+	 * @param reuse the instance to fill
+	 * @return the given instance
+	 */
+	public T get(final int index, final T reuse) {
+
+		checkIndex(index);
+
+		try {
+			for (final Column column : columns.values()) {
+				column.field.set(reuse, column.getValue(index));
+			}
+
+		} catch (IllegalAccessException iaex) {
+			throw new IllegalStateException(iaex);
+		}
+
+		return reuse;
+	}
+
+	/**
+	 * @param index the position of the entity
+	 * @param key the property key
+	 * @return the value of the given property of the entity at the given position
+	 */
+	public Object getValue(final int index, final String key) {
+
+		checkIndex(index);
+
+		final Column column = columns.get(key);
+		if (column != null) {
+			return column.getValue(index);
+		}
+
+		return null;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	// ----- private methods -----
+	private void checkIndex(final int index) {
+
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		}
+	}
+
+	private void ensureCapacity(final int required) {
+
+		if (required > capacity) {
+
+			capacity = Math.max(INITIAL_CAPACITY, capacity * 2);
+
+			for (final Column column : columns.values()) {
+				column.resize(capacity);
+			}
+		}
+	}
+
+	/**
+	 * Drops the unused capacity and the decoding state of the columns.
+	 */
+	private void finish() {
+
+		capacity = size;
+
+		for (final Column column : columns.values()) {
+
+			column.resize(size);
+			column.finish();
+		}
+	}
+
+	private void readEntity(final JsonReader reader) throws IOException {
+
+		ensureCapacity(size + 1);
+
+		reader.beginObject();
+
+		while (reader.hasNext()) {
+
+			final Column column = columns.get(reader.nextName());
+			if (column != null && reader.peek() != JsonToken.NULL) {
+
+				column.read(reader, size);
+
+			} else {
+
+				reader.skipValue();
+			}
+		}
+
+		reader.endObject();
+
+		size++;
+	}
+
+	private Column createColumn(final StructrClient client, final Field field) {
+
+		final Class<?> fieldType = field.getType();
+
+		if (Integer.TYPE.equals(fieldType) || Integer.class.equals(fieldType)) {
+			return new IntColumn(field);
+		}
+
+		if (Long.TYPE.equals(fieldType) || Long.class.equals(fieldType)) {
+			return new LongColumn(field);
+		}
+
+		if (Double.TYPE.equals(fieldType) || Double.class.equals(fieldType) || Float.TYPE.equals(fieldType) || Float.class.equals(fieldType)) {
+			return new DoubleColumn(field);
+		}
+
+		if (Boolean.TYPE.equals(fieldType) || Boolean.class.equals(fieldType)) {
+			return new BooleanColumn(field);
+		}
+
+		if (String.class.equals(fieldType)) {
+			return new StringColumn(field);
+		}
+
+		if (Date.class.equals(fieldType)) {
+			return new DateColumn(field);
+		}
+
+		return new ObjectColumn(field, client.getGson());
+	}
+
+	// ----- nested classes -----
+	private class Decoder implements ResponseReader<ColumnarList<T>> {
+
+		@Override
+		public ColumnarList<T> read(final Reader source) throws IOException {
+
+			final JsonReader reader = new JsonReader(source);
+
+			reader.beginObject();
+
+			while (reader.hasNext()) {
+
+				if ("result".equals(reader.nextName())) {
+
+					final JsonToken token = reader.peek();
+					if (token == JsonToken.BEGIN_ARRAY) {
+
+						reader.beginArray();
+
+						while (reader.hasNext()) {
+							readEntity(reader);
+						}
+
+						reader.endArray();
+
+					} else if (token == JsonToken.BEGIN_OBJECT) {
+
+						readEntity(reader);
+
+					} else {
+
+						reader.skipValue();
+					}
+
+				} else {
+
+					reader.skipValue();
+				}
+			}
+
+			reader.endObject();
+
+			finish();
+
+			return ColumnarList.this;
+		}
+	}
+
+	private static abstract class Column {
+
+		protected final BitSet present = new BitSet();
+		protected Field field          = null;
+
+		public Column(final Field field) {
+			this.field = field;
+		}
+
+		public abstract void resize(final int capacity);
+		public abstract void read(final JsonReader reader, final int index) throws IOException;
+		protected abstract Object get(final int index);
+
+		/**
+		 * Releases the memory that is only needed while decoding.
+		 */
+		public void finish() {
+		}
+
+		public Object getValue(final int index) {
+
+			if (present.get(index)) {
+				return get(index);
+			}
+
+			return getDefault();
+		}
+
+		protected Object getDefault() {
+			return null;
+		}
+	}
+
+	private static class IntColumn extends Column {
+
+		private int[] values = new int[0];
+
+		public IntColumn(final Field field) {
+			super(field);
+		}
+
+		@Override
+		public void resize(final int capacity) {
+
+			final int[] newValues = new int[capacity];
+			System.arraycopy(values, 0, newValues, 0, Math.min(values.length, capacity));
+			values = newValues;
+		}
+
+		@Override
+		public void read(final JsonReader reader, final int index) throws IOException {
+
+			values[index] = reader.nextInt();
+			present.set(index);
+		}
+
+		@Override
+		protected Object get(final int index) {
+			return values[index];
+		}
+
+		@Override
+		protected Object getDefault() {
+			return field.getType().isPrimitive() ? Integer.valueOf(0) : null;
+		}
+	}
+
+	private static class LongColumn extends Column {
+
+		private long[] values = new long[0];
+
+		public LongColumn(final Field field) {
+			super(field);
+		}
+
+		@Override
+		public void resize(final int capacity) {
+
+			final long[] newValues = new long[capacity];
+			System.arraycopy(values, 0, newValues, 0, Math.min(values.length, capacity));
+			values = newValues;
+		}
+
+		@Override
+		public void read(final JsonReader reader, final int index) throws IOException {
+
+			values[index] = reader.nextLong();
+			present.set(index);
+		}
+
+		@Override
+		protected Object get(final int index) {
+			return values[index];
+		}
+
+		@Override
+		protected Object getDefault() {
+			return field.getType().isPrimitive() ? Long.valueOf(0L) : null;
+		}
+	}
+
+	private static class DoubleColumn extends Column {
+
+		private double[] values = new double[0];
+		private boolean isFloat = false;
+
+		public DoubleColumn(final Field field) {
+
+			super(field);
+
+			this.isFloat = Float.TYPE.equals(field.getType()) || Float.class.equals(field.getType());
+		}
+
+		@Override
+		public void resize(final int capacity) {
+
+			final double[] newValues = new double[capacity];
+			System.arraycopy(values, 0, newValues, 0, Math.min(values.length, capacity));
+			values = newValues;
+		}
+
+		@Override
+		public void read(final JsonReader reader, final int index) throws IOException {
+
+			values[index] = reader.nextDouble();
+			present.set(index);
+		}
+
+		@Override
+		protected Object get(final int index) {
+
+			if (isFloat) {
+				return Float.valueOf((float)values[index]);
+			}
+
+			return values[index];
+		}
+
+		@Override
+		protected Object getDefault() {
+
+			if (field.getType().isPrimitive()) {
+				return isFloat ? (Object)Float.valueOf(0.0f) : (Object)Double.valueOf(0.0);
+			}
+
+			return null;
+		}
+	}
+
+	private static class BooleanColumn extends Column {
+
+		private final BitSet values = new BitSet();
+
+		public BooleanColumn(final Field field) {
+			super(field);
+		}
+
+		@Override
+		public void resize(final int capacity) {
+		}
+
+		@Override
+		public void read(final JsonReader reader, final int index) throws IOException {
+
+			values.set(index, reader.nextBoolean());
+			present.set(index);
+		}
+
+		@Override
+		protected Object get(final int index) {
+			return values.get(index);
+		}
+
+		@Override
+		protected Object getDefault() {
+			return field.getType().isPrimitive() ? Boolean.FALSE : null;
+		}
+	}
+
+	private static class StringColumn extends Column {
+
+		private Map<String, String> pool = new HashMap<String, String>();
+		private StringPool globalPool    = null;
+		private String[] values          = new String[0];
+
+		public StringColumn(final Field field) {
+
+			super(field);
+
+			final Interned interned = field.getAnnotation(Interned.class);
+			if (interned != null && interned.global()) {
+				this.globalPool = StringPool.getGlobal();
+			}
+		}
+
+		@Override
+		public void resize(final int capacity) {
+
+			final String[] newValues = new String[capacity];
+			System.arraycopy(values, 0, newValues, 0, Math.min(values.length, capacity));
+			values = newValues;
+		}
+
+		@Override
+		public void read(final JsonReader reader, final int index) throws IOException {
+
+			final String value = reader.nextString();
+			String shared      = null;
+
+			if (globalPool != null) {
+
+				shared = globalPool.intern(value);
+
+			} else {
+
+				shared = pool.get(value);
+				if (shared == null) {
+
+					pool.put(value, value);
+					shared = value;
+				}
+			}
+
+			values[index] = shared;
+			present.set(index);
+		}
+
+		@Override
+		protected Object get(final int index) {
+			return values[index];
+		}
+
+		@Override
+		public void finish() {
+
+			// the pool holds every distinct value of the column
+			pool = null;
+		}
+	}
+
+	private static class DateColumn extends Column {
+
+		private final SimpleDateFormat format = new SimpleDateFormat(StructrObject.DATE_FORMAT);
+		private SimpleDateFormat[] fallbacks  = null;
+		private long[] values                 = new long[0];
+
+		public DateColumn(final Field field) {
+			super(field);
+		}
+
+		@Override
+		public void resize(final int capacity) {
+
+			final long[] newValues = new long[capacity];
+			System.arraycopy(values, 0, newValues, 0, Math.min(values.length, capacity));
+			values = newValues;
+		}
+
+		@Override
+		public void read(final JsonReader reader, final int index) throws IOException {
+
+			final String value = reader.nextString();
+
+			try {
+				values[index] = format.parse(value).getTime();
+				present.set(index);
+
+			} catch (ParseException pex) {
+
+				values[index] = parseFallback(value, pex);
+				present.set(index);
+			}
+		}
+
+		@Override
+		protected Object get(final int index) {
+			return new Date(values[index]);
+		}
+
+		/**
+		 * Parses a date with the formats that the date adapter of Gson tries
+		 * after the date format of the REST server, i.e. the same pattern in
+		 * the US locale and ISO 8601 in UTC, and fails like the adapter does.
+		 */
+		private long parseFallback(final String value, final ParseException cause) {
+
+			if (fallbacks == null) {
+
+				final SimpleDateFormat iso8601 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+				iso8601.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+				fallbacks = new SimpleDateFormat[] { new SimpleDateFormat(StructrObject.DATE_FORMAT, Locale.US), iso8601 };
+			}
+
+			ParseException last = cause;
+
+			for (final SimpleDateFormat fallback : fallbacks) {
+
+				try {
+					return fallback.parse(value).getTime();
+
+				} catch (ParseException pex) {
+
+					last = pex;
+				}
+			}
+
+			throw new JsonSyntaxException(value, last);
+		}
+	}
+
+	private static class ObjectColumn extends Column {
+
+		private final JsonParser parser = new JsonParser();
+		private Object[] values         = new Object[0];
+		private Type fieldType          = null;
+		private Gson gson               = null;
+
+		public ObjectColumn(final Field field, final Gson gson) {
+
+			super(field);
+
+			this.fieldType = field.getGenericType();
+			this.gson      = gson;
+		}
+
+		@Override
+		public void resize(final int capacity) {
+
+			final Object[] newValues = new Object[capacity];
+			System.arraycopy(values, 0, newValues, 0, Math.min(values.length, capacity));
+			values = newValues;
+		}
+
+		@Override
+		public void read(final JsonReader reader, final int index) throws IOException {
+
+			values[index] = gson.fromJson(parser.parse(reader), fieldType);
+			present.set(index);
+		}
+
+		@Override
+		protected Object get(final int index) {
+			return values[index];
+		}
+	}
+}
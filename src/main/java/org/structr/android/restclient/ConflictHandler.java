@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+/**
+ * Resolves conflicting modifications of an entity. When optimistic locking is
+ * enabled (see {@see StructrClient#setOptimisticLocking}) and an entity was
+ * modified on the REST server since it was loaded, dbStore() loads the current
+ * state of the entity and passes both states to the conflict handler of the
+ * client. The entity that the handler returns is stored instead, with the
+ * precondition of the current state, so that the store is repeated until it
+ * succeeds, or the handler gives up. When the store succeeds, the stored
+ * state is copied into the entity that was passed to dbStore().
+ *
+ * @author Christian Morgner
+ */
+public interface ConflictHandler {
+
+	/**
+	 * Will be called on the thread that executes dbStore() when a store
+	 * failed because the entity was modified on the REST server. Return
+	 * the remote entity with the local changes applied, or the local entity
+	 * to overwrite the remote changes, or null to give up, in which case
+	 * dbStore() throws a {@see StructrException}.
+	 *
+	 * @param local the entity that should be stored
+	 * @param remote the current state of the entity on the REST server
+	 * @return the merged entity to store, or null
+	 */
+	public StructrObject resolve(final StructrObject local, final StructrObject remote);
+}
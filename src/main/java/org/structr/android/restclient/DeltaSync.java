@@ -0,0 +1,429 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.net.URLEncoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Synchronizes collections of entities from the REST server into a
+ * {@see LocalStore}, transferring only the entities that changed since the
+ * last synchronization. For each type, the highest value of a modification
+ * timestamp property (lastModifiedDate by default) is remembered as a
+ * high-water mark, and subsequent synchronizations only fetch entities with
+ * a timestamp greater than or equal to that mark. Since the timestamps
+ * only have a precision of one second, the entities with a timestamp equal
+ * to the mark are fetched again, but they are only counted and written to
+ * the local store when they actually changed. Deletions cannot be detected
+ * that way, so the IDs of all entities on the server are compared with the
+ * local IDs periodically. That reconciliation reads the collection page by
+ * page and keeps only the IDs, but the server still sends the complete
+ * entities unless a view that only contains the id property is set with
+ * {@see #setIdView}.
+ *
+ * <p>The first synchronization of a type loads the whole collection page by
+ * page, until the number of results reported by the server has arrived.
+ * Local entities are only removed when the complete set of IDs was read,
+ * so a server that caps or ignores the page size cannot cause deletions.
+ * Please note that a type whose entities have no value for the timestamp
+ * property has no high-water mark, so every synchronization of such a type
+ * falls back to a full, paged load. All methods of this class are
+ * synchronous and must not be called on the main thread.</p>
+ * <pre>
+ * DeltaSync sync = new DeltaSync(store);
+ * DeltaSync.Result result = sync.sync(Example.class);
+ * </pre>
+ *
+ * @author Christian Morgner
+ */
+public class DeltaSync {
+
+	public static final String DEFAULT_TIMESTAMP_KEY         = "lastModifiedDate";
+	public static final long DEFAULT_RECONCILIATION_INTERVAL = 24L * 60L * 60L * 1000L;
+	public static final int DEFAULT_PAGE_SIZE                = 100;
+
+	private static final String HIGH_WATER_MARK_SUFFIX = ".highWaterMark";
+	private static final String RECONCILED_SUFFIX      = ".reconciled";
+	private static final String RANGE_END              = "9999-12-31T23:59:59+0000";
+
+	private long reconciliationInterval = DEFAULT_RECONCILIATION_INTERVAL;
+	private StructrClient client        = null;
+	private String timestampKey         = null;
+	private LocalStore store            = null;
+	private String idView               = null;
+
+	/**
+	 * Creates a new delta synchronization with the default client that uses
+	 * the lastModifiedDate property as the modification timestamp.
+	 *
+	 * @param store the local store to synchronize into
+	 */
+	public DeltaSync(final LocalStore store) {
+		this(StructrClient.getDefault(), store, DEFAULT_TIMESTAMP_KEY);
+	}
+
+	/**
+	 * Creates a new delta synchronization with the default client.
+	 *
+	 * @param store the local store to synchronize into
+	 * @param timestampKey the exposed property that contains the modification timestamp
+	 */
+	public DeltaSync(final LocalStore store, final String timestampKey) {
+		this(StructrClient.getDefault(), store, timestampKey);
+	}
+
+	/**
+	 * Creates a new delta synchronization with the given client.
+	 *
+	 * @param client the client to load the entities with
+	 * @param store the local store to synchronize into
+	 * @param timestampKey the exposed property that contains the modification timestamp
+	 */
+	public DeltaSync(final StructrClient client, final LocalStore store, final String timestampKey) {
+
+		this.client       = client;
+		this.store        = store;
+		this.timestampKey = timestampKey;
+	}
+
+	/**
+	 * Sets the interval in which deleted entities are detected by comparing
+	 * the local IDs with the IDs on the server.
+	 *
+	 * @param reconciliationInterval the interval in milliseconds
+	 */
+	public void setReconciliationInterval(final long reconciliationInterval) {
+		this.reconciliationInterval = reconciliationInterval;
+	}
+
+	/**
+	 * Sets the view that the reconciliation requests, e.g. a view on the
+	 * server that only contains the id property. By default, the default
+	 * view is requested, so the server sends the complete entities.
+	 *
+	 * @param idView the name of the view, or null for the default view
+	 */
+	public void setIdView(final String idView) {
+		this.idView = idView;
+	}
+
+	/**
+	 * Synchronizes the entities of the given type into the local store.
+	 *
+	 * @param type the type of the entities to synchronize
+	 * @return the result of the synchronization
+	 * @throws Throwable
+	 */
+	public <T extends StructrObject> Result sync(final Class<T> type) throws Throwable {
+
+		final String name          = type.getSimpleName();
+		final String highWaterMark = store.getMetadata(name + HIGH_WATER_MARK_SUFFIX);
+		final int pageSize         = client.getScheduler().getPageSize(DEFAULT_PAGE_SIZE);
+		final Result result        = new Result();
+		Object maxTimestamp        = null;
+
+		if (highWaterMark == null) {
+
+			final Set<String> ids = new HashSet<String>();
+			final Paging paging   = new Paging();
+			int page              = 1;
+
+			// load page by page, so that large collections are never held in memory at once
+			do {
+
+				final StructrObject.StructrCollectionResult<T> collection = client.dbListPage(type, "id", true, page++, pageSize);
+				final List<T> entities                                    = collection != null ? collection.getResult() : null;
+				final int before                                          = ids.size();
+				int size                                                  = 0;
+
+				if (entities != null) {
+
+					for (final T entity : entities) {
+						ids.add(entity.getId());
+					}
+
+					result.updated += store.putAll(entities);
+					maxTimestamp    = getMaxTimestamp(maxTimestamp, entities);
+					size            = entities.size();
+				}
+
+				paging.received(size, ids.size() - before, ids.size(), collection != null && collection.hasResultCount() ? collection.getResultCount() : -1);
+
+			} while (paging.hasNext());
+
+			if (paging.isComplete()) {
+
+				// a complete load contains all entities, so every other local entity was deleted
+				result.deleted = removeMissing(type, ids);
+				result.full    = true;
+
+				store.setMetadata(name + RECONCILED_SUFFIX, Long.toString(System.currentTimeMillis()));
+
+			} else {
+
+				// the entities that were not loaded may be older than the mark
+				maxTimestamp = null;
+			}
+
+		} else {
+
+			final Set<String> ids = new HashSet<String>();
+			String mark           = highWaterMark;
+			int page              = 1;
+
+			// each page starts at the newest timestamp of the previous page, so entities that
+			// change during the load cannot shift other entities out of the remaining pages
+			while (true) {
+
+				final String range                                        = URLEncoder.encode("[" + mark + " TO " + RANGE_END + "]", "UTF-8");
+				final StructrObject.StructrCollectionResult<T> collection = client.dbListPage(type, timestampKey, true, page, pageSize, "&", timestampKey, "=", range);
+				final List<T> entities                                    = collection != null ? collection.getResult() : null;
+
+				if (entities == null || entities.isEmpty()) {
+					break;
+				}
+
+				// the range includes the mark, so unchanged entities at the boundary are skipped by the store
+				result.updated += store.putAll(entities);
+				maxTimestamp    = getMaxTimestamp(maxTimestamp, entities);
+
+				final int before = ids.size();
+
+				for (final T entity : entities) {
+					ids.add(entity.getId());
+				}
+
+				// the range has arrived when the reported count is reached; without a count, a page that is
+				// not full is the last one, and a page without new IDs means that the server ignores paging
+				final boolean last = collection.hasResultCount() ? ids.size() >= collection.getResultCount() : entities.size() < pageSize;
+				if (last || ids.size() == before) {
+					break;
+				}
+
+				final Object pageMax = getMaxTimestamp(null, entities);
+				if (pageMax == null) {
+					break;
+				}
+
+				final String next = format(pageMax);
+				if (next.equals(mark)) {
+
+					// more entities than fit on a page share the mark, so the next page of the same range is needed
+					page++;
+
+				} else {
+
+					mark = next;
+					page = 1;
+
+					ids.clear();
+				}
+			}
+		}
+
+		if (maxTimestamp != null) {
+			store.setMetadata(name + HIGH_WATER_MARK_SUFFIX, format(maxTimestamp));
+		}
+
+		if (!result.full && isReconciliationDue(name)) {
+			result.deleted = reconcile(type);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Detects entities of the given type that were deleted on the server by
+	 * comparing the local IDs with the IDs on the server, and removes them
+	 * from the local store. The IDs are read page by page in the view set
+	 * with {@see #setIdView}. Nothing is removed if the server did not send
+	 * the complete set of IDs.
+	 *
+	 * @param type the type of the entities to reconcile
+	 * @return the number of removed entities
+	 * @throws Throwable
+	 */
+	public <T extends StructrObject> int reconcile(final Class<T> type) throws Throwable {
+
+		final String name     = type.getSimpleName();
+		final String path     = idView != null ? "/" + name + "/" + idView : "/" + name;
+		final int pageSize    = client.getScheduler().getPageSize(DEFAULT_PAGE_SIZE);
+		final Set<String> ids = new HashSet<String>();
+		final Paging paging   = new Paging();
+		int page              = 1;
+
+		do {
+
+			final PropertyCollector collector = new PropertyCollector("id", ids);
+			final int before                  = ids.size();
+
+			client.dbRead(collector, path, "?sort=id&pageSize=", pageSize, "&page=", page++);
+			paging.received(collector.getCount(), ids.size() - before, ids.size(), collector.hasResultCount() ? collector.getResultCount() : -1);
+
+		} while (paging.hasNext());
+
+		if (!paging.isComplete()) {
+			return 0;
+		}
+
+		final int deleted = removeMissing(type, ids);
+
+		store.setMetadata(name + RECONCILED_SUFFIX, Long.toString(System.currentTimeMillis()));
+
+		return deleted;
+	}
+
+	/**
+	 * Discards the synchronization state of the given type, so that the
+	 * next synchronization loads the whole collection again.
+	 *
+	 * @param type the type to reset
+	 * @throws Throwable
+	 */
+	public void reset(final Class<? extends StructrObject> type) throws Throwable {
+
+		store.setMetadata(type.getSimpleName() + HIGH_WATER_MARK_SUFFIX, null);
+		store.setMetadata(type.getSimpleName() + RECONCILED_SUFFIX, null);
+	}
+
+	// ----- private methods -----
+	private boolean isReconciliationDue(final String name) throws Throwable {
+
+		final String reconciled = store.getMetadata(name + RECONCILED_SUFFIX);
+		if (reconciled != null) {
+			return System.currentTimeMillis() - Long.parseLong(reconciled) > reconciliationInterval;
+		}
+
+		return true;
+	}
+
+	private int removeMissing(final Class<? extends StructrObject> type, final Set<String> serverIds) throws Throwable {
+
+		int count = 0;
+
+		for (final String id : store.getIds(type)) {
+
+			if (!serverIds.contains(id)) {
+
+				store.remove(type, id);
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object getMaxTimestamp(final Object current, final List<? extends StructrObject> entities) {
+
+		Object max = current;
+
+		for (final StructrObject entity : entities) {
+
+			final Object value = ExposedFields.getValue(entity, timestampKey);
+			if (value instanceof Comparable && (max == null || ((Comparable<Object>)value).compareTo(max) > 0)) {
+				max = value;
+			}
+		}
+
+		return max;
+	}
+
+	private String format(final Object timestamp) {
+
+		if (timestamp instanceof Date) {
+			return new SimpleDateFormat(StructrObject.DATE_FORMAT).format((Date)timestamp);
+		}
+
+		return timestamp.toString();
+	}
+
+	// ----- nested classes -----
+	/**
+	 * Decides whether a paged load of a collection needs another page. A
+	 * load is complete when the number of results reported by the server
+	 * has arrived, or, if the server does not report one, when a page is
+	 * shorter than the previous pages. A page without new IDs ends the load
+	 * as incomplete, because the server ignores the page parameter.
+	 */
+	private static class Paging {
+
+		private boolean complete = false;
+		private boolean next     = true;
+		private int largest      = 0;
+
+		public void received(final int size, final int added, final int total, final int resultCount) {
+
+			if (resultCount >= 0) {
+
+				complete = total >= resultCount;
+
+			} else {
+
+				complete = size == 0 || size < largest;
+			}
+
+			largest = Math.max(largest, size);
+			next    = !complete && added > 0;
+		}
+
+		public boolean hasNext() {
+			return next;
+		}
+
+		public boolean isComplete() {
+			return complete;
+		}
+	}
+
+	/**
+	 * The result of a synchronization.
+	 */
+	public static class Result {
+
+		private boolean full = false;
+		private int updated  = 0;
+		private int deleted  = 0;
+
+		/**
+		 * @return whether the whole collection was loaded
+		 */
+		public boolean isFull() {
+			return full;
+		}
+
+		/**
+		 * @return the number of entities that were loaded from the server and were new or changed
+		 */
+		public int getUpdated() {
+			return updated;
+		}
+
+		/**
+		 * @return the number of entities that were removed from the local store
+		 */
+		public int getDeleted() {
+			return deleted;
+		}
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+
+/**
+ * A {@see SyncWorker.Budget} that restricts background synchronization
+ * according to the state of the device. Nothing is executed without a
+ * network connection, tasks with {@see SyncWorker#PRIORITY_LOW} are only
+ * executed on Wi-Fi, and only tasks with {@see SyncWorker#PRIORITY_HIGH}
+ * are executed while the battery is low and not charging.
+ * <pre>
+ * StructrClient.getDefault().getSyncWorker().setBudget(new DeviceBudget(context));
+ * </pre>
+ *
+ * @author Christian Morgner
+ */
+public class DeviceBudget implements SyncWorker.Budget {
+
+	public static final int DEFAULT_LOW_BATTERY = 15;
+
+	private Context context = null;
+	private int lowBattery  = DEFAULT_LOW_BATTERY;
+
+	/**
+	 * Creates a new device budget.
+	 *
+	 * @param context the context, the application context is used to avoid leaking activities
+	 */
+	public DeviceBudget(final Context context) {
+		this.context = context.getApplicationContext();
+	}
+
+	/**
+	 * @param percent the battery level in percent below which only high-priority tasks are executed
+	 */
+	public void setLowBattery(final int percent) {
+		this.lowBattery = percent;
+	}
+
+	@Override
+	public boolean allows(final int priority) {
+
+		final ConnectivityManager connectivity = (ConnectivityManager)context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		final NetworkInfo network              = connectivity != null ? connectivity.getActiveNetworkInfo() : null;
+
+		if (network == null || !network.isConnected()) {
+			return false;
+		}
+
+		if (priority >= SyncWorker.PRIORITY_LOW && network.getType() != ConnectivityManager.TYPE_WIFI) {
+			return false;
+		}
+
+		if (priority > SyncWorker.PRIORITY_HIGH && isBatteryLow()) {
+			return false;
+		}
+
+		return true;
+	}
+
+	// ----- private methods -----
+	private boolean isBatteryLow() {
+
+		// the battery state is a sticky broadcast, so no receiver is needed
+		final Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		if (battery != null) {
+
+			final int level   = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+			final int scale   = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+			final int plugged = battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+
+			if (level >= 0 && scale > 0 && plugged == 0) {
+				return level * 100 / scale < lowBattery;
+			}
+		}
+
+		return false;
+	}
+}
@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, in-memory cache of entities, keyed by the path they were loaded
+ * from. Each {@see StructrClient} has one cache, which is filled by its
+ * {@see Prefetcher} and by background loads of its {@see SyncWorker}, and
+ * consulted before an entity is loaded from the REST server in the
+ * foreground. Loads through the client never fill the cache themselves.
+ * Each cached entity is handed out only once and removed from the cache
+ * when it is used, so no two loads share the same instance, and loading
+ * an entity again always asks the server. Cached entities expire after a
+ * configurable time, and entities that are stored or deleted through the
+ * same client are removed from the cache.
+ *
+ * @author Christian Morgner
+ */
+public class EntityCache implements EntityListener {
+
+	public static final int DEFAULT_SIZE     = 256;
+	public static final long DEFAULT_MAX_AGE = 30000L;
+
+	private Map<String, CacheEntry> entries = null;
+	private long maxAge                     = DEFAULT_MAX_AGE;
+	private long prefetchHits               = 0L;
+	private long hits                       = 0L;
+	private long misses                     = 0L;
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param maxSize the maximum number of entities to keep
+	 */
+	public EntityCache(final int maxSize) {
+
+		this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, CacheEntry> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Sets the time after which cached entities expire.
+	 *
+	 * @param maxAge the maximum age of a cached entity in milliseconds
+	 */
+	public synchronized void setMaxAge(final long maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	/**
+	 * Removes the entity with the given path from this cache and returns it.
+	 * The returned instance is not shared with later calls.
+	 *
+	 * @param type the expected type of the entity
+	 * @param path the path of the entity
+	 * @return the cached entity, or null if there is no valid entity with the given type and path
+	 */
+	public synchronized <T extends StructrObject> T get(final Class<T> type, final String path) {
+
+		final CacheEntry entry = entries.remove(path);
+		if (entry != null) {
+
+			if (System.currentTimeMillis() - entry.time <= maxAge && type.isInstance(entry.entity)) {
+
+				if (entry.prefetched) {
+
+					// count each prefetched entity only once
+					entry.prefetched = false;
+					prefetchHits++;
+				}
+
+				hits++;
+
+				return type.cast(entry.entity);
+			}
+		}
+
+		misses++;
+
+		return null;
+	}
+
+	/**
+	 * @param path the path of an entity
+	 * @return whether a valid entity with the given path is cached
+	 */
+	public synchronized boolean contains(final String path) {
+
+		final CacheEntry entry = entries.get(path);
+		return entry != null && System.currentTimeMillis() - entry.time <= maxAge;
+	}
+
+	/**
+	 * Caches the given entity.
+	 *
+	 * @param path the path of the entity
+	 * @param entity the entity
+	 */
+	public synchronized void put(final String path, final StructrObject entity) {
+		entries.put(path, new CacheEntry(entity, false));
+	}
+
+	/**
+	 * Removes the entity with the given path from this cache.
+	 *
+	 * @param path the path of the entity
+	 */
+	public synchronized void remove(final String path) {
+		entries.remove(path);
+	}
+
+	/**
+	 * Removes all entities from this cache.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * @return the number of cached entities, including expired ones
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of loads that were answered from this cache
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * @return the number of loads that were not answered from this cache
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * @return the number of prefetched entities that were used by a load
+	 */
+	public synchronized long getPrefetchHitCount() {
+		return prefetchHits;
+	}
+
+	// ----- interface EntityListener -----
+	@Override
+	public void entityCreated(final StructrObject entity) {
+	}
+
+	@Override
+	public synchronized void entityStored(final StructrObject entity) {
+
+		// the stored instance belongs to the caller and may lack server-side values
+		entries.remove(getPath(entity));
+	}
+
+	@Override
+	public synchronized void entityDeleted(final StructrObject entity) {
+		entries.remove(getPath(entity));
+	}
+
+	// ----- package-private methods -----
+	/**
+	 * Caches the given entity as a prefetched entity.
+	 */
+	synchronized void putPrefetched(final String path, final StructrObject entity) {
+		entries.put(path, new CacheEntry(entity, true));
+	}
+
+	/**
+	 * @return the path under which the given entity is cached when it is loaded by its ID
+	 */
+	static String getPath(final StructrObject entity) {
+		return "/" + entity.getEntityName() + "/" + entity.getId();
+	}
+
+	// ----- nested classes -----
+	private static class CacheEntry {
+
+		private StructrObject entity = null;
+		private boolean prefetched   = false;
+		private long time            = 0L;
+
+		public CacheEntry(final StructrObject entity, final boolean prefetched) {
+
+			this.time       = System.currentTimeMillis();
+			this.prefetched = prefetched;
+			this.entity     = entity;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.util.Comparator;
+
+/**
+ * A comparator that sorts entities by the value of an exposed property,
+ * mimicking the "sort" and "order" parameters of the structr REST server.
+ * Null values are sorted after all other values in ascending order.
+ *
+ * @author Christian Morgner
+ */
+public class EntityComparator<T extends StructrObject> implements Comparator<T> {
+
+	private String sortKey = null;
+	private boolean asc    = true;
+
+	public EntityComparator(final String sortKey, final boolean asc) {
+		this.sortKey = sortKey;
+		this.asc     = asc;
+	}
+
+	@Override
+	public int compare(final T o1, final T o2) {
+
+		final int result = compareValues(ExposedFields.getValue(o1, sortKey), ExposedFields.getValue(o2, sortKey));
+
+		return asc ? result : -result;
+	}
+
+	public String getSortKey() {
+		return sortKey;
+	}
+
+	public boolean isAscending() {
+		return asc;
+	}
+
+	// ----- private methods -----
+	@SuppressWarnings("unchecked")
+	private int compareValues(final Object v1, final Object v2) {
+
+		if (v1 == null && v2 == null) {
+			return 0;
+		}
+
+		if (v1 == null) {
+			return 1;
+		}
+
+		if (v2 == null) {
+			return -1;
+		}
+
+		if (v1 instanceof Comparable && v1.getClass().equals(v2.getClass())) {
+			return ((Comparable<Object>)v1).compareTo(v2);
+		}
+
+		return v1.toString().compareTo(v2.toString());
+	}
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+/**
+ * A listener that you can register with {@see StructrObject#addEntityListener}
+ * to be notified of successful local mutations, i.e. calls to dbCreate(),
+ * dbStore() and dbDelete(), and of remote changes that are received by a
+ * {@see ChangeFeed}. Please note that the methods of this interface are
+ * called on the thread that executed the mutation, which is usually the
+ * background thread of a {@see StructrConnector}, or on the dispatcher
+ * thread of the change feed.
+ *
+ * @author Christian Morgner
+ */
+public interface EntityListener {
+
+	/**
+	 * Will be called after an entity was created on the REST server.
+	 * @param entity the created entity
+	 */
+	public void entityCreated(final StructrObject entity);
+
+	/**
+	 * Will be called after an entity was stored on the REST server.
+	 * @param entity the stored entity
+	 */
+	public void entityStored(final StructrObject entity);
+
+	/**
+	 * Will be called after an entity was deleted from the REST server. The
+	 * ID of the entity is still set when this method is called.
+	 * @param entity the deleted entity
+	 */
+	public void entityDeleted(final StructrObject entity);
+}
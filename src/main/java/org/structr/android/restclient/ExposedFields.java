@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.google.gson.annotations.Expose;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches the @Expose-annotated fields of entity classes, so that the local
+ * parts of this library (sorting, filtering, local storage) can access the
+ * same properties that are mapped to the structr REST output without doing
+ * a reflective lookup on every access.
+ *
+ * @author Christian Morgner
+ */
+class ExposedFields {
+
+	private static final Map<Class<?>, Map<String, Field>> cache  = new ConcurrentHashMap<Class<?>, Map<String, Field>>();
+	private static final Map<Class<?>, List<Field>> internedCache = new ConcurrentHashMap<Class<?>, List<Field>>();
+	private static final Map<Class<?>, List<Field>> versionCache  = new ConcurrentHashMap<Class<?>, List<Field>>();
+
+	/**
+	 * @param type the entity type
+	 * @return all exposed fields of the given type and its superclasses, keyed by property name
+	 */
+	static Map<String, Field> get(final Class<?> type) {
+
+		Map<String, Field> fields = cache.get(type);
+		if (fields == null) {
+
+			final LinkedHashMap<String, Field> map = new LinkedHashMap<String, Field>();
+			Class<?> current                       = type;
+
+			while (current != null && !Object.class.equals(current)) {
+
+				for (final Field field : current.getDeclaredFields()) {
+
+					if (field.isAnnotationPresent(Expose.class) && !Modifier.isStatic(field.getModifiers()) && !map.containsKey(field.getName())) {
+
+						field.setAccessible(true);
+						map.put(field.getName(), field);
+					}
+				}
+
+				current = current.getSuperclass();
+			}
+
+			fields = Collections.unmodifiableMap(map);
+			cache.put(type, fields);
+		}
+
+		return fields;
+	}
+
+	/**
+	 * @param type the entity type
+	 * @param name the property name
+	 * @return the exposed field with the given name, or null
+	 */
+	static Field get(final Class<?> type, final String name) {
+		return get(type).get(name);
+	}
+
+	/**
+	 * @param type the entity type
+	 * @return the exposed String fields of the given type that are annotated with {@see Interned}
+	 */
+	static List<Field> getInterned(final Class<?> type) {
+
+		List<Field> fields = internedCache.get(type);
+		if (fields == null) {
+
+			final List<Field> list = new ArrayList<Field>();
+
+			for (final Field field : get(type).values()) {
+
+				if (String.class.equals(field.getType()) && field.isAnnotationPresent(Interned.class)) {
+					list.add(field);
+				}
+			}
+
+			fields = Collections.unmodifiableList(list);
+			internedCache.put(type, fields);
+		}
+
+		return fields;
+	}
+
+	/**
+	 * @param type the entity type
+	 * @return the field of the given type that is annotated with {@see Version}, or null
+	 */
+	static Field getVersion(final Class<?> type) {
+
+		List<Field> fields = versionCache.get(type);
+		if (fields == null) {
+
+			final List<Field> list = new ArrayList<Field>(1);
+
+			for (final Field field : get(type).values()) {
+
+				if (field.isAnnotationPresent(Version.class)) {
+
+					list.add(field);
+					break;
+				}
+			}
+
+			fields = Collections.unmodifiableList(list);
+			versionCache.put(type, fields);
+		}
+
+		return fields.isEmpty() ? null : fields.get(0);
+	}
+
+	/**
+	 * @param entity the entity
+	 * @param name the property name
+	 * @return the value of the exposed property with the given name, or null if there is no such property
+	 */
+	static Object getValue(final Object entity, final String name) {
+
+		final Field field = get(entity.getClass(), name);
+		if (field != null) {
+
+			try {
+				return field.get(entity);
+
+			} catch (IllegalAccessException iaex) {
+				// cannot happen, field is accessible
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Compares the value of a property of the given entity with the given value,
+	 * like a property filter in a query on the REST server does.
+	 *
+	 * @param entity the entity
+	 * @param name the property name
+	 * @param value the value to compare with, may be null
+	 * @return whether the entity has the given property value
+	 */
+	static boolean matches(final Object entity, final String name, final Object value) {
+
+		final Object entityValue = getValue(entity, name);
+		if (entityValue == null) {
+			return value == null;
+		}
+
+		return value != null && entityValue.toString().equals(value.toString());
+	}
+
+	/**
+	 * @param value a property value, may be null
+	 * @return the key under which the given value is indexed
+	 */
+	static String toIndexValue(final Object value) {
+		return value != null ? value.toString() : null;
+	}
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.io.IOException;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+
+/**
+ * A {@see Transport} that sends requests with an Apache HttpClient. Use
+ * {@see #create} to obtain a transport with a connection pool that is sized
+ * for many parallel requests to the same server, which avoids queueing the
+ * requests behind the two connections per server that an AndroidHttpClient
+ * allows.
+ * <pre>
+ * StructrClient.getDefault().setTransport(HttpClientTransport.create(8, 16, tlsConfig));
+ * </pre>
+ *
+ * @author Christian Morgner
+ */
+public class HttpClientTransport implements Transport {
+
+	public static final String USER_AGENT  = "structr REST client";
+	public static final int SOCKET_TIMEOUT = 20000;
+	public static final int BUFFER_SIZE    = 8192;
+
+	private HttpClient client = null;
+
+	/**
+	 * Creates a new transport that sends requests with the given client.
+	 *
+	 * @param client the http client
+	 */
+	public HttpClientTransport(final HttpClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * Creates a new transport with a thread-safe connection pool. Connections
+	 * are kept alive and reused, and requests with a body are sent without
+	 * waiting for a "100 Continue" response first.
+	 *
+	 * @param maxPerServer the maximum number of connections per server
+	 * @param maxTotal the maximum number of connections in total
+	 * @param tlsConfig the TLS configuration for https connections, may be null
+	 * @return the transport
+	 */
+	public static HttpClientTransport create(final int maxPerServer, final int maxTotal, final TlsConfig tlsConfig) {
+
+		final HttpParams params = new BasicHttpParams();
+
+		HttpConnectionParams.setStaleCheckingEnabled(params, false);
+		HttpConnectionParams.setConnectionTimeout(params, SOCKET_TIMEOUT);
+		HttpConnectionParams.setSoTimeout(params, SOCKET_TIMEOUT);
+		HttpConnectionParams.setSocketBufferSize(params, BUFFER_SIZE);
+		HttpConnectionParams.setTcpNoDelay(params, true);
+
+		HttpProtocolParams.setVersion(params, HttpVersion.HTTP_1_1);
+		HttpProtocolParams.setUserAgent(params, USER_AGENT);
+		HttpProtocolParams.setUseExpectContinue(params, false);
+
+		ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxPerServer));
+		ConnManagerParams.setMaxTotalConnections(params, maxTotal);
+
+		final SchemeRegistry schemeRegistry = new SchemeRegistry();
+		schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		schemeRegistry.register(new Scheme("https", tlsConfig != null ? tlsConfig : SSLSocketFactory.getSocketFactory(), 443));
+
+		return new HttpClientTransport(new DefaultHttpClient(new ThreadSafeClientConnManager(params, schemeRegistry), params));
+	}
+
+	/**
+	 * @return the http client of this transport
+	 */
+	public HttpClient getHttpClient() {
+		return client;
+	}
+
+	@Override
+	public HttpResponse execute(final HttpUriRequest request) throws IOException {
+		return client.execute(request);
+	}
+
+	@Override
+	public void shutdown() {
+		client.getConnectionManager().shutdown();
+	}
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an exposed String field whose values should be deduplicated after
+ * decoding, so that entities with equal values share a single String
+ * instance. Use this annotation for enum-like properties (status, type,
+ * category, owner IDs) that repeat across many entities of a collection.
+ *
+ * <pre>
+ * public class Example extends StructrObject {
+ *	&#64;Expose &#64;Interned private String status;
+ *	&#64;Expose &#64;Interned(global = true) private String ownerId;
+ * }
+ * </pre>
+ *
+ * @author Christian Morgner
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Interned {
+
+	/**
+	 * @return whether to share values across all requests using the bounded
+	 * global {@see StringPool}, instead of only within a single response
+	 */
+	boolean global() default false;
+}
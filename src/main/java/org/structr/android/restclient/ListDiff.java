@@ -0,0 +1,238 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The difference between two result lists, keyed by entity ID. Entities
+ * are considered changed when their exposed properties differ, which is
+ * detected by comparing their JSON representation. Entities are considered
+ * moved when they changed their order relative to the other entities; the
+ * smallest such set is reported, so a single insertion does not move the
+ * entities behind it. Since computing a diff serializes every entity of the
+ * new list, you should not call {@see #compute} on the main thread.
+ *
+ * @author Christian Morgner
+ */
+public class ListDiff {
+
+	private final List<Integer> inserted      = new ArrayList<Integer>();
+	private final List<Integer> removed       = new ArrayList<Integer>();
+	private final List<Integer> changed       = new ArrayList<Integer>();
+	private final List<Integer> moved         = new ArrayList<Integer>();
+	private Map<Object, String> states        = null;
+
+	private ListDiff() {
+	}
+
+	/**
+	 * Computes the difference between the given lists.
+	 *
+	 * @param oldList the old list, may be null
+	 * @param newList the new list, may be null
+	 * @return the difference between the two lists
+	 */
+	public static <T extends StructrObject> ListDiff compute(final List<T> oldList, final List<T> newList) {
+		return compute(oldList, null, newList);
+	}
+
+	/**
+	 * Computes the difference between the given lists, using the states of
+	 * a previous diff to detect changes of entities that were modified in
+	 * place.
+	 */
+	static <T extends StructrObject> ListDiff compute(final List<T> oldList, final Map<Object, String> oldStates, final List<T> newList) {
+
+		final List<T> oldItems                  = oldList != null ? oldList : Collections.<T>emptyList();
+		final List<T> newItems                  = newList != null ? newList : Collections.<T>emptyList();
+		final Map<Object, Integer> oldPositions = new HashMap<Object, Integer>();
+		final Map<Object, Integer> newPositions = new HashMap<Object, Integer>();
+		final ListDiff diff                     = new ListDiff();
+
+		Map<Object, String> previous = oldStates;
+		if (previous == null) {
+
+			previous = new HashMap<Object, String>();
+			for (final T item : oldItems) {
+				previous.put(key(item), state(item));
+			}
+		}
+
+		for (int i=0; i<oldItems.size(); i++) {
+			oldPositions.put(key(oldItems.get(i)), i);
+		}
+
+		diff.states = new HashMap<Object, String>();
+
+		// inserted and changed entities, in new list order
+		final List<Integer> commonOldPositions = new ArrayList<Integer>();
+		final List<Integer> commonNewPositions = new ArrayList<Integer>();
+		for (int i=0; i<newItems.size(); i++) {
+
+			final T item         = newItems.get(i);
+			final Object key     = key(item);
+			final String state   = state(item);
+			final Integer oldPos = oldPositions.get(key);
+
+			diff.states.put(key, state);
+			newPositions.put(key, i);
+
+			if (oldPos == null) {
+
+				diff.inserted.add(i);
+
+			} else {
+
+				if (!state.equals(previous.get(key))) {
+					diff.changed.add(i);
+				}
+
+				commonOldPositions.add(oldPos);
+				commonNewPositions.add(i);
+			}
+		}
+
+		// removed entities, in old list order
+		for (int i=0; i<oldItems.size(); i++) {
+
+			if (!newPositions.containsKey(key(oldItems.get(i)))) {
+				diff.removed.add(i);
+			}
+		}
+
+		// entities that are present in both lists but changed their relative order,
+		// i.e. all entities outside of the longest increasing run of old positions
+		final boolean[] stable = longestIncreasingSubsequence(commonOldPositions);
+		for (int i=0; i<stable.length; i++) {
+
+			if (!stable[i]) {
+				diff.moved.add(commonNewPositions.get(i));
+			}
+		}
+
+		return diff;
+	}
+
+	/**
+	 * @return whether the two lists contain the same entities in the same order with the same values
+	 */
+	public boolean isEmpty() {
+		return inserted.isEmpty() && removed.isEmpty() && changed.isEmpty() && moved.isEmpty();
+	}
+
+	/**
+	 * @return the positions of inserted entities in the new list
+	 */
+	public List<Integer> getInserted() {
+		return inserted;
+	}
+
+	/**
+	 * @return the positions of removed entities in the old list
+	 */
+	public List<Integer> getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * @return the positions of changed entities in the new list
+	 */
+	public List<Integer> getChanged() {
+		return changed;
+	}
+
+	/**
+	 * @return the positions of moved entities in the new list
+	 */
+	public List<Integer> getMoved() {
+		return moved;
+	}
+
+	Map<Object, String> getStates() {
+		return states;
+	}
+
+	// ----- private static methods -----
+	private static Object key(final StructrObject item) {
+
+		final String id = item.getId();
+		if (id != null) {
+			return id;
+		}
+
+		// non-persistent entities can only be identified by identity
+		return item;
+	}
+
+	private static String state(final StructrObject item) {
+		return StructrObject.toJson(item);
+	}
+
+	/**
+	 * @return the members of a longest strictly increasing subsequence of the given values
+	 */
+	private static boolean[] longestIncreasingSubsequence(final List<Integer> values) {
+
+		final int size           = values.size();
+		final int[] tails        = new int[size];
+		final int[] predecessors = new int[size];
+		final boolean[] members  = new boolean[size];
+		int length               = 0;
+
+		for (int i=0; i<size; i++) {
+
+			final int value = values.get(i);
+
+			// binary search for the first run whose tail is not smaller than the value
+			int low  = 0;
+			int high = length;
+
+			while (low < high) {
+
+				final int mid = (low + high) >>> 1;
+				if (values.get(tails[mid]) < value) {
+
+					low = mid + 1;
+
+				} else {
+
+					high = mid;
+				}
+			}
+
+			predecessors[i] = low > 0 ? tails[low - 1] : -1;
+			tails[low]      = i;
+
+			if (low == length) {
+				length++;
+			}
+		}
+
+		for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = predecessors[i]) {
+			members[i] = true;
+		}
+
+		return members;
+	}
+}
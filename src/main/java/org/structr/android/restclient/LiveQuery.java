@@ -0,0 +1,387 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A query over a type, an optional property filter and a sort key whose
+ * results are kept up to date. A live query materializes its result set
+ * once, and then applies local mutations (dbCreate(), dbStore() and
+ * dbDelete() on matching entities) incrementally, so the result set does
+ * not need to be reloaded from the server after every edit. Use
+ * {@see #refresh} to reconcile the local result set with the server.
+ * Mutations that are reported while the result set is being loaded are
+ * applied to the loaded result set, so they are neither delivered as a
+ * partial result set nor lost. A live query without subscribers does not
+ * track mutations, so the next subscription loads the result set again.
+ *
+ * <p>Subscribers are notified on the main thread, so you can subscribe a
+ * {@see CollectionHandlerListAdapter} directly. A live query loads its
+ * results through a {@see StructrClient} and tracks the mutations that
+ * are reported to the entity listeners of that client, including the
+ * remote changes of a {@see ChangeFeed} on the client.</p>
+ * <pre>
+ * LiveQuery&lt;Example&gt; query = new LiveQuery&lt;Example&gt;(Example.class, "status", "open", "name", true);
+ * query.subscribe(adapter);
+ *
+ * // later, in onDestroy()
+ * query.unsubscribe(adapter);
+ * </pre>
+ *
+ * @author Christian Morgner
+ */
+public class LiveQuery<T extends StructrObject> implements EntityListener {
+
+	private final List<CollectionHandler<T>> handlers = new CopyOnWriteArrayList<CollectionHandler<T>>();
+	private final Handler mainHandler                 = new Handler(Looper.getMainLooper());
+	private final List<Mutation> pending              = new ArrayList<Mutation>();
+	private final List<T> results                     = new ArrayList<T>();
+	private EntityComparator<T> comparator            = null;
+	private StructrClient client                      = null;
+	private Class<T> type                             = null;
+	private String key                                = null;
+	private Object value                              = null;
+	private boolean loaded                            = false;
+	private int loading                               = 0;
+
+	/**
+	 * Creates a live query over all entities of the given type on the
+	 * default client.
+	 *
+	 * @param type the type of the entities
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 */
+	public LiveQuery(final Class<T> type, final String sortKey, final boolean asc) {
+		this(StructrClient.getDefault(), type, null, null, sortKey, asc);
+	}
+
+	/**
+	 * Creates a live query over all entities of the given type with the given
+	 * property value on the default client.
+	 *
+	 * @param type the type of the entities
+	 * @param key the property key to filter by, or null
+	 * @param value the property value to filter by
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 */
+	public LiveQuery(final Class<T> type, final String key, final Object value, final String sortKey, final boolean asc) {
+		this(StructrClient.getDefault(), type, key, value, sortKey, asc);
+	}
+
+	/**
+	 * Creates a live query over all entities of the given type on the given
+	 * client.
+	 *
+	 * @param client the client to load the results with and to track the mutations of
+	 * @param type the type of the entities
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 */
+	public LiveQuery(final StructrClient client, final Class<T> type, final String sortKey, final boolean asc) {
+		this(client, type, null, null, sortKey, asc);
+	}
+
+	/**
+	 * Creates a live query over all entities of the given type with the given
+	 * property value on the given client.
+	 *
+	 * @param client the client to load the results with and to track the mutations of
+	 * @param type the type of the entities
+	 * @param key the property key to filter by, or null
+	 * @param value the property value to filter by
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 */
+	public LiveQuery(final StructrClient client, final Class<T> type, final String key, final Object value, final String sortKey, final boolean asc) {
+
+		this.comparator = new EntityComparator<T>(sortKey, asc);
+		this.client     = client;
+		this.type       = type;
+		this.key        = key;
+		this.value      = value;
+	}
+
+	/**
+	 * Subscribes the given handler to this query. The handler receives the
+	 * current result set immediately if this query has already been loaded,
+	 * and after every change of the result set. The first subscription
+	 * loads the result set from the server. This method must be called on
+	 * the main thread.
+	 *
+	 * @param handler the handler to subscribe
+	 */
+	public void subscribe(final CollectionHandler<T> handler) {
+
+		handlers.add(handler);
+
+		synchronized (results) {
+
+			if (loaded) {
+				deliver(handler, new ArrayList<T>(results));
+			}
+		}
+
+		if (handlers.size() == 1) {
+
+			client.addEntityListener(this);
+
+			if (!loaded) {
+				refresh();
+			}
+		}
+	}
+
+	/**
+	 * Unsubscribes the given handler from this query. When the last handler
+	 * is removed, this query stops tracking local mutations, and its result
+	 * set is loaded again on the next subscription.
+	 *
+	 * @param handler the handler to unsubscribe
+	 */
+	public void unsubscribe(final CollectionHandler<T> handler) {
+
+		handlers.remove(handler);
+
+		if (handlers.isEmpty()) {
+
+			client.removeEntityListener(this);
+
+			// mutations are missed from now on
+			synchronized (results) {
+				loaded = false;
+			}
+		}
+	}
+
+	/**
+	 * Reloads the result set of this query from the server and replaces the
+	 * local result set with it. This method must be called on the main thread.
+	 */
+	public void refresh() {
+
+		synchronized (results) {
+			loading++;
+		}
+
+		new Reconciler().execute();
+	}
+
+	/**
+	 * @return a snapshot of the current result set
+	 */
+	public List<T> getResults() {
+
+		synchronized (results) {
+			return new ArrayList<T>(results);
+		}
+	}
+
+	// ----- interface EntityListener -----
+	@Override
+	public void entityCreated(final StructrObject entity) {
+		mutated(entity, false);
+	}
+
+	@Override
+	public void entityStored(final StructrObject entity) {
+		mutated(entity, false);
+	}
+
+	@Override
+	public void entityDeleted(final StructrObject entity) {
+		mutated(entity, true);
+	}
+
+	// ----- private methods -----
+	private void mutated(final StructrObject entity, final boolean deleted) {
+
+		if (type.isInstance(entity)) {
+
+			synchronized (results) {
+
+				// a load in progress may not contain the mutation, so it is applied to the loaded result set again
+				if (loading > 0) {
+					pending.add(new Mutation(entity, deleted));
+				}
+
+				if (!loaded || !apply(entity, deleted)) {
+					return;
+				}
+			}
+
+			notifyHandlers();
+		}
+	}
+
+	/**
+	 * Applies a mutation to the result set. Applying a mutation twice has
+	 * the same effect as applying it once.
+	 *
+	 * @return whether the result set changed
+	 */
+	private boolean apply(final StructrObject entity, final boolean deleted) {
+
+		final boolean removed = removeById(entity.getId());
+
+		if (!deleted && matches(entity)) {
+
+			insertSorted(type.cast(entity));
+			return true;
+		}
+
+		return removed;
+	}
+
+	private boolean matches(final StructrObject entity) {
+
+		if (!type.isInstance(entity)) {
+			return false;
+		}
+
+		return key == null || ExposedFields.matches(entity, key, value);
+	}
+
+	private boolean removeById(final String id) {
+
+		if (id != null) {
+
+			for (int i=0; i<results.size(); i++) {
+
+				if (id.equals(results.get(i).getId())) {
+
+					results.remove(i);
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private void insertSorted(final T entity) {
+
+		int pos = Collections.binarySearch(results, entity, comparator);
+		if (pos < 0) {
+			pos = -pos - 1;
+		}
+
+		results.add(pos, entity);
+	}
+
+	private void notifyHandlers() {
+
+		final List<T> snapshot = getResults();
+
+		for (final CollectionHandler<T> handler : handlers) {
+			deliver(handler, snapshot);
+		}
+	}
+
+	private void deliver(final CollectionHandler<T> handler, final List<T> snapshot) {
+
+		mainHandler.post(new Runnable() {
+
+			@Override
+			public void run() {
+				handler.handleResults(snapshot);
+			}
+		});
+	}
+
+	// ----- nested classes -----
+	private class Reconciler extends StructrConnector<List<T>> {
+
+		@Override
+		protected List<T> doInBackground(final Object... parameters) {
+
+			try {
+				if (key != null) {
+					return client.dbFind(type, key, value, comparator.getSortKey(), comparator.isAscending());
+				}
+
+				return client.dbList(type, comparator.getSortKey(), comparator.isAscending());
+
+			} catch (Throwable t) {
+				publishProgress(new Progress(t));
+			}
+
+			return null;
+		}
+
+		@Override
+		protected void onProgressUpdate(final Progress... progress) {
+
+			for (final CollectionHandler<T> handler : handlers) {
+				handler.handleProgress(progress);
+			}
+		}
+
+		@Override
+		protected void onPostExecute(final List<T> list) {
+
+			synchronized (results) {
+
+				loading--;
+
+				if (list != null) {
+
+					results.clear();
+					results.addAll(list);
+
+					for (final Mutation mutation : pending) {
+						apply(mutation.entity, mutation.deleted);
+					}
+
+					loaded = true;
+				}
+
+				if (loading == 0) {
+					pending.clear();
+				}
+			}
+
+			if (list != null) {
+				notifyHandlers();
+			}
+		}
+	}
+
+	/**
+	 * A mutation that was reported while the result set was being loaded.
+	 */
+	private static class Mutation {
+
+		private StructrObject entity = null;
+		private boolean deleted      = false;
+
+		public Mutation(final StructrObject entity, final boolean deleted) {
+
+			this.entity  = entity;
+			this.deleted = deleted;
+		}
+	}
+}
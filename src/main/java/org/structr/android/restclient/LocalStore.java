@@ -0,0 +1,743 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.google.gson.JsonParseException;
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * An embedded, file-based store for entities that can answer list and find
+ * queries locally, with the same sort semantics as the REST server. Each
+ * entity type is stored in a journal file named after the fully qualified
+ * class name in the given directory, which is replayed when the type is
+ * first accessed and compacted when it contains too many outdated records.
+ * Every mutation is synced to disk before it returns; {@see #putAll} writes
+ * the records of all entities first and syncs each journal once. A record
+ * that was only partially written when the process or the device died is
+ * discarded when the journal is replayed.
+ * Secondary indexes on exposed properties can be registered with
+ * {@see #addIndex}; they are kept in memory and rebuilt when a type is
+ * loaded.
+ *
+ * <p>Register a local store as an {@see EntityListener} to mirror all local
+ * mutations into the store:</p>
+ * <pre>
+ * LocalStore store = new LocalStore(new File(getFilesDir(), "structr"));
+ * store.addIndex(Example.class, "status");
+ * StructrObject.addEntityListener(store);
+ *
+ * List&lt;Example&gt; open = store.dbFind(Example.class, "status", "open", "name", true);
+ * </pre>
+ *
+ * @author Christian Morgner
+ */
+public class LocalStore implements EntityListener {
+
+	private static final String METADATA_FILE  = "store.properties";
+	private static final String JOURNAL_SUFFIX = ".journal";
+	private static final char PUT              = 'P';
+	private static final char DELETE           = 'D';
+
+	private final Map<Class<?>, Set<String>> indexKeys = new HashMap<Class<?>, Set<String>>();
+	private final Map<Class<?>, TypeStore> types       = new HashMap<Class<?>, TypeStore>();
+	private Properties metadata                        = null;
+	private File directory                             = null;
+
+	/**
+	 * Creates a new local store in the given directory. The directory is
+	 * created if it does not exist.
+	 *
+	 * @param directory the directory to store the journal files in
+	 */
+	public LocalStore(final File directory) {
+
+		this.directory = directory;
+
+		directory.mkdirs();
+	}
+
+	/**
+	 * Registers a secondary index on the given property of the given type.
+	 * Indexed properties are used by {@see #dbFind} to avoid scanning all
+	 * entities of a type.
+	 *
+	 * @param type the entity type
+	 * @param key the property key
+	 */
+	public synchronized void addIndex(final Class<? extends StructrObject> type, final String key) {
+
+		Set<String> keys = indexKeys.get(type);
+		if (keys == null) {
+
+			keys = new HashSet<String>();
+			indexKeys.put(type, keys);
+		}
+
+		if (keys.add(key)) {
+
+			final TypeStore store = types.get(type);
+			if (store != null) {
+				store.buildIndex(key);
+			}
+		}
+	}
+
+	/**
+	 * Stores the given entity, replacing a previously stored entity with the
+	 * same type and ID. Entities without ID are ignored, and so are entities
+	 * that are already stored with the same values.
+	 *
+	 * @param entity the entity to store
+	 * @return whether the entity was new or changed
+	 * @throws IOException
+	 */
+	public synchronized boolean put(final StructrObject entity) throws IOException {
+
+		final TypeStore store = write(entity);
+		if (store != null) {
+
+			store.sync();
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Stores the given entities. The records of all entities are written
+	 * first, and each journal is synced to disk once.
+	 *
+	 * @param entities the entities to store
+	 * @return the number of entities that were new or changed
+	 * @throws IOException
+	 */
+	public synchronized int putAll(final Collection<? extends StructrObject> entities) throws IOException {
+
+		final Set<TypeStore> written = new LinkedHashSet<TypeStore>();
+		int count                    = 0;
+
+		for (final StructrObject entity : entities) {
+
+			final TypeStore store = write(entity);
+			if (store != null) {
+
+				written.add(store);
+				count++;
+			}
+		}
+
+		for (final TypeStore store : written) {
+			store.sync();
+		}
+
+		return count;
+	}
+
+	/**
+	 * Removes the entity with the given type and ID.
+	 *
+	 * @param type the entity type
+	 * @param id the entity ID
+	 * @throws IOException
+	 */
+	public synchronized void remove(final Class<? extends StructrObject> type, final String id) throws IOException {
+
+		final TypeStore store = getTypeStore(type);
+
+		store.remove(id, true);
+		store.sync();
+	}
+
+	/**
+	 * Loads the entity with the given type and ID.
+	 *
+	 * @param type the entity type
+	 * @param id the entity ID
+	 * @return a new instance of the stored entity, or null if there is no such entity
+	 * @throws IOException
+	 */
+	public synchronized <T extends StructrObject> T dbGet(final Class<T> type, final String id) throws IOException {
+
+		final String json = getTypeStore(type).entities.get(id);
+		if (json != null) {
+			return StructrObject.fromJson(type, json);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Lists all stored entities of the given type.
+	 *
+	 * @param type the entity type
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 * @return a sorted list of new instances of the stored entities
+	 * @throws IOException
+	 */
+	public synchronized <T extends StructrObject> List<T> dbList(final Class<T> type, final String sortKey, final boolean asc) throws IOException {
+		return decode(type, getTypeStore(type).entities.values(), sortKey, asc);
+	}
+
+	/**
+	 * Finds all stored entities of the given type with the given property value.
+	 *
+	 * @param type the entity type
+	 * @param key the property key to search for
+	 * @param value the property value to search for
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 * @return a sorted list of new instances of the matching entities
+	 * @throws IOException
+	 */
+	public synchronized <T extends StructrObject> List<T> dbFind(final Class<T> type, final String key, final Object value, final String sortKey, final boolean asc) throws IOException {
+
+		final TypeStore store                = getTypeStore(type);
+		final Map<String, Set<String>> index = store.indexes.get(key);
+
+		if (index != null) {
+
+			final Set<String> ids = index.get(ExposedFields.toIndexValue(value));
+			if (ids == null) {
+				return new ArrayList<T>();
+			}
+
+			final List<String> sources = new ArrayList<String>(ids.size());
+			for (final String id : ids) {
+				sources.add(store.entities.get(id));
+			}
+
+			return decode(type, sources, sortKey, asc);
+		}
+
+		final List<T> result = new ArrayList<T>();
+		for (final T entity : decode(type, store.entities.values(), sortKey, asc)) {
+
+			if (ExposedFields.matches(entity, key, value)) {
+				result.add(entity);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @param type the entity type
+	 * @return the number of stored entities of the given type
+	 * @throws IOException
+	 */
+	public synchronized int count(final Class<? extends StructrObject> type) throws IOException {
+		return getTypeStore(type).entities.size();
+	}
+
+	/**
+	 * @param type the entity type
+	 * @return the IDs of all stored entities of the given type
+	 * @throws IOException
+	 */
+	public synchronized Set<String> getIds(final Class<? extends StructrObject> type) throws IOException {
+		return new HashSet<String>(getTypeStore(type).entities.keySet());
+	}
+
+	/**
+	 * @param key the metadata key
+	 * @return the stored metadata value for the given key, or null
+	 * @throws IOException
+	 */
+	public synchronized String getMetadata(final String key) throws IOException {
+		return getMetadata().getProperty(key);
+	}
+
+	/**
+	 * Stores a metadata value, e.g. the state of a synchronization process.
+	 * Metadata is written to disk immediately.
+	 *
+	 * @param key the metadata key
+	 * @param value the metadata value, or null to remove the key
+	 * @throws IOException
+	 */
+	public synchronized void setMetadata(final String key, final String value) throws IOException {
+
+		final Properties properties = getMetadata();
+
+		if (value != null) {
+			properties.setProperty(key, value);
+		} else {
+			properties.remove(key);
+		}
+
+		final FileOutputStream out = new FileOutputStream(new File(directory, METADATA_FILE));
+		try {
+			properties.store(out, null);
+
+		} finally {
+
+			out.close();
+		}
+	}
+
+	/**
+	 * Rewrites the journal files of all loaded types, so that they only
+	 * contain the current state of each entity.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void compact() throws IOException {
+
+		for (final TypeStore store : types.values()) {
+			store.compact();
+		}
+	}
+
+	/**
+	 * Closes all journal files. The store can still be used afterwards; the
+	 * journal files are reopened on demand.
+	 *
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+
+		for (final TypeStore store : types.values()) {
+			store.close();
+		}
+
+		types.clear();
+	}
+
+	// ----- interface EntityListener -----
+	@Override
+	public void entityCreated(final StructrObject entity) {
+		entityStored(entity);
+	}
+
+	@Override
+	public void entityStored(final StructrObject entity) {
+
+		try {
+			put(entity);
+
+		} catch (IOException ioex) {
+			// the local store is a cache, the server is the authority
+		}
+	}
+
+	@Override
+	public void entityDeleted(final StructrObject entity) {
+
+		try {
+			remove(entity.getClass(), entity.getId());
+
+		} catch (IOException ioex) {
+			// the local store is a cache, the server is the authority
+		}
+	}
+
+	// ----- private methods -----
+	private Properties getMetadata() throws IOException {
+
+		if (metadata == null) {
+
+			final File file = new File(directory, METADATA_FILE);
+
+			metadata = new Properties();
+
+			if (file.exists()) {
+
+				final FileInputStream in = new FileInputStream(file);
+				try {
+					metadata.load(in);
+
+				} finally {
+
+					in.close();
+				}
+			}
+		}
+
+		return metadata;
+	}
+
+	private TypeStore getTypeStore(final Class<? extends StructrObject> type) throws IOException {
+
+		TypeStore store = types.get(type);
+		if (store == null) {
+
+			// the simple name is not unique, so types in different packages would share a journal
+			final File file   = new File(directory, type.getName() + JOURNAL_SUFFIX);
+			final File legacy = new File(directory, type.getSimpleName() + JOURNAL_SUFFIX);
+
+			if (!file.exists() && legacy.exists() && !legacy.renameTo(file)) {
+				throw new IOException("Unable to rename journal " + legacy);
+			}
+
+			store = new TypeStore(type, file);
+			types.put(type, store);
+
+			store.open();
+		}
+
+		return store;
+	}
+
+	/**
+	 * Writes the record of the given entity to its journal without syncing
+	 * it to disk.
+	 *
+	 * @return the store of the entity's type if the entity was new or changed, or null
+	 */
+	private TypeStore write(final StructrObject entity) throws IOException {
+
+		if (entity.getId() != null) {
+
+			final TypeStore store = getTypeStore(entity.getClass());
+			final String json     = StructrObject.toJson(entity);
+
+			if (!json.equals(store.entities.get(entity.getId()))) {
+
+				store.put(entity.getId(), json, true);
+				return store;
+			}
+		}
+
+		return null;
+	}
+
+	private <T extends StructrObject> List<T> decode(final Class<T> type, final Collection<String> sources, final String sortKey, final boolean asc) {
+
+		final List<T> result = new ArrayList<T>(sources.size());
+
+		for (final String json : sources) {
+			result.add(StructrObject.fromJson(type, json));
+		}
+
+		Collections.sort(result, new EntityComparator<T>(sortKey, asc));
+
+		return result;
+	}
+
+	// ----- nested classes -----
+	private class TypeStore {
+
+		private final Map<String, Map<String, Set<String>>> indexes  = new HashMap<String, Map<String, Set<String>>>();
+		private final Map<String, Map<String, String>> indexedValues = new HashMap<String, Map<String, String>>();
+		private final Map<String, String> entities                   = new LinkedHashMap<String, String>();
+		private FileOutputStream journalStream                       = null;
+		private Class<? extends StructrObject> type                  = null;
+		private Writer journal                                       = null;
+		private File file                                            = null;
+		private boolean dirty                                        = false;
+		private int records                                          = 0;
+
+		public TypeStore(final Class<? extends StructrObject> type, final File file) {
+
+			this.type = type;
+			this.file = file;
+		}
+
+		public void open() throws IOException {
+
+			if (file.exists()) {
+
+				final ByteArrayOutputStream line = new ByteArrayOutputStream();
+				final InputStream in             = new BufferedInputStream(new FileInputStream(file));
+				boolean truncate                 = false;
+				long valid                       = 0L;
+
+				try {
+					while (true) {
+
+						line.reset();
+
+						int c = in.read();
+						while (c != -1 && c != '\n') {
+
+							line.write(c);
+							c = in.read();
+						}
+
+						if (c == -1) {
+
+							// a record without line break was not completely written
+							truncate = line.size() > 0;
+							break;
+						}
+
+						try {
+							replay(line.toString("UTF-8"));
+
+						} catch (JsonParseException jpex) {
+
+							in.mark(1);
+
+							if (in.read() != -1) {
+								throw new IOException("Corrupt record at offset " + valid + " in journal " + file);
+							}
+
+							// the last record was not completely written
+							truncate = true;
+							break;
+						}
+
+						valid += line.size() + 1;
+					}
+
+				} finally {
+
+					in.close();
+				}
+
+				if (truncate) {
+
+					final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+					try {
+						raf.setLength(valid);
+						raf.getFD().sync();
+
+					} finally {
+
+						raf.close();
+					}
+				}
+			}
+
+			final Set<String> keys = indexKeys.get(type);
+			if (keys != null) {
+
+				for (final String key : keys) {
+					buildIndex(key);
+				}
+			}
+
+			openJournal();
+		}
+
+		public void put(final String id, final String json, final boolean log) throws IOException {
+
+			removeFromIndexes(id);
+
+			entities.put(id, json);
+
+			if (!indexes.isEmpty()) {
+
+				final StructrObject entity = StructrObject.fromJson(type, json);
+				for (final String key : indexes.keySet()) {
+					addToIndex(key, entity);
+				}
+			}
+
+			if (log) {
+				append(PUT, json);
+			}
+		}
+
+		public void remove(final String id, final boolean log) throws IOException {
+
+			if (entities.containsKey(id)) {
+
+				removeFromIndexes(id);
+				entities.remove(id);
+
+				if (log) {
+					append(DELETE, id);
+				}
+			}
+		}
+
+		public void buildIndex(final String key) {
+
+			indexes.put(key, new HashMap<String, Set<String>>());
+			indexedValues.put(key, new HashMap<String, String>());
+
+			for (final String json : entities.values()) {
+				addToIndex(key, StructrObject.fromJson(type, json));
+			}
+		}
+
+		public void compact() throws IOException {
+
+			final File tmp             = new File(file.getParentFile(), file.getName() + ".tmp");
+			final FileOutputStream out = new FileOutputStream(tmp);
+			final Writer writer        = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+
+			try {
+				for (final String json : entities.values()) {
+
+					writer.write(PUT);
+					writer.write(' ');
+					writer.write(json);
+					writer.write('\n');
+				}
+
+				// the compacted journal must be on disk before it replaces the old one
+				writer.flush();
+				out.getFD().sync();
+
+			} finally {
+
+				writer.close();
+			}
+
+			journal.close();
+
+			try {
+				if (!tmp.renameTo(file)) {
+
+					// some platforms cannot rename onto an existing file
+					file.delete();
+					if (!tmp.renameTo(file)) {
+						throw new IOException("Unable to replace journal " + file);
+					}
+				}
+
+				records = entities.size();
+
+			} finally {
+
+				// keep the store usable even if the journal could not be replaced
+				openJournal();
+			}
+		}
+
+		/**
+		 * Syncs the records written since the last sync to disk, and compacts
+		 * the journal if it contains too many outdated records.
+		 */
+		public void sync() throws IOException {
+
+			if (dirty) {
+
+				journal.flush();
+
+				// a record that is not on disk can be lost or torn by a power loss
+				journalStream.getFD().sync();
+				dirty = false;
+
+				// compact when more than half of the records are outdated
+				if (records > 64 && records > entities.size() * 2) {
+					compact();
+				}
+			}
+		}
+
+		public void close() throws IOException {
+			journal.close();
+		}
+
+		// ----- private methods -----
+		private void replay(final String line) {
+
+			if (line.length() > 2) {
+
+				final String payload = line.substring(2);
+
+				switch (line.charAt(0)) {
+
+					case PUT:
+						final StructrObject entity = StructrObject.fromJson(type, payload);
+						if (entity != null && entity.getId() != null) {
+							entities.put(entity.getId(), payload);
+						}
+						break;
+
+					case DELETE:
+						entities.remove(payload);
+						break;
+				}
+
+				records++;
+			}
+		}
+
+		private void openJournal() throws IOException {
+
+			journalStream = new FileOutputStream(file, true);
+			journal       = new BufferedWriter(new OutputStreamWriter(journalStream, "UTF-8"));
+		}
+
+		private void append(final char operation, final String payload) throws IOException {
+
+			journal.write(operation);
+			journal.write(' ');
+			journal.write(payload);
+			journal.write('\n');
+
+			records++;
+			dirty = true;
+		}
+
+		private void addToIndex(final String key, final StructrObject entity) {
+
+			final Map<String, Set<String>> index = indexes.get(key);
+			final String value                   = ExposedFields.toIndexValue(ExposedFields.getValue(entity, key));
+			Set<String> ids                      = index.get(value);
+
+			if (ids == null) {
+
+				ids = new HashSet<String>();
+				index.put(value, ids);
+			}
+
+			ids.add(entity.getId());
+			indexedValues.get(key).put(entity.getId(), value);
+		}
+
+		private void removeFromIndexes(final String id) {
+
+			for (final Map.Entry<String, Map<String, Set<String>>> entry : indexes.entrySet()) {
+
+				final Map<String, String> values = indexedValues.get(entry.getKey());
+				if (values.containsKey(id)) {
+
+					final String value    = values.remove(id);
+					final Set<String> ids = entry.getValue().get(value);
+
+					if (ids != null) {
+
+						ids.remove(id);
+
+						if (ids.isEmpty()) {
+							entry.getValue().remove(value);
+						}
+					}
+				}
+			}
+		}
+	}
+}
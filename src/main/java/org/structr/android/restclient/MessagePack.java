@@ -0,0 +1,888 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.google.gson.annotations.Expose;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.WildcardType;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A streaming decoder for the MessagePack binary format that presents a
+ * MessagePack document as a {@link JsonReader}, so that Gson binds entities
+ * encoded with MessagePack directly from the stream and with exactly the
+ * same rules as entities encoded with JSON. Strings are only decoded when
+ * they are read, skipped values are skipped without decoding them.
+ * Timestamps (extension type -1) are converted to strings in the date
+ * format of the REST server; binary data and other extension types are
+ * decoded as null.
+ *
+ * Gson 2.1 reads the keys of Map fields through internal state of its own
+ * JsonReader, so types that contain a Map must be bound from a tree that
+ * is parsed from this reader, see {@link #canStream}.
+ *
+ * @author Christian Morgner
+ */
+class MessagePack extends JsonReader {
+
+	public static final String CONTENT_TYPE = "application/x-msgpack";
+
+	private static final Map<Type, Boolean> streamable = new ConcurrentHashMap<Type, Boolean>();
+	private static final Charset UTF_8                 = Charset.forName("UTF-8");
+	private static final TimeZone UTC                  = TimeZone.getTimeZone("UTC");
+	private static final int BUFFER_SIZE               = 8192;
+	private static final int LONG                      = 0;
+	private static final int DOUBLE                    = 1;
+	private static final int BIG                       = 2;
+
+	private final SimpleDateFormat dateFormat = new SimpleDateFormat(StructrObject.DATE_FORMAT);
+	private final byte[] buffer               = new byte[BUFFER_SIZE];
+	private InputStream in                    = null;
+	private int position                      = 0;
+	private int limit                         = 0;
+	private long[] remaining                  = new long[16];
+	private boolean[] maps                    = new boolean[16];
+	private int depth                         = 0;
+	private boolean started                   = false;
+	private JsonToken token                   = null;
+	private String string                     = null;
+	private int stringLength                  = -1;
+	private long size                         = 0L;
+	private int numberKind                    = LONG;
+	private long longValue                    = 0L;
+	private double doubleValue                = 0.0;
+	private BigInteger bigValue               = null;
+	private boolean booleanValue              = false;
+
+	/**
+	 * Creates a reader for a single MessagePack document.
+	 *
+	 * @param in the stream to read from
+	 */
+	MessagePack(final InputStream in) {
+
+		super(new Unreadable());
+
+		this.in = in;
+	}
+
+	/**
+	 * Indicates whether Gson can bind the given type directly from this
+	 * reader, i.e. whether no exposed field of the type (or of the types
+	 * it contains) is a Map. The result is cached per type.
+	 *
+	 * @param type the type to bind
+	 * @return whether the type can be bound without an intermediate tree
+	 */
+	static boolean canStream(final Type type) {
+
+		Boolean result = streamable.get(type);
+		if (result == null) {
+
+			result = !containsMap(type, new HashSet<Type>());
+			streamable.put(type, result);
+		}
+
+		return result;
+	}
+
+	@Override
+	public void beginArray() throws IOException {
+
+		expect(JsonToken.BEGIN_ARRAY);
+		consume();
+		push(false, size);
+	}
+
+	@Override
+	public void endArray() throws IOException {
+
+		expect(JsonToken.END_ARRAY);
+		pop();
+	}
+
+	@Override
+	public void beginObject() throws IOException {
+
+		expect(JsonToken.BEGIN_OBJECT);
+		consume();
+		push(true, size * 2);
+	}
+
+	@Override
+	public void endObject() throws IOException {
+
+		expect(JsonToken.END_OBJECT);
+		pop();
+	}
+
+	@Override
+	public boolean hasNext() throws IOException {
+
+		final JsonToken next = peek();
+
+		return next != JsonToken.END_ARRAY && next != JsonToken.END_OBJECT && next != JsonToken.END_DOCUMENT;
+	}
+
+	@Override
+	public JsonToken peek() throws IOException {
+
+		if (token == null) {
+
+			if (depth == 0) {
+
+				if (started) {
+
+					token = JsonToken.END_DOCUMENT;
+
+				} else {
+
+					started = true;
+					read(false);
+				}
+
+			} else if (remaining[depth - 1] == 0) {
+
+				token = maps[depth - 1] ? JsonToken.END_OBJECT : JsonToken.END_ARRAY;
+
+			} else {
+
+				// every even element of a map is a key
+				read(maps[depth - 1] && (remaining[depth - 1] & 1) == 0);
+			}
+		}
+
+		return token;
+	}
+
+	@Override
+	public String nextName() throws IOException {
+
+		expect(JsonToken.NAME);
+
+		final String name = stringValue();
+		consume();
+
+		return name;
+	}
+
+	@Override
+	public String nextString() throws IOException {
+
+		final String value;
+
+		switch (peek()) {
+
+			case STRING:
+			case NAME:
+				value = stringValue();
+				break;
+
+			case NUMBER:
+				value = numberValue();
+				break;
+
+			default:
+				throw new IllegalStateException("Expected a string but was " + token);
+		}
+
+		consume();
+
+		return value;
+	}
+
+	@Override
+	public boolean nextBoolean() throws IOException {
+
+		expect(JsonToken.BOOLEAN);
+		consume();
+
+		return booleanValue;
+	}
+
+	@Override
+	public void nextNull() throws IOException {
+
+		expect(JsonToken.NULL);
+		consume();
+	}
+
+	@Override
+	public double nextDouble() throws IOException {
+
+		final double value;
+
+		switch (peek()) {
+
+			case NUMBER:
+				value = numberKind == LONG ? longValue : numberKind == DOUBLE ? doubleValue : bigValue.doubleValue();
+				break;
+
+			case STRING:
+			case NAME:
+				value = Double.parseDouble(stringValue());
+				break;
+
+			default:
+				throw new IllegalStateException("Expected a double but was " + token);
+		}
+
+		consume();
+
+		return value;
+	}
+
+	@Override
+	public long nextLong() throws IOException {
+
+		final long value = longValue("long");
+		consume();
+
+		return value;
+	}
+
+	@Override
+	public int nextInt() throws IOException {
+
+		final long value = longValue("int");
+		if ((int)value != value) {
+			throw new NumberFormatException("Expected an int but was " + value);
+		}
+
+		consume();
+
+		return (int)value;
+	}
+
+	@Override
+	public void skipValue() throws IOException {
+
+		final int level = depth;
+
+		if (!hasNext()) {
+			throw new IllegalStateException("Expected a value but was " + token);
+		}
+
+		do {
+
+			switch (peek()) {
+
+				case BEGIN_ARRAY:
+					beginArray();
+					break;
+
+				case BEGIN_OBJECT:
+					beginObject();
+					break;
+
+				case END_ARRAY:
+				case END_OBJECT:
+					pop();
+					break;
+
+				case END_DOCUMENT:
+					throw new EOFException("Unexpected end of MessagePack document");
+
+				default:
+					consume();
+					break;
+			}
+
+		} while (depth > level);
+	}
+
+	@Override
+	public void close() throws IOException {
+
+		token = null;
+		depth = 0;
+
+		in.close();
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName();
+	}
+
+	// ----- private methods -----
+	private void read(final boolean name) throws IOException {
+
+		final int b = readUnsignedByte();
+
+		string       = null;
+		stringLength = -1;
+
+		// positive fixint
+		if (b <= 0x7f) {
+
+			setLong(b);
+
+		// fixmap
+		} else if (b <= 0x8f) {
+
+			setContainer(JsonToken.BEGIN_OBJECT, b & 0x0f);
+
+		// fixarray
+		} else if (b <= 0x9f) {
+
+			setContainer(JsonToken.BEGIN_ARRAY, b & 0x0f);
+
+		// fixstr
+		} else if (b <= 0xbf) {
+
+			setString(b & 0x1f);
+
+		// negative fixint
+		} else if (b >= 0xe0) {
+
+			setLong(b - 0x100);
+
+		} else {
+
+			switch (b) {
+
+				case 0xc0: token = JsonToken.NULL; break;
+				case 0xc2: setBoolean(false); break;
+				case 0xc3: setBoolean(true); break;
+
+				case 0xc4: skip(readUnsignedByte()); token = JsonToken.NULL; break;
+				case 0xc5: skip(readUnsignedShort()); token = JsonToken.NULL; break;
+				case 0xc6: skip(length(readInt())); token = JsonToken.NULL; break;
+
+				case 0xc7: readExtension(readUnsignedByte()); break;
+				case 0xc8: readExtension(readUnsignedShort()); break;
+				case 0xc9: readExtension(length(readInt())); break;
+
+				case 0xca: setDouble(Float.intBitsToFloat(readInt())); break;
+				case 0xcb: setDouble(Double.longBitsToDouble(readLong())); break;
+
+				case 0xcc: setLong(readUnsignedByte()); break;
+				case 0xcd: setLong(readUnsignedShort()); break;
+				case 0xce: setLong(readInt() & 0xffffffffL); break;
+				case 0xcf: readUnsignedLong(); break;
+
+				case 0xd0: setLong((byte)readUnsignedByte()); break;
+				case 0xd1: setLong((short)readUnsignedShort()); break;
+				case 0xd2: setLong(readInt()); break;
+				case 0xd3: setLong(readLong()); break;
+
+				case 0xd4: readExtension(1); break;
+				case 0xd5: readExtension(2); break;
+				case 0xd6: readExtension(4); break;
+				case 0xd7: readExtension(8); break;
+				case 0xd8: readExtension(16); break;
+
+				case 0xd9: setString(readUnsignedByte()); break;
+				case 0xda: setString(readUnsignedShort()); break;
+				case 0xdb: setString(length(readInt())); break;
+
+				case 0xdc: setContainer(JsonToken.BEGIN_ARRAY, readUnsignedShort()); break;
+				case 0xdd: setContainer(JsonToken.BEGIN_ARRAY, length(readInt())); break;
+
+				case 0xde: setContainer(JsonToken.BEGIN_OBJECT, readUnsignedShort()); break;
+				case 0xdf: setContainer(JsonToken.BEGIN_OBJECT, length(readInt())); break;
+
+				default:
+					throw new IOException("Invalid MessagePack type 0x" + Integer.toHexString(b));
+			}
+		}
+
+		if (name) {
+
+			switch (token) {
+
+				case STRING:
+					break;
+
+				case NUMBER:
+					string = numberValue();
+					break;
+
+				case BOOLEAN:
+					string = Boolean.toString(booleanValue);
+					break;
+
+				case NULL:
+					string = "null";
+					break;
+
+				default:
+					throw new IOException("Unsupported MessagePack map key " + token);
+			}
+
+			token = JsonToken.NAME;
+		}
+	}
+
+	private void setLong(final long value) {
+
+		token      = JsonToken.NUMBER;
+		numberKind = LONG;
+		longValue  = value;
+	}
+
+	private void setDouble(final double value) {
+
+		token       = JsonToken.NUMBER;
+		numberKind  = DOUBLE;
+		doubleValue = value;
+	}
+
+	private void setBoolean(final boolean value) {
+
+		token        = JsonToken.BOOLEAN;
+		booleanValue = value;
+	}
+
+	private void setString(final int length) {
+
+		token        = JsonToken.STRING;
+		stringLength = length;
+	}
+
+	private void setContainer(final JsonToken type, final long length) {
+
+		token = type;
+		size  = length;
+	}
+
+	private void readUnsignedLong() throws IOException {
+
+		final long value = readLong();
+		if (value >= 0) {
+
+			setLong(value);
+
+		} else {
+
+			token      = JsonToken.NUMBER;
+			numberKind = BIG;
+			bigValue   = BigInteger.valueOf(value & Long.MAX_VALUE).setBit(63);
+		}
+	}
+
+	private void readExtension(final int length) throws IOException {
+
+		final int type = (byte)readUnsignedByte();
+
+		token = JsonToken.NULL;
+
+		// timestamp extension
+		if (type == -1) {
+
+			long seconds = 0L;
+			long nanos   = 0L;
+
+			switch (length) {
+
+				case 4:
+					seconds = readInt() & 0xffffffffL;
+					break;
+
+				case 8:
+					final long data = readLong();
+					nanos   = data >>> 34;
+					seconds = data & 0x00000003ffffffffL;
+					break;
+
+				case 12:
+					nanos   = readInt() & 0xffffffffL;
+					seconds = readLong();
+					break;
+
+				default:
+					skip(length);
+					return;
+			}
+
+			token  = JsonToken.STRING;
+			string = formatTimestamp(seconds, nanos);
+
+			return;
+		}
+
+		skip(length);
+	}
+
+	/**
+	 * Formats a timestamp in the date format of the REST server. The date
+	 * format has no fraction of a second and Gson only keeps the instant,
+	 * so the date is formatted in UTC without a Calendar.
+	 */
+	private String formatTimestamp(final long seconds, final long nanos) {
+
+		// 9999-12-31T23:59:59
+		if (seconds < 0 || seconds > 253402300799L) {
+
+			dateFormat.setTimeZone(UTC);
+			return dateFormat.format(new Date((seconds * 1000L) + (nanos / 1000000L)));
+		}
+
+		// civil date from the number of days since 1970-01-01
+		final long days = (seconds / 86400L) + 719468L;
+		final long time = seconds % 86400L;
+		final long era  = days / 146097L;
+		final long doe  = days - (era * 146097L);
+		final long yoe  = (doe - (doe / 1460L) + (doe / 36524L) - (doe / 146096L)) / 365L;
+		final long doy  = doe - ((365L * yoe) + (yoe / 4L) - (yoe / 100L));
+		final long mp   = ((5L * doy) + 2L) / 153L;
+		final long day  = doy - (((153L * mp) + 2L) / 5L) + 1L;
+		final long mon  = mp < 10L ? mp + 3L : mp - 9L;
+		final long year = (era * 400L) + yoe + (mon <= 2L ? 1L : 0L);
+
+		final char[] chars = "0000-00-00T00:00:00+0000".toCharArray();
+
+		digits(chars, 0, 4, year);
+		digits(chars, 5, 2, mon);
+		digits(chars, 8, 2, day);
+		digits(chars, 11, 2, time / 3600L);
+		digits(chars, 14, 2, (time / 60L) % 60L);
+		digits(chars, 17, 2, time % 60L);
+
+		return new String(chars);
+	}
+
+	private static void digits(final char[] chars, final int offset, final int count, final long value) {
+
+		long left = value;
+		for (int i = offset + count - 1; i >= offset; i--) {
+
+			chars[i] = (char)('0' + (left % 10L));
+			left    /= 10L;
+		}
+	}
+
+	private String stringValue() throws IOException {
+
+		if (stringLength >= 0) {
+
+			string       = decode(stringLength);
+			stringLength = -1;
+		}
+
+		return string;
+	}
+
+	private String decode(final int length) throws IOException {
+
+		if (length <= BUFFER_SIZE) {
+
+			fill(length);
+
+			final String value = new String(buffer, position, length, UTF_8);
+			position += length;
+
+			return value;
+		}
+
+		// long strings are read in chunks, so a corrupt length fails at
+		// the end of the stream instead of allocating the whole length
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+		int left                        = length;
+
+		while (left > 0) {
+
+			fill(1);
+
+			final int count = Math.min(left, limit - position);
+
+			out.write(buffer, position, count);
+			position += count;
+			left     -= count;
+		}
+
+		return new String(out.toByteArray(), UTF_8);
+	}
+
+	private String numberValue() {
+
+		switch (numberKind) {
+
+			case LONG:
+				return Long.toString(longValue);
+
+			case DOUBLE:
+				return Double.toString(doubleValue);
+
+			default:
+				return bigValue.toString();
+		}
+	}
+
+	private long longValue(final String type) throws IOException {
+
+		switch (peek()) {
+
+			case NUMBER:
+
+				if (numberKind == LONG) {
+					return longValue;
+				}
+
+				if (numberKind == DOUBLE && (long)doubleValue == doubleValue) {
+					return (long)doubleValue;
+				}
+
+				throw new NumberFormatException("Expected a " + type + " but was " + numberValue());
+
+			case STRING:
+			case NAME:
+				return Long.parseLong(stringValue());
+
+			default:
+				throw new IllegalStateException("Expected a " + type + " but was " + token);
+		}
+	}
+
+	private void expect(final JsonToken expected) throws IOException {
+
+		if (peek() != expected) {
+			throw new IllegalStateException("Expected " + expected + " but was " + token);
+		}
+	}
+
+	private void consume() throws IOException {
+
+		// skip the bytes of a string that was never read
+		if (stringLength > 0) {
+			skip(stringLength);
+		}
+
+		token        = null;
+		string       = null;
+		stringLength = -1;
+
+		if (depth > 0) {
+			remaining[depth - 1]--;
+		}
+	}
+
+	private void push(final boolean map, final long count) {
+
+		if (depth == remaining.length) {
+
+			final long[] newRemaining = new long[depth * 2];
+			final boolean[] newMaps   = new boolean[depth * 2];
+
+			System.arraycopy(remaining, 0, newRemaining, 0, depth);
+			System.arraycopy(maps, 0, newMaps, 0, depth);
+
+			remaining = newRemaining;
+			maps      = newMaps;
+		}
+
+		remaining[depth] = count;
+		maps[depth]      = map;
+		depth++;
+	}
+
+	private void pop() {
+
+		token = null;
+		depth--;
+	}
+
+	private int readUnsignedByte() throws IOException {
+
+		fill(1);
+
+		return buffer[position++] & 0xff;
+	}
+
+	private int readUnsignedShort() throws IOException {
+
+		fill(2);
+
+		final int value = ((buffer[position] & 0xff) << 8) | (buffer[position + 1] & 0xff);
+		position += 2;
+
+		return value;
+	}
+
+	private int readInt() throws IOException {
+
+		fill(4);
+
+		final int value = ((buffer[position] & 0xff) << 24) | ((buffer[position + 1] & 0xff) << 16) | ((buffer[position + 2] & 0xff) << 8) | (buffer[position + 3] & 0xff);
+		position += 4;
+
+		return value;
+	}
+
+	private long readLong() throws IOException {
+
+		final long high = readInt();
+		final long low  = readInt() & 0xffffffffL;
+
+		return (high << 32) | low;
+	}
+
+	/**
+	 * Makes sure that the given number of bytes (at most the size of the
+	 * buffer) can be read from the buffer.
+	 */
+	private void fill(final int count) throws IOException {
+
+		if (limit - position >= count) {
+			return;
+		}
+
+		// move the remaining bytes to the start of the buffer
+		System.arraycopy(buffer, position, buffer, 0, limit - position);
+		limit   -= position;
+		position = 0;
+
+		while (limit < count) {
+
+			final int read = in.read(buffer, limit, buffer.length - limit);
+			if (read < 0) {
+				throw new EOFException("Unexpected end of MessagePack document");
+			}
+
+			limit += read;
+		}
+	}
+
+	private void skip(final int length) throws IOException {
+
+		int left = length;
+		while (left > 0) {
+
+			fill(1);
+
+			final int count = Math.min(left, limit - position);
+
+			position += count;
+			left     -= count;
+		}
+	}
+
+	private static int length(final int length) throws IOException {
+
+		if (length < 0) {
+			throw new IOException("Invalid MessagePack length " + (length & 0xffffffffL));
+		}
+
+		return length;
+	}
+
+	private static boolean containsMap(final Type type, final Set<Type> visited) {
+
+		if (!visited.add(type)) {
+			return false;
+		}
+
+		if (type instanceof ParameterizedType) {
+
+			final ParameterizedType parameterizedType = (ParameterizedType)type;
+			for (final Type argument : parameterizedType.getActualTypeArguments()) {
+
+				if (containsMap(argument, visited)) {
+					return true;
+				}
+			}
+
+			return containsMap(parameterizedType.getRawType(), visited);
+		}
+
+		if (type instanceof GenericArrayType) {
+			return containsMap(((GenericArrayType)type).getGenericComponentType(), visited);
+		}
+
+		if (type instanceof WildcardType) {
+
+			for (final Type bound : ((WildcardType)type).getUpperBounds()) {
+
+				if (containsMap(bound, visited)) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		if (type instanceof Class) {
+
+			final Class<?> cls = (Class<?>)type;
+
+			if (Map.class.isAssignableFrom(cls)) {
+				return true;
+			}
+
+			if (cls.isArray()) {
+				return containsMap(cls.getComponentType(), visited);
+			}
+
+			if (cls.isPrimitive() || cls.getName().startsWith("java.")) {
+				return false;
+			}
+
+			for (Class<?> current = cls; current != null; current = current.getSuperclass()) {
+
+				for (final Field field : current.getDeclaredFields()) {
+
+					final int modifiers = field.getModifiers();
+
+					if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers) && field.isAnnotationPresent(Expose.class) && containsMap(field.getGenericType(), visited)) {
+						return true;
+					}
+				}
+			}
+		}
+
+		return false;
+	}
+
+	// ----- nested classes -----
+	/**
+	 * The reader that is passed to the JsonReader base class, which is
+	 * never used because every read is handled by MessagePack.
+	 */
+	private static class Unreadable extends Reader {
+
+		@Override
+		public int read(final char[] buffer, final int offset, final int length) throws IOException {
+			throw new IOException("MessagePack documents are not read as characters");
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * A reader over a response stream that reuses its byte buffer and decoder.
+ * Each thread owns one pooled instance, so decoding a response body does
+ * not allocate buffers or intermediate strings; characters are decoded
+ * straight into the buffer of the consumer, e.g. a JsonReader. The body is
+ * decoded with the charset of the Content-Type header of the response, or
+ * with UTF-8, the default encoding of JSON, if there is none. The decoder
+ * is only replaced when the charset changes.
+ * Obtain a reader with {@see #obtain} and close it when the response has
+ * been read, which releases the reader for the next response on the same
+ * thread. Closing the reader does not close the underlying stream.
+ *
+ * @author Christian Morgner
+ */
+class PooledReader extends Reader {
+
+	private static final int BUFFER_SIZE        = 8192;
+	private static final Charset DEFAULT_CHARSET = Charset.forName("UTF-8");
+
+	private static final ThreadLocal<PooledReader> pool = new ThreadLocal<PooledReader>() {
+
+		@Override
+		protected PooledReader initialValue() {
+			return new PooledReader();
+		}
+	};
+
+	private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+	private CharsetDecoder decoder = null;
+	private CharBuffer wrapper     = null;
+	private char[] wrapped         = null;
+	private InputStream in         = null;
+	private boolean finished       = false;
+	private boolean inUse          = false;
+	private boolean eof            = false;
+
+	private PooledReader() {
+	}
+
+	/**
+	 * Returns the pooled reader of the current thread, or a new reader if
+	 * the pooled reader is in use, over the content of the given entity.
+	 *
+	 * @param entity the response entity to read
+	 * @return a reader over the content of the given entity
+	 * @throws IOException if the content cannot be read or its charset is not supported
+	 */
+	static PooledReader obtain(final HttpEntity entity) throws IOException {
+
+		final String charsetName = EntityUtils.getContentCharSet(entity);
+		Charset charset          = DEFAULT_CHARSET;
+
+		if (charsetName != null) {
+
+			try {
+				charset = Charset.forName(charsetName);
+
+			} catch (IllegalCharsetNameException icnex) {
+				throw new UnsupportedEncodingException(charsetName);
+
+			} catch (UnsupportedCharsetException ucex) {
+				throw new UnsupportedEncodingException(charsetName);
+			}
+		}
+
+		return obtain(entity.getContent(), charset);
+	}
+
+	/**
+	 * Returns the pooled reader of the current thread, or a new reader if
+	 * the pooled reader is in use.
+	 *
+	 * @param in the stream to read from
+	 * @param charset the charset of the stream
+	 * @return a reader over the given stream
+	 */
+	static PooledReader obtain(final InputStream in, final Charset charset) {
+
+		PooledReader reader = pool.get();
+		if (reader.inUse) {
+
+			// nested read on the same thread
+			reader = new PooledReader();
+		}
+
+		reader.reset(in, charset);
+
+		return reader;
+	}
+
+	@Override
+	public int read(final char[] cbuf, final int off, final int len) throws IOException {
+
+		if (len == 0) {
+			return 0;
+		}
+
+		if (finished) {
+			return -1;
+		}
+
+		final CharBuffer out = wrap(cbuf, off, len);
+
+		while (true) {
+
+			final CoderResult result = decoder.decode(bytes, out, eof);
+
+			if (eof && result.isUnderflow()) {
+
+				decoder.flush(out);
+				finished = true;
+			}
+
+			if (out.position() > off) {
+				return out.position() - off;
+			}
+
+			if (finished) {
+				return -1;
+			}
+
+			fill();
+		}
+	}
+
+	@Override
+	public void close() {
+
+		in    = null;
+		inUse = false;
+	}
+
+	// ----- private methods -----
+	private void reset(final InputStream in, final Charset charset) {
+
+		this.in       = in;
+		this.inUse    = true;
+		this.eof      = false;
+		this.finished = false;
+
+		if (decoder == null || !decoder.charset().equals(charset)) {
+			decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+
+		decoder.reset();
+		bytes.clear();
+		bytes.limit(0);
+	}
+
+	private void fill() throws IOException {
+
+		bytes.compact();
+
+		final int count = in.read(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+		if (count < 0) {
+
+			eof = true;
+
+		} else {
+
+			bytes.position(bytes.position() + count);
+		}
+
+		bytes.flip();
+	}
+
+	private CharBuffer wrap(final char[] cbuf, final int off, final int len) {
+
+		// consumers usually read into the same array over and over again
+		if (cbuf != wrapped) {
+
+			wrapper = CharBuffer.wrap(cbuf);
+			wrapped = cbuf;
+		}
+
+		wrapper.clear();
+		wrapper.position(off);
+		wrapper.limit(off + len);
+
+		return wrapper;
+	}
+}
@@ -0,0 +1,301 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Loads entities that will probably be needed soon into the {@see EntityCache}
+ * of a {@see StructrClient}, e.g. the details of the top rows of a list that
+ * was just displayed. Prefetching runs on low-priority background threads and
+ * pauses while the client executes foreground requests, so it never competes
+ * with loads the user is waiting for. A prefetch that is still queued when a
+ * foreground load of the same entity starts is cancelled.
+ *
+ * <p>Prefetching is limited by a budget: the number of concurrent prefetch
+ * requests, the number of queued prefetches (the oldest hints are dropped
+ * first), and the number of prefetch requests per minute. The number of
+ * concurrent prefetch requests is further limited by the link quality that
+ * the {@see RequestScheduler} of the client observes, and prefetching pauses
+ * entirely on poor links.</p>
+ * <pre>
+ * StructrObject.prefetch(Example.class, ids);
+ * </pre>
+ *
+ * @author Christian Morgner
+ */
+public class Prefetcher {
+
+	public static final int DEFAULT_MAX_PENDING    = 64;
+	public static final int DEFAULT_MAX_PER_MINUTE = 120;
+
+	private final LinkedList<Task> queue    = new LinkedList<Task>();
+	private final Map<String, Task> pending = new HashMap<String, Task>();
+	private StructrClient client            = null;
+	private int maxConcurrency              = 1;
+	private int maxPending                  = DEFAULT_MAX_PENDING;
+	private int maxPerMinute                = DEFAULT_MAX_PER_MINUTE;
+	private long windowStart                = 0L;
+	private int windowCount                 = 0;
+	private int workers                     = 0;
+	private int running                     = 0;
+	private long prefetched                 = 0L;
+	private long cancelled                  = 0L;
+	private long dropped                    = 0L;
+
+	Prefetcher(final StructrClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * Sets the budget of this prefetcher.
+	 *
+	 * @param maxConcurrency the maximum number of concurrent prefetch requests
+	 * @param maxPending the maximum number of queued prefetches
+	 * @param maxPerMinute the maximum number of prefetch requests per minute
+	 */
+	public synchronized void setBudget(final int maxConcurrency, final int maxPending, final int maxPerMinute) {
+
+		this.maxConcurrency = Math.max(1, maxConcurrency);
+		this.maxPending     = Math.max(1, maxPending);
+		this.maxPerMinute   = Math.max(1, maxPerMinute);
+	}
+
+	/**
+	 * Schedules the entities with the given type and IDs to be prefetched.
+	 *
+	 * @param type the type of the entities
+	 * @param ids the IDs of the entities
+	 */
+	public void prefetch(final Class<? extends StructrObject> type, final String... ids) {
+
+		final StructrObject instance = newInstance(type);
+		if (instance != null) {
+
+			for (final String id : ids) {
+				prefetchPath(type, "/" + instance.getEntityName() + "/" + id);
+			}
+		}
+	}
+
+	/**
+	 * Schedules the entity with the given type and path to be prefetched.
+	 *
+	 * @param type the type of the entity
+	 * @param path the path of the entity
+	 */
+	public synchronized void prefetchPath(final Class<? extends StructrObject> type, final String path) {
+
+		if (pending.containsKey(path) || client.getCache().contains(path)) {
+			return;
+		}
+
+		final Task task = new Task(type, path);
+
+		// the most recent hints are the most relevant ones
+		queue.addFirst(task);
+		pending.put(path, task);
+
+		while (queue.size() > maxPending) {
+
+			pending.remove(queue.removeLast().path);
+			dropped++;
+		}
+
+		if (workers < maxConcurrency) {
+
+			final Thread thread = new Thread(new Worker(), "structr prefetch");
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.setDaemon(true);
+			thread.start();
+
+			workers++;
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Removes all queued prefetches.
+	 */
+	public synchronized void cancelAll() {
+
+		cancelled += queue.size();
+		queue.clear();
+		pending.clear();
+	}
+
+	/**
+	 * @return the number of entities that were prefetched
+	 */
+	public synchronized long getPrefetchCount() {
+		return prefetched;
+	}
+
+	/**
+	 * @return the number of queued prefetches that were cancelled by foreground loads
+	 */
+	public synchronized long getCancelledCount() {
+		return cancelled;
+	}
+
+	/**
+	 * @return the number of queued prefetches that were dropped because the queue was full
+	 */
+	public synchronized long getDroppedCount() {
+		return dropped;
+	}
+
+	/**
+	 * @return the fraction of prefetched entities that were used by a load, between 0 and 1
+	 */
+	public double getHitRate() {
+
+		final long count = getPrefetchCount();
+		if (count > 0) {
+			return (double)client.getCache().getPrefetchHitCount() / (double)count;
+		}
+
+		return 0.0;
+	}
+
+	// ----- package-private methods -----
+	/**
+	 * Cancels the queued prefetch of the given path, because a foreground
+	 * load of the same path was started.
+	 */
+	synchronized void cancel(final String path) {
+
+		final Task task = pending.remove(path);
+		if (task != null) {
+
+			queue.remove(task);
+			cancelled++;
+		}
+	}
+
+	// ----- private methods -----
+	private synchronized Task next() throws InterruptedException {
+
+		while (true) {
+
+			// demote prefetching while the client is busy with foreground requests or the link is poor
+			if (!queue.isEmpty() && client.getForegroundCount() == 0 && running < Math.min(maxConcurrency, client.getScheduler().getPrefetchConcurrency())) {
+
+				final long now = System.currentTimeMillis();
+				if (now - windowStart >= 60000L) {
+
+					windowStart = now;
+					windowCount = 0;
+				}
+
+				if (windowCount < maxPerMinute) {
+
+					final Task task = queue.removeFirst();
+					pending.remove(task.path);
+					windowCount++;
+					running++;
+
+					return task;
+				}
+
+				wait(Math.max(1L, 60000L - (now - windowStart)));
+
+			} else if (queue.isEmpty()) {
+
+				// stop idle workers
+				workers--;
+				return null;
+
+			} else {
+
+				wait(100L);
+			}
+		}
+	}
+
+	private synchronized void completed(final boolean success) {
+
+		if (success) {
+			prefetched++;
+		}
+
+		running--;
+		notifyAll();
+	}
+
+	private static StructrObject newInstance(final Class<? extends StructrObject> type) {
+		try { return type.newInstance(); } catch(Throwable t) {}
+		return null;
+	}
+
+	// ----- nested classes -----
+	private class Worker implements Runnable {
+
+		@Override
+		public void run() {
+
+			client.setBackground(true);
+
+			try {
+				Task task = null;
+
+				while ((task = next()) != null) {
+
+					boolean success = false;
+
+					try {
+						final StructrObject entity = client.dbLoad(task.type, task.path);
+						if (entity != null) {
+
+							client.getCache().putPrefetched(task.path, entity);
+							success = true;
+						}
+
+					} catch (Throwable t) {
+
+						// prefetching is best effort
+					}
+
+					completed(success);
+				}
+
+			} catch (InterruptedException iex) {
+
+				synchronized (Prefetcher.this) {
+					workers--;
+				}
+			}
+		}
+	}
+
+	private static class Task {
+
+		private Class<? extends StructrObject> type = null;
+		private String path                         = null;
+
+		public Task(final Class<? extends StructrObject> type, final String path) {
+
+			this.type = type;
+			this.path = path;
+		}
+	}
+}
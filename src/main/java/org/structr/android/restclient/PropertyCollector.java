@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Reads the values of a single property from a collection response, and
+ * skips everything else without creating entities. Values are collected
+ * in their string representation; null values and nested objects or
+ * arrays are skipped. The values are added to the collection passed to
+ * the constructor, so a set keeps only the distinct values in memory.
+ *
+ * @author Christian Morgner
+ */
+class PropertyCollector implements ResponseReader<Collection<String>> {
+
+	private Collection<String> values = null;
+	private String key                = null;
+	private int resultCount           = -1;
+	private int count                 = 0;
+
+	public PropertyCollector(final String key) {
+		this(key, new ArrayList<String>());
+	}
+
+	public PropertyCollector(final String key, final Collection<String> values) {
+
+		this.key    = key;
+		this.values = values;
+	}
+
+	@Override
+	public Collection<String> read(final Reader source) throws IOException {
+
+		final JsonReader reader = new JsonReader(source);
+
+		reader.beginObject();
+
+		while (reader.hasNext()) {
+
+			final String name = reader.nextName();
+
+			if ("result".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+
+				reader.beginArray();
+
+				while (reader.hasNext()) {
+					readEntity(reader);
+				}
+
+				reader.endArray();
+
+			} else if ("result".equals(name) && reader.peek() == JsonToken.BEGIN_OBJECT) {
+
+				readEntity(reader);
+
+			} else if ("result_count".equals(name) && reader.peek() == JsonToken.NUMBER) {
+
+				resultCount = reader.nextInt();
+
+			} else {
+
+				reader.skipValue();
+			}
+		}
+
+		reader.endObject();
+
+		return values;
+	}
+
+	/**
+	 * @return the total number of results reported by the server, or the number of entities read if the server did not report a count
+	 */
+	public int getResultCount() {
+		return resultCount >= 0 ? resultCount : count;
+	}
+
+	/**
+	 * @return the number of entities in the response
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return whether the server reported the total number of results
+	 */
+	public boolean hasResultCount() {
+		return resultCount >= 0;
+	}
+
+	// ----- private methods -----
+	private void readEntity(final JsonReader reader) throws IOException {
+
+		count++;
+
+		reader.beginObject();
+
+		while (reader.hasNext()) {
+
+			if (key.equals(reader.nextName())) {
+
+				switch (reader.peek()) {
+
+					case STRING:
+					case NUMBER:
+						values.add(reader.nextString());
+						break;
+
+					case BOOLEAN:
+						values.add(Boolean.toString(reader.nextBoolean()));
+						break;
+
+					default:
+						reader.skipValue();
+						break;
+				}
+
+			} else {
+
+				reader.skipValue();
+			}
+		}
+
+		reader.endObject();
+	}
+}
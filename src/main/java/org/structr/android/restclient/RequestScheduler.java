@@ -0,0 +1,369 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * Adapts the request behaviour of a {@see StructrClient} to the observed
+ * network conditions. The scheduler measures the round-trip time (the time
+ * until the response headers arrive) and the throughput of response bodies
+ * per server, and classifies the link as {@see Link#GOOD}, {@see Link#MODERATE}
+ * or {@see Link#POOR}. Depending on the link, it limits the number of
+ * concurrent requests, chooses the page size of paged collection loads,
+ * throttles prefetching and defers work that is not urgent.
+ *
+ * <p>The measurements are exponentially weighted moving averages, so the
+ * scheduler follows changes of the network (e.g. from Wi-Fi to a cellular
+ * connection) within a few requests. Measurements can also be recorded with
+ * {@see #record}, e.g. to simulate network conditions.</p>
+ *
+ * @author Christian Morgner
+ */
+public class RequestScheduler {
+
+	public static final long GOOD_RTT             = 300L;
+	public static final long POOR_RTT             = 1000L;
+	public static final double GOOD_THROUGHPUT    = 100.0;
+	public static final double POOR_THROUGHPUT    = 10.0;
+	public static final int MIN_THROUGHPUT_SAMPLE = 4096;
+
+	private static final double EWMA_WEIGHT = 0.25;
+
+	private final Map<String, Stats> hosts = new HashMap<String, Stats>();
+	private final Stats link               = new Stats();
+	private int goodConcurrency            = 6;
+	private int moderateConcurrency        = 4;
+	private int poorConcurrency            = 2;
+	private int active                     = 0;
+
+	/**
+	 * The classification of the network link.
+	 */
+	public enum Link {
+		GOOD, MODERATE, POOR
+	}
+
+	/**
+	 * Sets the maximum number of concurrent requests for each link class.
+	 *
+	 * @param good the maximum number of concurrent requests on a good link
+	 * @param moderate the maximum number of concurrent requests on a moderate link
+	 * @param poor the maximum number of concurrent requests on a poor link
+	 */
+	public synchronized void setConcurrency(final int good, final int moderate, final int poor) {
+
+		this.goodConcurrency     = Math.max(1, good);
+		this.moderateConcurrency = Math.max(1, moderate);
+		this.poorConcurrency     = Math.max(1, poor);
+
+		notifyAll();
+	}
+
+	/**
+	 * Records a measurement.
+	 *
+	 * @param host the server URL
+	 * @param rtt the time until the response headers arrived, in milliseconds
+	 * @param bytes the size of the response body, or 0 if unknown
+	 * @param transferTime the time it took to read the response body, in milliseconds
+	 */
+	public synchronized void record(final String host, final long rtt, final long bytes, final long transferTime) {
+
+		recordRtt(host, rtt);
+		recordTransfer(host, bytes, transferTime);
+	}
+
+	/**
+	 * @return the classification of the network link, based on all servers
+	 */
+	public synchronized Link getLink() {
+		return link.classify();
+	}
+
+	/**
+	 * @param host the server URL
+	 * @return the classification of the link to the given server
+	 */
+	public synchronized Link getLink(final String host) {
+
+		final Stats stats = hosts.get(host);
+		if (stats != null) {
+			return stats.classify();
+		}
+
+		return Link.MODERATE;
+	}
+
+	/**
+	 * @return the average round-trip time in milliseconds, or -1 if unknown
+	 */
+	public synchronized double getRtt() {
+		return link.rtt;
+	}
+
+	/**
+	 * @return the average throughput in kilobytes per second, or -1 if unknown
+	 */
+	public synchronized double getThroughput() {
+		return link.throughput;
+	}
+
+	/**
+	 * @return the current maximum number of concurrent requests
+	 */
+	public synchronized int getMaxConcurrency() {
+
+		switch (link.classify()) {
+
+			case GOOD:
+				return goodConcurrency;
+
+			case POOR:
+				return poorConcurrency;
+
+			default:
+				return moderateConcurrency;
+		}
+	}
+
+	/**
+	 * Adapts the given page size to the link. Poor links get smaller pages,
+	 * so that the first entities arrive quickly, and good links get larger
+	 * pages, so that fewer round trips are needed.
+	 *
+	 * @param pageSize the requested page size
+	 * @return the page size to use
+	 */
+	public synchronized int getPageSize(final int pageSize) {
+
+		switch (link.classify()) {
+
+			case GOOD:
+				return pageSize * 2;
+
+			case POOR:
+				return Math.max(10, pageSize / 2);
+
+			default:
+				return pageSize;
+		}
+	}
+
+	/**
+	 * @return the maximum number of concurrent prefetch requests, 0 if prefetching should pause
+	 */
+	public synchronized int getPrefetchConcurrency() {
+
+		switch (link.classify()) {
+
+			case GOOD:
+				return 2;
+
+			case POOR:
+				return 0;
+
+			default:
+				return 1;
+		}
+	}
+
+	/**
+	 * @return whether work that is not urgent, like prefetching or batched writes, should be deferred
+	 */
+	public synchronized boolean shouldDefer() {
+		return link.classify() == Link.POOR;
+	}
+
+	// ----- package-private methods -----
+	/**
+	 * Blocks until a request can be started without exceeding the
+	 * concurrency limit.
+	 */
+	synchronized void acquire() throws InterruptedException {
+
+		while (active >= getMaxConcurrency()) {
+			wait();
+		}
+
+		active++;
+	}
+
+	synchronized void release() {
+
+		active--;
+		notifyAll();
+	}
+
+	/**
+	 * Records the round-trip time of a response and wraps its entity, so
+	 * that the throughput of the response body is measured when it is read
+	 * completely.
+	 */
+	HttpEntity meter(final String host, final long rtt, final HttpEntity entity) {
+
+		recordRtt(host, rtt);
+
+		if (entity == null) {
+			return null;
+		}
+
+		return new HttpEntityWrapper(entity) {
+
+			private InputStream content = null;
+
+			@Override
+			public InputStream getContent() throws IOException {
+
+				if (content == null) {
+					content = new MeteredInputStream(host, wrappedEntity.getContent());
+				}
+
+				return content;
+			}
+		};
+	}
+
+	// ----- private methods -----
+	private synchronized void recordRtt(final String host, final long rtt) {
+
+		getStats(host).recordRtt(rtt);
+		link.recordRtt(rtt);
+
+		// the concurrency limit may have been raised
+		notifyAll();
+	}
+
+	private synchronized void recordTransfer(final String host, final long bytes, final long transferTime) {
+
+		// small bodies only measure the latency
+		if (bytes >= MIN_THROUGHPUT_SAMPLE) {
+
+			getStats(host).recordTransfer(bytes, transferTime);
+			link.recordTransfer(bytes, transferTime);
+
+			notifyAll();
+		}
+	}
+
+	private Stats getStats(final String host) {
+
+		Stats stats = hosts.get(host);
+		if (stats == null) {
+
+			stats = new Stats();
+			hosts.put(host, stats);
+		}
+
+		return stats;
+	}
+
+	// ----- nested classes -----
+	private static class Stats {
+
+		private double throughput = -1;
+		private double rtt        = -1;
+
+		public void recordRtt(final long sample) {
+			rtt = rtt < 0 ? sample : (EWMA_WEIGHT * sample) + ((1.0 - EWMA_WEIGHT) * rtt);
+		}
+
+		public void recordTransfer(final long bytes, final long transferTime) {
+
+			// bytes per millisecond are kilobytes per second
+			final double sample = (double)bytes / (double)Math.max(1L, transferTime);
+			throughput          = throughput < 0 ? sample : (EWMA_WEIGHT * sample) + ((1.0 - EWMA_WEIGHT) * throughput);
+		}
+
+		public Link classify() {
+
+			if (rtt < 0) {
+				return Link.MODERATE;
+			}
+
+			if (rtt > POOR_RTT || (throughput >= 0 && throughput < POOR_THROUGHPUT)) {
+				return Link.POOR;
+			}
+
+			if (rtt < GOOD_RTT && (throughput < 0 || throughput > GOOD_THROUGHPUT)) {
+				return Link.GOOD;
+			}
+
+			return Link.MODERATE;
+		}
+	}
+
+	private class MeteredInputStream extends FilterInputStream {
+
+		private boolean recorded = false;
+		private String host      = null;
+		private long start       = 0L;
+		private long bytes       = 0L;
+
+		public MeteredInputStream(final String host, final InputStream in) {
+
+			super(in);
+
+			this.start = System.currentTimeMillis();
+			this.host  = host;
+		}
+
+		@Override
+		public int read() throws IOException {
+
+			final int value = super.read();
+			if (value >= 0) {
+				bytes++;
+			} else {
+				complete();
+			}
+
+			return value;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+
+			final int count = super.read(buffer, offset, length);
+			if (count >= 0) {
+				bytes += count;
+			} else {
+				complete();
+			}
+
+			return count;
+		}
+
+		private void complete() {
+
+			// only complete bodies yield a meaningful throughput
+			if (!recorded) {
+
+				recorded = true;
+				recordTransfer(host, bytes, System.currentTimeMillis() - start);
+			}
+		}
+	}
+}
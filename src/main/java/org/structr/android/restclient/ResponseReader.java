@@ -0,0 +1,40 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Decodes the body of a successful REST response.
+ *
+ * @author Christian Morgner
+ */
+interface ResponseReader<R> {
+
+	/**
+	 * Decodes the response body from the given reader. The reader is
+	 * closed by the caller.
+	 *
+	 * @param reader the response body
+	 * @return the decoded result
+	 * @throws IOException
+	 */
+	public R read(final Reader reader) throws IOException;
+}
@@ -0,0 +1,280 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A set of structr servers (replicas) with health and latency tracking.
+ * Reads are distributed using the power of two choices: two healthy
+ * servers are picked at random, and the one with the lower expected
+ * latency wins, where the expected latency is the exponentially weighted
+ * moving average (EWMA) of the observed latencies multiplied by the number
+ * of requests in flight. Writes always go to a sticky primary server,
+ * which is only changed when it fails. Servers that fail are excluded from
+ * selection for a backoff period that grows with each consecutive failure.
+ *
+ * <p>A server set is configured with a comma-separated list of server URLs,
+ * e.g. in the "Server" preference. The first URL is the initial primary.</p>
+ *
+ * @author Christian Morgner
+ */
+public class ServerSet {
+
+	private static final double EWMA_WEIGHT = 0.3;
+	private static final long BASE_BACKOFF  = 1000L;
+	private static final long MAX_BACKOFF   = 60000L;
+
+	private final List<Server> servers = new ArrayList<Server>();
+	private final Random random        = new Random();
+	private int primary                = 0;
+
+	/**
+	 * Creates a new server set.
+	 *
+	 * @param urls a comma-separated list of server URLs
+	 */
+	public ServerSet(final String urls) {
+
+		for (final String url : urls.split(",")) {
+
+			final String trimmed = url.trim();
+			if (trimmed.length() > 0) {
+				servers.add(new Server(trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed));
+			}
+		}
+
+		if (servers.isEmpty()) {
+			servers.add(new Server(""));
+		}
+	}
+
+	/**
+	 * @return the URLs of all servers in this set
+	 */
+	public synchronized List<String> getUrls() {
+
+		final List<String> urls = new ArrayList<String>(servers.size());
+		for (final Server server : servers) {
+			urls.add(server.url);
+		}
+
+		return urls;
+	}
+
+	/**
+	 * @return the URL of the current primary server
+	 */
+	public synchronized String getPrimary() {
+		return servers.get(primary).url;
+	}
+
+	/**
+	 * @return the number of servers in this set
+	 */
+	public synchronized int size() {
+		return servers.size();
+	}
+
+	/**
+	 * Selects a server for a read request, using the power of two choices
+	 * on the expected latency of the healthy servers.
+	 *
+	 * @param exclude URLs that already failed for the current request, may be empty
+	 * @return the URL of the selected server
+	 */
+	public synchronized String selectForRead(final List<String> exclude) {
+
+		final List<Server> candidates = getHealthy(exclude);
+		if (candidates.size() == 1) {
+			return candidates.get(0).url;
+		}
+
+		// pick two distinct candidates at random
+		final int firstIndex  = random.nextInt(candidates.size());
+		final int secondIndex = (firstIndex + 1 + random.nextInt(candidates.size() - 1)) % candidates.size();
+		final Server first    = candidates.get(firstIndex);
+		final Server second   = candidates.get(secondIndex);
+
+		return first.getCost() <= second.getCost() ? first.url : second.url;
+	}
+
+	/**
+	 * Selects a server for a write request. This is the primary server, unless
+	 * it is unhealthy, in which case the next healthy server becomes the new
+	 * primary.
+	 *
+	 * @param exclude URLs that already failed for the current request, may be empty
+	 * @return the URL of the selected server
+	 */
+	public synchronized String selectForWrite(final List<String> exclude) {
+
+		final long now = System.currentTimeMillis();
+
+		for (int i=0; i<servers.size(); i++) {
+
+			final int index     = (primary + i) % servers.size();
+			final Server server = servers.get(index);
+
+			if (server.isHealthy(now) && !exclude.contains(server.url)) {
+
+				primary = index;
+				return server.url;
+			}
+		}
+
+		return getHealthy(exclude).get(0).url;
+	}
+
+	/**
+	 * Marks the start of a request to the given server.
+	 *
+	 * @param url the URL of the server
+	 */
+	public synchronized void requestStarted(final String url) {
+
+		final Server server = get(url);
+		if (server != null) {
+			server.inFlight++;
+		}
+	}
+
+	/**
+	 * Records a successful request to the given server.
+	 *
+	 * @param url the URL of the server
+	 * @param latency the latency of the request in milliseconds
+	 */
+	public synchronized void requestSucceeded(final String url, final long latency) {
+
+		final Server server = get(url);
+		if (server != null) {
+
+			server.inFlight  = Math.max(0, server.inFlight - 1);
+			server.failures  = 0;
+			server.downUntil = 0L;
+			server.latency   = server.latency < 0 ? latency : (EWMA_WEIGHT * latency) + ((1.0 - EWMA_WEIGHT) * server.latency);
+		}
+	}
+
+	/**
+	 * Records a failed request to the given server, which excludes the server
+	 * from selection for a backoff period.
+	 *
+	 * @param url the URL of the server
+	 */
+	public synchronized void requestFailed(final String url) {
+
+		final Server server = get(url);
+		if (server != null) {
+
+			server.inFlight  = Math.max(0, server.inFlight - 1);
+			server.downUntil = System.currentTimeMillis() + Math.min(MAX_BACKOFF, BASE_BACKOFF << Math.min(server.failures, 16));
+			server.failures++;
+		}
+	}
+
+	/**
+	 * @param url the URL of a server
+	 * @return the latency EWMA of the given server in milliseconds, or -1 if unknown
+	 */
+	public synchronized double getLatency(final String url) {
+
+		final Server server = get(url);
+		if (server != null) {
+			return server.latency;
+		}
+
+		return -1;
+	}
+
+	// ----- private methods -----
+	private Server get(final String url) {
+
+		for (final Server server : servers) {
+
+			if (server.url.equals(url)) {
+				return server;
+			}
+		}
+
+		return null;
+	}
+
+	private List<Server> getHealthy(final List<String> exclude) {
+
+		final List<Server> healthy = new ArrayList<Server>();
+		final long now             = System.currentTimeMillis();
+
+		for (final Server server : servers) {
+
+			if (server.isHealthy(now) && !exclude.contains(server.url)) {
+				healthy.add(server);
+			}
+		}
+
+		if (healthy.isEmpty()) {
+
+			// all servers are down, try the one that recovers first
+			Server best = null;
+
+			for (final Server server : servers) {
+
+				if (!exclude.contains(server.url) && (best == null || server.downUntil < best.downUntil)) {
+					best = server;
+				}
+			}
+
+			return Collections.singletonList(best != null ? best : servers.get(primary));
+		}
+
+		return healthy;
+	}
+
+	// ----- nested classes -----
+	private static class Server {
+
+		private String url     = null;
+		private double latency = -1;
+		private long downUntil = 0L;
+		private int failures   = 0;
+		private int inFlight   = 0;
+
+		public Server(final String url) {
+			this.url = url;
+		}
+
+		public boolean isHealthy(final long now) {
+			return downUntil <= now;
+		}
+
+		public double getCost() {
+
+			// unknown servers are tried first, so that every server gets a latency estimate
+			if (latency < 0) {
+				return 0;
+			}
+
+			return latency * (inFlight + 1);
+		}
+	}
+}
@@ -0,0 +1,420 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.google.gson.Gson;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary snapshot of a collection of entities that can be loaded
+ * without parsing JSON. Snapshots are written with {@see #write} and read
+ * with {@see #read}, which maps the snapshot file into memory and returns a
+ * list that decodes each entity only when it is accessed. Use snapshots to
+ * store large reference collections on disk, so that the first screen of an
+ * app does not have to wait for the collection to be loaded and decoded.
+ *
+ * <p>A snapshot stores the names and types of the exposed properties it
+ * contains, so a snapshot can still be read after properties were added to
+ * or removed from the entity class. A snapshot in which the type of a
+ * property differs from the entity class is stale, and {@see #read} fails
+ * with an IOException, so that the entities are loaded from JSON again.
+ * Properties of types other than String, Date,
+ * numbers and booleans are stored in their JSON representation. Please
+ * note that onDbLoad() is not called for entities that are read from a
+ * snapshot.</p>
+ * <pre>
+ * Snapshot.write(file, Example.class, StructrObject.dbList(Example.class, "name", true));
+ *
+ * // on the next start
+ * List&lt;Example&gt; examples = Snapshot.read(file, Example.class);
+ * </pre>
+ *
+ * @author Christian Morgner
+ */
+public class Snapshot {
+
+	private static final int MAGIC   = 0x53545253;
+	private static final int VERSION = 2;
+
+	private static final byte NULL    = 0;
+	private static final byte INT     = 1;
+	private static final byte LONG    = 2;
+	private static final byte DOUBLE  = 3;
+	private static final byte FLOAT   = 4;
+	private static final byte BOOLEAN = 5;
+	private static final byte STRING  = 6;
+	private static final byte DATE    = 7;
+	private static final byte JSON    = 8;
+
+	private Snapshot() {
+	}
+
+	/**
+	 * Writes the given entities to a snapshot file, using the JSON mapping
+	 * of the default client for properties that are stored as JSON.
+	 *
+	 * @param file the snapshot file
+	 * @param type the type of the entities
+	 * @param entities the entities to write
+	 * @throws IOException
+	 */
+	public static <T extends StructrObject> void write(final File file, final Class<T> type, final List<T> entities) throws IOException {
+		write(StructrClient.getDefault(), file, type, entities);
+	}
+
+	/**
+	 * Writes the given entities to a snapshot file. The file is written to
+	 * disk before it replaces the old snapshot atomically, so a snapshot
+	 * that is currently mapped stays valid, and a power loss leaves either
+	 * the old or the new snapshot.
+	 *
+	 * @param client the client whose JSON mapping is used for properties that are stored as JSON
+	 * @param file the snapshot file
+	 * @param type the type of the entities
+	 * @param entities the entities to write
+	 * @throws IOException
+	 */
+	public static <T extends StructrObject> void write(final StructrClient client, final File file, final Class<T> type, final List<T> entities) throws IOException {
+
+		final File tmp                  = new File(file.getParentFile(), file.getName() + ".tmp");
+		final Map<String, Field> fields = ExposedFields.get(type);
+		final Gson gson                 = client.getGson();
+		final int[] offsets             = new int[entities.size()];
+		final DataOutputStream out      = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		int offsetsPosition             = 0;
+
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(0);			// position of the offset table, written below
+			out.writeInt(entities.size());
+			out.writeUTF(type.getName());
+			out.writeInt(fields.size());
+
+			for (final Map.Entry<String, Field> entry : fields.entrySet()) {
+
+				out.writeUTF(entry.getKey());
+				out.writeUTF(entry.getValue().getGenericType().toString());
+			}
+
+			for (int i=0; i<offsets.length; i++) {
+
+				final T entity = entities.get(i);
+
+				offsets[i] = out.size();
+
+				for (final Field field : fields.values()) {
+					writeValue(out, field.get(entity), gson);
+				}
+			}
+
+			offsetsPosition = out.size();
+
+			for (final int offset : offsets) {
+				out.writeInt(offset);
+			}
+
+		} catch (IllegalAccessException iaex) {
+
+			final IOException ioex = new IOException(iaex.getMessage());
+			ioex.initCause(iaex);
+
+			throw ioex;
+
+		} finally {
+
+			out.close();
+		}
+
+		final RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+		try {
+			raf.seek(8);
+			raf.writeInt(offsetsPosition);
+
+			// the snapshot must be on disk before it replaces the old one
+			raf.getFD().sync();
+
+		} finally {
+
+			raf.close();
+		}
+
+		if (!tmp.renameTo(file)) {
+
+			// some platforms cannot rename onto an existing file
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Unable to replace snapshot " + file);
+			}
+		}
+	}
+
+	/**
+	 * Maps the given snapshot file into memory, using the JSON mapping of
+	 * the default client for properties that are stored as JSON.
+	 *
+	 * @param file the snapshot file
+	 * @param type the type of the entities in the snapshot
+	 * @return a read-only list that decodes entities on access
+	 * @throws IOException if the file is not a snapshot of the given type, or the snapshot is stale
+	 */
+	public static <T extends StructrObject> List<T> read(final File file, final Class<T> type) throws IOException {
+		return read(StructrClient.getDefault(), file, type);
+	}
+
+	/**
+	 * Maps the given snapshot file into memory.
+	 *
+	 * @param client the client whose JSON mapping is used for properties that are stored as JSON
+	 * @param file the snapshot file
+	 * @param type the type of the entities in the snapshot
+	 * @return a read-only list that decodes entities on access
+	 * @throws IOException if the file is not a snapshot of the given type, or the snapshot is stale
+	 */
+	public static <T extends StructrObject> List<T> read(final StructrClient client, final File file, final Class<T> type) throws IOException {
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer buffer    = null;
+
+		try {
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+
+		} finally {
+
+			// the mapping stays valid after the file is closed
+			raf.close();
+		}
+
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException(file + " is not a snapshot file");
+		}
+
+		final int offsetsPosition = buffer.getInt();
+		final int count           = buffer.getInt();
+
+		if (!type.getName().equals(readString(buffer, buffer.getShort() & 0xffff))) {
+			throw new IOException(file + " is not a snapshot of " + type.getName());
+		}
+
+		final Map<String, Field> fields = ExposedFields.get(type);
+		final int fieldCount            = buffer.getInt();
+		final List<Field> schema        = new ArrayList<Field>(fieldCount);
+
+		for (int i=0; i<fieldCount; i++) {
+
+			final String name      = readString(buffer, buffer.getShort() & 0xffff);
+			final String fieldType = readString(buffer, buffer.getShort() & 0xffff);
+			final Field field      = fields.get(name);
+
+			if (field != null && !field.getGenericType().toString().equals(fieldType)) {
+				throw new IOException(file + " is stale, the type of " + name + " changed from " + fieldType);
+			}
+
+			// properties that no longer exist are skipped when reading
+			schema.add(field);
+		}
+
+		return new SnapshotList<T>(type, buffer, schema, offsetsPosition, count, client.getGson());
+	}
+
+	// ----- private static methods -----
+	private static void writeValue(final DataOutputStream out, final Object value, final Gson gson) throws IOException {
+
+		if (value == null) {
+
+			out.writeByte(NULL);
+
+		} else if (value instanceof Integer) {
+
+			out.writeByte(INT);
+			out.writeInt((Integer)value);
+
+		} else if (value instanceof Long) {
+
+			out.writeByte(LONG);
+			out.writeLong((Long)value);
+
+		} else if (value instanceof Double) {
+
+			out.writeByte(DOUBLE);
+			out.writeDouble((Double)value);
+
+		} else if (value instanceof Float) {
+
+			out.writeByte(FLOAT);
+			out.writeFloat((Float)value);
+
+		} else if (value instanceof Boolean) {
+
+			out.writeByte(BOOLEAN);
+			out.writeBoolean((Boolean)value);
+
+		} else if (value instanceof Date) {
+
+			out.writeByte(DATE);
+			out.writeLong(((Date)value).getTime());
+
+		} else if (value instanceof String) {
+
+			out.writeByte(STRING);
+			writeString(out, (String)value);
+
+		} else {
+
+			out.writeByte(JSON);
+			writeString(out, gson.toJson(value));
+		}
+	}
+
+	private static void writeString(final DataOutputStream out, final String value) throws IOException {
+
+		final byte[] bytes = value.getBytes("UTF-8");
+
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(final ByteBuffer buffer, final int length) throws IOException {
+
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+
+		return new String(bytes, "UTF-8");
+	}
+
+	private static Object readValue(final ByteBuffer buffer, final Field field, final Gson gson) throws IOException {
+
+		switch (buffer.get()) {
+
+			case INT:
+				return buffer.getInt();
+
+			case LONG:
+				return buffer.getLong();
+
+			case DOUBLE:
+				return buffer.getDouble();
+
+			case FLOAT:
+				return buffer.getFloat();
+
+			case BOOLEAN:
+				return buffer.get() != 0;
+
+			case DATE:
+				return new Date(buffer.getLong());
+
+			case STRING:
+				return readString(buffer, buffer.getInt());
+
+			case JSON:
+				final String json = readString(buffer, buffer.getInt());
+				return field != null ? gson.fromJson(json, field.getGenericType()) : null;
+
+			default:
+				return null;
+		}
+	}
+
+	// ----- nested classes -----
+	private static class SnapshotList<T extends StructrObject> extends AbstractList<T> {
+
+		private SoftReference<?>[] cache = null;
+		private ByteBuffer buffer        = null;
+		private List<Field> schema       = null;
+		private Class<T> type            = null;
+		private Gson gson                = null;
+		private int offsetsPosition      = 0;
+		private int count                = 0;
+
+		public SnapshotList(final Class<T> type, final ByteBuffer buffer, final List<Field> schema, final int offsetsPosition, final int count, final Gson gson) {
+
+			this.cache           = new SoftReference<?>[count];
+			this.gson            = gson;
+			this.type            = type;
+			this.buffer          = buffer;
+			this.schema          = schema;
+			this.offsetsPosition = offsetsPosition;
+			this.count           = count;
+		}
+
+		@Override
+		public synchronized T get(final int index) {
+
+			if (index < 0 || index >= count) {
+				throw new IndexOutOfBoundsException("Index " + index + ", size " + count);
+			}
+
+			final SoftReference<?> ref = cache[index];
+			T entity                   = ref != null ? type.cast(ref.get()) : null;
+
+			if (entity == null) {
+
+				entity = decode(index);
+				cache[index] = new SoftReference<T>(entity);
+			}
+
+			return entity;
+		}
+
+		@Override
+		public int size() {
+			return count;
+		}
+
+		// ----- private methods -----
+		private T decode(final int index) {
+
+			try {
+				final T entity = type.newInstance();
+
+				buffer.position(buffer.getInt(offsetsPosition + (index * 4)));
+
+				for (final Field field : schema) {
+
+					final Object value = readValue(buffer, field, gson);
+					if (field != null && (value != null || !field.getType().isPrimitive())) {
+						field.set(entity, value);
+					}
+				}
+
+				return entity;
+
+			} catch (Exception ex) {
+
+				throw new IllegalStateException("Unable to decode snapshot entity " + index, ex);
+			}
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded table of canonical String instances. When the table is full,
+ * the least recently used value is evicted. Every hit, i.e. every value
+ * that could be replaced by an already known instance, is counted, so the
+ * memory saved by deduplication can be estimated with {@see #getSavedBytes}.
+ *
+ * <p>Fields annotated with {@see Interned} are deduplicated automatically
+ * when entities are loaded from the REST server, using a pool per response
+ * or the global pool returned by {@see #getGlobal}.</p>
+ *
+ * @author Christian Morgner
+ */
+public class StringPool {
+
+	public static final int DEFAULT_GLOBAL_SIZE = 4096;
+
+	private static final StringPool global = new StringPool(DEFAULT_GLOBAL_SIZE);
+
+	private Map<String, String> table = null;
+	private long savedChars           = 0L;
+	private long hits                 = 0L;
+
+	/**
+	 * Creates a new pool with the given maximum number of values.
+	 *
+	 * @param maxSize the maximum number of values to keep
+	 */
+	public StringPool(final int maxSize) {
+
+		this.table = new LinkedHashMap<String, String>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<String, String> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @return the global pool that is shared by all requests
+	 */
+	public static StringPool getGlobal() {
+		return global;
+	}
+
+	/**
+	 * @param value the value to deduplicate, may be null
+	 * @return the canonical instance of the given value
+	 */
+	public synchronized String intern(final String value) {
+
+		if (value == null) {
+			return null;
+		}
+
+		final String existing = table.get(value);
+		if (existing != null) {
+
+			if (existing != value) {
+
+				savedChars += value.length();
+				hits++;
+			}
+
+			return existing;
+		}
+
+		table.put(value, value);
+
+		return value;
+	}
+
+	/**
+	 * @return the number of values that were replaced by a canonical instance
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return an estimate of the heap memory saved by this pool, assuming 40 bytes of overhead per String
+	 */
+	public synchronized long getSavedBytes() {
+		return (hits * 40L) + (savedChars * 2L);
+	}
+
+	/**
+	 * @return the number of values in this pool
+	 */
+	public synchronized int size() {
+		return table.size();
+	}
+
+	/**
+	 * Removes all values from this pool and resets the statistics.
+	 */
+	public synchronized void clear() {
+
+		table.clear();
+		savedChars = 0L;
+		hits       = 0L;
+	}
+
+	// ----- package-private static methods -----
+	/**
+	 * Deduplicates the values of all {@see Interned} fields of the given entities.
+	 *
+	 * @param entities the entities to process
+	 */
+	static void internFields(final Collection<? extends StructrObject> entities) {
+
+		StringPool local = null;
+
+		for (final StructrObject entity : entities) {
+
+			for (final Field field : ExposedFields.getInterned(entity.getClass())) {
+
+				final boolean isGlobal = field.getAnnotation(Interned.class).global();
+
+				if (!isGlobal && local == null) {
+					local = new StringPool(Integer.MAX_VALUE);
+				}
+
+				try {
+					field.set(entity, (isGlobal ? global : local).intern((String)field.get(entity)));
+
+				} catch (IllegalAccessException iaex) {
+					// cannot happen, field is accessible
+				}
+			}
+		}
+	}
+}
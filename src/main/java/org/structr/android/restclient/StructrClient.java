@@ -0,0 +1,1843 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import android.net.http.AndroidHttpClient;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.annotations.Expose;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * A connection context for a structr REST server. A client owns its http
+ * client, its serializer, its server set and credentials, and the entity
+ * listeners that are notified of its modifications, so that multiple
+ * clients with different settings can be used side by side, e.g. to talk
+ * to two different backends, or to give background work its own
+ * connection pool.
+ *
+ * <p>The static methods of {@see StructrObject} and the connectors in this
+ * package use the default client, which is configured by
+ * {@see StructrConnector#initialize}.</p>
+ * <pre>
+ * StructrClient client = new StructrClient("http://example.com/structr/rest", "user", "password");
+ * List&lt;Example&gt; examples = client.dbList(Example.class, "name", true);
+ * </pre>
+ *
+ * @author Christian Morgner
+ */
+public class StructrClient {
+
+	private static final StructrClient defaultClient = new StructrClient();
+	private static final int MAX_CONFLICT_ATTEMPTS   = 3;
+	private static final int RELATED_HEAD_RATIO      = 10;
+	private static final int RELATED_PAGE_SIZE       = 100;
+
+	private final Gson gson                       = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().setDateFormat(StructrObject.DATE_FORMAT).create();
+	private final List<EntityListener> listeners  = new CopyOnWriteArrayList<EntityListener>();
+	private final Map<String, String> sessions    = new ConcurrentHashMap<String, String>();
+	private final ThreadLocal<Boolean> background = new ThreadLocal<Boolean>();
+	private final AtomicInteger foreground        = new AtomicInteger();
+	private final EntityCache cache               = new EntityCache(EntityCache.DEFAULT_SIZE);
+	private final RequestScheduler scheduler      = new RequestScheduler();
+	private AndroidHttpClient client              = null;
+	private ServerSet servers                     = null;
+	private TlsConfig tlsConfig                   = null;
+	private Transport transport                   = null;
+	private String server                         = null;
+	private String userName                       = null;
+	private String password                       = null;
+	private WriteBehindBuffer writeBuffer         = null;
+	private SyncWorker syncWorker                 = null;
+	private Prefetcher prefetcher                 = null;
+	private ConflictHandler conflictHandler       = null;
+	private boolean optimisticLocking             = false;
+	private boolean sessionAuthentication         = false;
+	private volatile boolean headUnsupported      = false;
+	private boolean messagePack                   = false;
+	private int errorBodyLimit                    = 4096;
+
+	/**
+	 * Creates a new client without connection settings. You must call
+	 * {@see #setServer} and {@see #setCredentials} before using it.
+	 */
+	public StructrClient() {
+		listeners.add(cache);
+	}
+
+	/**
+	 * Creates a new client.
+	 *
+	 * @param server the URL of the REST server, or a comma-separated list of URLs
+	 * @param userName the user name
+	 * @param password the password
+	 */
+	public StructrClient(final String server, final String userName, final String password) {
+
+		this();
+		setServer(server);
+		setCredentials(userName, password);
+	}
+
+	/**
+	 * @return the default client that is used by the static methods of {@see StructrObject}
+	 */
+	public static StructrClient getDefault() {
+		return defaultClient;
+	}
+
+	/**
+	 * Sets the server URL of this client. The URL can be a comma-separated list
+	 * of URLs, in which case the requests are distributed over the servers by
+	 * a {@see ServerSet}.
+	 *
+	 * @param s the URL of the REST server, or a comma-separated list of URLs
+	 */
+	public synchronized void setServer(final String s) {
+
+		// keep the health and latency statistics unless the servers changed
+		if (s != null && !s.equals(server)) {
+			servers = new ServerSet(s);
+		}
+
+		server = s;
+	}
+
+	/**
+	 * Sets the credentials of this client.
+	 *
+	 * @param u the user name
+	 * @param p the password
+	 */
+	public synchronized void setCredentials(final String u, final String p) {
+
+		// sessions of the previous user must not be reused
+		if ((u != null && !u.equals(userName)) || (p != null && !p.equals(password))) {
+			sessions.clear();
+		}
+
+		userName = u;
+		password = p;
+	}
+
+	/**
+	 * Enables or disables optimistic locking. When enabled, dbStore() only
+	 * succeeds if the entity was not modified on the REST server since it
+	 * was loaded, which is checked by the server using the ETag of the
+	 * entity, or the value of its {@see Version} field. If the entity was
+	 * modified, the given handler is asked to resolve the conflict, and
+	 * the resolved entity is stored instead.
+	 *
+	 * @param enabled whether to use optimistic locking
+	 * @param handler the handler that resolves conflicts, or null to fail on conflicts
+	 */
+	public void setOptimisticLocking(final boolean enabled, final ConflictHandler handler) {
+
+		this.optimisticLocking = enabled;
+		this.conflictHandler   = handler;
+	}
+
+	/**
+	 * Enables or disables session authentication. When enabled, this client
+	 * logs in once per server with its credentials, and sends the session
+	 * cookie instead of the X-User and X-Password headers with every request,
+	 * so the server does not have to verify the password on each request.
+	 * Expired sessions are detected by a 401 response and renewed
+	 * transparently.
+	 *
+	 * @param enabled whether to use session authentication
+	 */
+	public void setSessionAuthentication(final boolean enabled) {
+
+		sessionAuthentication = enabled;
+		sessions.clear();
+	}
+
+	/**
+	 * Ends the sessions of this client on all servers. Does nothing if
+	 * session authentication is disabled.
+	 */
+	public void logout() {
+
+		for (final Map.Entry<String, String> entry : sessions.entrySet()) {
+
+			final HttpPost httpPost = new HttpPost(entry.getKey() + "/logout");
+
+			httpPost.addHeader("Cookie", entry.getValue());
+
+			try {
+				final HttpResponse response = send(httpPost);
+				if (response.getEntity() != null) {
+					response.getEntity().consumeContent();
+				}
+
+			} catch (IOException ioex) {
+
+				// the session expires on the server anyway
+				httpPost.abort();
+			}
+		}
+
+		sessions.clear();
+	}
+
+	/**
+	 * @return the URL of the primary server
+	 */
+	public String getServer() {
+		return getServerSet().getPrimary();
+	}
+
+	/**
+	 * @return the set of servers the requests are distributed over
+	 */
+	public synchronized ServerSet getServerSet() {
+
+		if(servers == null) {
+			throw new IllegalStateException("StructrClient not initialized! You must call StructrConnector.initialize() or setServer() before using it.");
+		}
+		return servers;
+	}
+
+	public synchronized String getUserName() {
+
+		if(userName == null) {
+			throw new IllegalStateException("StructrClient not initialized! You must call StructrConnector.initialize() or setCredentials() before using it.");
+		}
+		return userName;
+	}
+
+	public synchronized String getPassword() {
+
+		if(password == null) {
+			throw new IllegalStateException("StructrClient not initialized! You must call StructrConnector.initialize() or setCredentials() before using it.");
+		}
+		return password;
+	}
+
+	/**
+	 * Creates the given entity on the REST server. After successful creation,
+	 * the ID of the entity will be set.
+	 *
+	 * @param entity the entity to create
+	 * @param path the path to create the entity in
+	 * @throws Throwable
+	 */
+	public void dbCreate(final StructrObject entity, final String path) throws Throwable {
+
+		create(buildPath(path, entity.getEntityName()), entity, entity.getClass());
+
+		for (final EntityListener listener : listeners) {
+			listener.entityCreated(entity);
+		}
+	}
+
+	/**
+	 * Stores the exposed attributes of the given entity on the REST server.
+	 * When optimistic locking is enabled and a conflict was resolved by the
+	 * {@see ConflictHandler}, the exposed attributes, the ETag and the
+	 * version of the stored entity are copied into the given entity.
+	 *
+	 * @param entity the entity to store
+	 * @throws Throwable
+	 */
+	public void dbStore(final StructrObject entity) throws Throwable {
+
+		final String path     = buildPath("/", entity.getEntityName(), "/", entity.getId());
+		StructrObject current = entity;
+		int attempts          = 0;
+
+		while (true) {
+
+			try {
+				store(path, current, current.getClass());
+				break;
+
+			} catch (StructrException sex) {
+
+				final ConflictHandler handler = conflictHandler;
+				if (!optimisticLocking || !sex.isConflict() || handler == null || ++attempts > MAX_CONFLICT_ATTEMPTS) {
+					throw sex;
+				}
+
+				current = resolve(handler, current, path, sex);
+			}
+		}
+
+		// the caller keeps its instance, so it must reflect the stored state
+		if (current != entity) {
+			copyState(current, entity);
+		}
+
+		for (final EntityListener listener : listeners) {
+			listener.entityStored(entity);
+		}
+	}
+
+	/**
+	 * Deletes the given entity from the REST server.
+	 *
+	 * @param entity the entity to delete
+	 * @throws Throwable
+	 */
+	public void dbDelete(final StructrObject entity) throws Throwable {
+
+		if (isSuccess(delete(buildPath("/", entity.getEntityName(), "/", entity.getId())))) {
+
+			for (final EntityListener listener : listeners) {
+				listener.entityDeleted(entity);
+			}
+		}
+	}
+
+	/**
+	 * Loads an entity with the given type and ID from the REST server.
+	 *
+	 * @param type the type of the entity to load
+	 * @param id the ID of the entity to load
+	 * @return the entity from the REST server, or null if the entity was not found
+	 * @throws Throwable
+	 */
+	public <T extends StructrObject> T dbGet(final Class<T> type, final String id) throws Throwable {
+
+		StructrObject newInstance = newInstance(type);
+		if (newInstance != null) {
+			return load(type, buildPath("/", newInstance.getEntityName(), "/", id));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Loads an entity with the given property value from the REST server.
+	 *
+	 * @param type the type of the entity to load
+	 * @param key the property key
+	 * @param value the property value
+	 * @return the entity from the REST server, or null if the entity was not found
+	 * @throws Throwable
+	 */
+	public <T extends StructrObject> T dbLoad(final Class<T> type, final String key, final Object value) throws Throwable {
+
+		StructrObject newInstance = newInstance(type);
+		if (newInstance != null) {
+			return load(type, buildPath("/", newInstance.getEntityName(), "?", key, "=", value));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Loads an entity from the given path.
+	 *
+	 * @param type the type of the entity to load
+	 * @param path the path of the entity to load
+	 * @return the entity from the REST server, or null if the entity was not found
+	 * @throws Throwable
+	 */
+	public <T extends StructrObject> T dbLoad(final Class<T> type, final String path) throws Throwable {
+
+		StructrObject newInstance = newInstance(type);
+		if (newInstance != null) {
+			return load(type, buildPath(path));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Fetches a sorted list of entities with the given type from the REST server.
+	 *
+	 * @param type the type of the entities to load
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 * @param params additional parameters, may be empty
+	 * @return a sorted list of entities matching the given type and parameters
+	 * @throws Throwable
+	 */
+	public <T extends StructrObject> List<T> dbList(final Class<T> type, final String sortKey, final boolean asc, final Object... params) throws Throwable {
+
+		StructrObject newInstance = newInstance(type);
+		if (newInstance != null) {
+			return list(type, buildPath("/", newInstance.getEntityName(), "?sort=", sortKey, asc ? "" : "&order=desc", params));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Fetches a list of entities from the given path.
+	 *
+	 * @param type the type of the entities to load
+	 * @param path the path of the entities to load
+	 * @return a list of entities from the given path
+	 * @throws Throwable
+	 */
+	public <T extends StructrObject> List<T> dbList(final Class<T> type, final String path) throws Throwable {
+
+		StructrObject newInstance = newInstance(type);
+		if (newInstance != null) {
+			return list(type, buildPath(path));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Fetches a sorted list of entities with the given type and property value from the REST server.
+	 *
+	 * @param type the type of the entities to load
+	 * @param key the property key to search for
+	 * @param value the property value to search for
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 * @return a sorted list of entities matching the given type and property value
+	 * @throws Throwable
+	 */
+	public <T extends StructrObject> List<T> dbFind(final Class<T> type, final String key, final Object value, final String sortKey, final boolean asc) throws Throwable {
+
+		StructrObject newInstance = newInstance(type);
+		if (newInstance != null) {
+			return list(type, buildPath("/", newInstance.getEntityName(), "?", key, "=", value, "&sort=", sortKey, asc ? "" : "&order=desc"));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Fetches a sorted list of child entities for a given parent from the REST server.
+	 *
+	 * @param type the parent's type
+	 * @param id the parent's ID
+	 * @param childType the children's type
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 * @return a sorted list of entities that are children of a given parent entity with the given ID
+	 * @throws Throwable
+	 */
+	public <T extends StructrObject> List<T> dbFind(final Class<? extends StructrObject> type, final String id, final Class<T> childType, final String sortKey, final boolean asc) throws Throwable {
+		return dbFindChildren(type, id, childType, sortKey, asc);
+	}
+
+	/**
+	 * Fetches a single child entitiy with a given ID from a parent with a given ID.
+	 *
+	 * @param type the parent's type
+	 * @param id the parent's ID
+	 * @param childType the child's type
+	 * @param childId the child's ID
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 * @return the child entity with the given ID, if there is a relationship with the parent
+	 * @throws Throwable
+	 */
+	public <T extends StructrObject> T dbFind(final Class<? extends StructrObject> type, final String id, final Class<T> childType, final String childId, final String sortKey, final boolean asc) throws Throwable {
+
+		StructrObject childInstance = newInstance(childType);
+		StructrObject newInstance = newInstance(type);
+		if (newInstance != null) {
+			return load(childType, buildPath("/", newInstance.getEntityName(), "/", id, "/", childInstance.getEntityName(), "/", childId));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Checks whether a relationship exists between a parent and a child
+	 * entity, i.e. whether the child can be reached from the parent. The
+	 * check is a HEAD request, so no entity is transferred or created. If
+	 * the server does not support HEAD requests, a GET request is sent and
+	 * aborted as soon as the status is known.
+	 *
+	 * @param type the parent's type
+	 * @param id the parent's ID
+	 * @param childType the child's type
+	 * @param childId the child's ID
+	 * @return whether the child is related to the parent
+	 * @throws Throwable
+	 */
+	public boolean dbIsRelated(final Class<? extends StructrObject> type, final String id, final Class<? extends StructrObject> childType, final String childId) throws Throwable {
+
+		StructrObject childInstance = newInstance(childType);
+		StructrObject newInstance = newInstance(type);
+		if (newInstance != null && childInstance != null) {
+			return exists(buildPath("/", newInstance.getEntityName(), "/", id, "/", childInstance.getEntityName(), "/", childId));
+		}
+
+		return false;
+	}
+
+	/**
+	 * Checks which of the given children are related to a parent entity.
+	 * A first request for a single child reads the number of children. If
+	 * the parent has many more children than the batch contains, each child
+	 * is checked with a HEAD request like {@link #dbIsRelated(Class, String,
+	 * Class, String)}; otherwise the IDs of the children are read page by
+	 * page, until all given children are found. No entities are created.
+	 *
+	 * @param type the parent's type
+	 * @param id the parent's ID
+	 * @param childType the children's type
+	 * @param childIds the IDs of the children to check
+	 * @return the IDs of the given children that are related to the parent
+	 * @throws Throwable
+	 */
+	public Set<String> dbIsRelated(final Class<? extends StructrObject> type, final String id, final Class<? extends StructrObject> childType, final Collection<String> childIds) throws Throwable {
+
+		StructrObject childInstance = newInstance(childType);
+		StructrObject newInstance = newInstance(type);
+		if (newInstance != null && childInstance != null && !childIds.isEmpty()) {
+
+			final String path             = buildPath("/", newInstance.getEntityName(), "/", id, "/", childInstance.getEntityName());
+			final Set<String> related     = new LinkedHashSet<String>(childIds);
+			final PropertyCollector probe = new PropertyCollector("id");
+
+			dbRead(probe, path, "?pageSize=1&page=1");
+
+			final int total = probe.getResultCount();
+			if (total == 0) {
+				return Collections.emptySet();
+			}
+
+			if (!probe.hasResultCount() || total > related.size() * RELATED_HEAD_RATIO) {
+
+				// the batch is small compared with the children
+				for (final Iterator<String> it = related.iterator(); it.hasNext();) {
+
+					if (!exists(buildPath(path, "/", it.next()))) {
+						it.remove();
+					}
+				}
+
+				return related;
+			}
+
+			final Set<String> found = new HashSet<String>();
+			final int pageSize      = scheduler.getPageSize(RELATED_PAGE_SIZE);
+			int page                = 1;
+			int read                = 0;
+
+			// the count decides when the children are complete, the server may send smaller pages than requested
+			while (read < total && found.size() < related.size()) {
+
+				final List<String> ids            = new ArrayList<String>(pageSize);
+				final PropertyCollector collector = new PropertyCollector("id", ids);
+
+				dbRead(collector, path, "?sort=id&pageSize=", pageSize, "&page=", page++);
+
+				if (collector.getCount() == 0) {
+					break;
+				}
+
+				for (final String childId : ids) {
+
+					if (related.contains(childId)) {
+						found.add(childId);
+					}
+				}
+
+				read += collector.getCount();
+			}
+
+			related.retainAll(found);
+
+			return related;
+		}
+
+		return Collections.emptySet();
+	}
+
+	/**
+	 * Counts the entities with the given type on the REST server, without
+	 * loading them. Only a single entity is transferred, and the count is
+	 * taken from the result metadata.
+	 *
+	 * @param type the type of the entities to count
+	 * @param params additional parameters, e.g. "&amp;name=example", may be empty
+	 * @return the number of entities matching the given type and parameters
+	 * @throws Throwable
+	 */
+	public int dbCount(final Class<? extends StructrObject> type, final Object... params) throws Throwable {
+
+		StructrObject newInstance = newInstance(type);
+		if (newInstance != null) {
+
+			PropertyCollector collector = new PropertyCollector("id");
+			dbRead(collector, "/", newInstance.getEntityName(), "?pageSize=1&page=1", params);
+
+			if (!collector.hasResultCount()) {
+
+				// the server did not send a count, so count the IDs of all entities
+				collector = new PropertyCollector("id");
+				dbRead(collector, "/", newInstance.getEntityName(), "?", params);
+			}
+
+			return collector.getResultCount();
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Counts the entities with the given type and property value on the
+	 * REST server, without loading them.
+	 *
+	 * @param type the type of the entities to count
+	 * @param key the property key
+	 * @param value the property value
+	 * @return the number of entities with the given property value
+	 * @throws Throwable
+	 */
+	public int dbCount(final Class<? extends StructrObject> type, final String key, final Object value) throws Throwable {
+		return dbCount(type, "&", key, "=", value);
+	}
+
+	/**
+	 * Checks whether an entity with the given type and property value exists
+	 * on the REST server, without loading it.
+	 *
+	 * @param type the type of the entity
+	 * @param key the property key
+	 * @param value the property value
+	 * @return whether at least one entity with the given property value exists
+	 * @throws Throwable
+	 */
+	public boolean dbExists(final Class<? extends StructrObject> type, final String key, final Object value) throws Throwable {
+		return dbCount(type, key, value) > 0;
+	}
+
+	/**
+	 * Fetches the distinct values of a property of the entities with the
+	 * given type. The response is streamed, and only the values of the
+	 * given property are kept, so no entities are created.
+	 *
+	 * @param type the type of the entities
+	 * @param key the property key
+	 * @param params additional parameters, e.g. "&amp;name=example", may be empty
+	 * @return the distinct non-null values of the property, in their string representation and in order of appearance
+	 * @throws Throwable
+	 */
+	public Set<String> dbDistinct(final Class<? extends StructrObject> type, final String key, final Object... params) throws Throwable {
+
+		StructrObject newInstance = newInstance(type);
+		if (newInstance != null) {
+
+			// the collector adds to the set, so only the distinct values are held in memory
+			final Set<String> values = new LinkedHashSet<String>();
+			dbRead(new PropertyCollector(key, values), "/", newInstance.getEntityName(), "?", params);
+
+			return values;
+		}
+
+		return Collections.emptySet();
+	}
+
+	/**
+	 * Schedules the entities with the given type and IDs to be loaded into
+	 * the cache of this client in the background. See {@see Prefetcher}.
+	 *
+	 * @param type the type of the entities
+	 * @param ids the IDs of the entities
+	 */
+	public void prefetch(final Class<? extends StructrObject> type, final String... ids) {
+		getPrefetcher().prefetch(type, ids);
+	}
+
+	/**
+	 * Schedules the entity with the given type and path to be loaded into
+	 * the cache of this client in the background. See {@see Prefetcher}.
+	 *
+	 * @param type the type of the entity
+	 * @param path the path of the entity
+	 */
+	public void prefetchPath(final Class<? extends StructrObject> type, final String path) {
+		getPrefetcher().prefetchPath(type, path);
+	}
+
+	/**
+	 * @return the prefetcher of this client
+	 */
+	public synchronized Prefetcher getPrefetcher() {
+
+		if (prefetcher == null) {
+			prefetcher = new Prefetcher(this);
+		}
+
+		return prefetcher;
+	}
+
+	/**
+	 * @return the buffer that coalesces deferred stores of this client
+	 */
+	public synchronized WriteBehindBuffer getWriteBehindBuffer() {
+
+		if (writeBuffer == null) {
+			writeBuffer = new WriteBehindBuffer(this);
+		}
+
+		return writeBuffer;
+	}
+
+	/**
+	 * @return the background sync worker of this client
+	 */
+	public synchronized SyncWorker getSyncWorker() {
+
+		if (syncWorker == null) {
+			syncWorker = new SyncWorker(this);
+		}
+
+		return syncWorker;
+	}
+
+	/**
+	 * @return the scheduler that adapts the requests of this client to the network conditions
+	 */
+	public RequestScheduler getScheduler() {
+		return scheduler;
+	}
+
+	/**
+	 * @return the entity cache of this client
+	 */
+	public EntityCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Registers a listener that will be notified of successful calls to
+	 * dbCreate(), dbStore() and dbDelete() on this client.
+	 *
+	 * @param listener the listener to add
+	 */
+	public void addEntityListener(final EntityListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener that was registered with {@see #addEntityListener}.
+	 *
+	 * @param listener the listener to remove
+	 */
+	public void removeEntityListener(final EntityListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Shuts down the AndroidHttpClient that this client created. Requests
+	 * that are sent afterwards without a transport use a new AndroidHttpClient.
+	 * A transport that was set with {@see #setTransport} is owned by the
+	 * caller, so it is neither shut down nor removed.
+	 */
+	public synchronized void shutdown() {
+
+		if (client != null) {
+			client.getConnectionManager().shutdown();
+			client.close();
+			client = null;
+		}
+	}
+
+	/**
+	 * Enables or disables the negotiation of the MessagePack binary format.
+	 * See {@see StructrObject#setMessagePackEnabled}.
+	 *
+	 * @param enabled whether to accept MessagePack responses
+	 */
+	public void setMessagePackEnabled(final boolean enabled) {
+		messagePack = enabled;
+	}
+
+	/**
+	 * Sets the maximum number of bytes of an error response body that are
+	 * captured in a {@see StructrException}. See {@see StructrObject#setErrorBodyLimit}.
+	 *
+	 * @param limit the maximum number of bytes to capture
+	 */
+	public void setErrorBodyLimit(final int limit) {
+		errorBodyLimit = Math.max(0, limit);
+	}
+
+	/**
+	 * @return the http client that is used to connect to the REST server.
+	 */
+	public synchronized AndroidHttpClient getHttpClient() {
+
+		if (client == null) {
+
+			client = AndroidHttpClient.newInstance("structr REST client");
+
+			if (tlsConfig != null) {
+				registerTlsConfig();
+			}
+		}
+
+		return client;
+	}
+
+	/**
+	 * Sets the TLS configuration for https connections of this client.
+	 *
+	 * @param config the TLS configuration, or null to use the platform defaults
+	 */
+	public synchronized void setTlsConfig(final TlsConfig config) {
+
+		tlsConfig = config;
+
+		// connections of the previous configuration must not be reused
+		if (client != null) {
+			shutdown();
+		}
+	}
+
+	/**
+	 * Sets the transport that sends the requests of this client. The TLS
+	 * configuration of this client only applies to the default transport,
+	 * so pass it to the transport when you create it. The transport is
+	 * owned by the caller, who has to shut it down when it is no longer
+	 * used; this client never shuts down a transport it did not create.
+	 *
+	 * @param transport the transport, or null to use the AndroidHttpClient of this client
+	 */
+	public synchronized void setTransport(final Transport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * @return the TLS configuration of this client, or null
+	 */
+	public TlsConfig getTlsConfig() {
+		return tlsConfig;
+	}
+
+	public <T extends StructrObject> String toJson(final T value) {
+		return gson.toJson(value);
+	}
+
+	public <T extends StructrObject> T fromJson(final Class<T> type, final String source) {
+		return gson.fromJson(source, type);
+	}
+
+	// ----- package-private methods -----
+	/**
+	 * @return the Gson instance that is used to map entities
+	 */
+	Gson getGson() {
+		return gson;
+	}
+
+	/**
+	 * Fetches the given path from the REST server and passes the response
+	 * body to the given reader.
+	 */
+	<R> R dbRead(final ResponseReader<R> reader, final String url, final Object... params) throws Throwable {
+		return read(buildPath(url, params), reader);
+	}
+
+	/**
+	 * Fetches a single page of a sorted list of entities with the given type
+	 * from the REST server, along with the total number of entities.
+	 */
+	<T extends StructrObject> StructrObject.StructrCollectionResult<T> dbListPage(final Class<T> type, final String sortKey, final boolean asc, final int page, final int pageSize, final Object... params) throws Throwable {
+
+		StructrObject newInstance = newInstance(type);
+		if (newInstance != null) {
+			return listResult(type, buildPath("/", newInstance.getEntityName(), "?sort=", sortKey, asc ? "" : "&order=desc", "&pageSize=", pageSize, "&page=", page, params));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Fetches a sorted list of child entities for a given parent. This method
+	 * exists because a call to the corresponding dbFind() method is ambiguous
+	 * with dbFind(type, key, value, sortKey, asc).
+	 */
+	<T extends StructrObject> List<T> dbFindChildren(final Class<? extends StructrObject> type, final String id, final Class<T> childType, final String sortKey, final boolean asc) throws Throwable {
+
+		StructrObject childInstance = newInstance(childType);
+		StructrObject newInstance = newInstance(type);
+		if (newInstance != null) {
+			return list(childType, buildPath("/", newInstance.getEntityName(), "/", id, "/", childInstance.getEntityName(), "?sort=", sortKey, asc ? "" : "&order=desc"));
+		}
+
+		return null;
+	}
+
+	/**
+	 * Marks the current thread as a background thread. Requests of background
+	 * threads do not use the entity cache and do not demote prefetching.
+	 */
+	void setBackground(final boolean value) {
+		background.set(value);
+	}
+
+	boolean isBackground() {
+		return Boolean.TRUE.equals(background.get());
+	}
+
+	/**
+	 * @return the number of foreground requests that are currently executed
+	 */
+	int getForegroundCount() {
+		return foreground.get();
+	}
+
+	/**
+	 * Opens a server-sent events stream. The caller reads the response
+	 * body and aborts the request when it is done.
+	 */
+	HttpResponse stream(final HttpGet request, final String path, final String lastEventId) throws Throwable {
+
+		configureRequest(request);
+
+		request.addHeader("Accept", "text/event-stream");
+		request.addHeader("Cache-Control", "no-cache");
+
+		if (lastEventId != null) {
+			request.addHeader("Last-Event-ID", lastEventId);
+		}
+
+		final HttpResponse response = execute(request, buildPath(path));
+		if (response.getStatusLine().getStatusCode() != 200) {
+
+			try {
+				throw createException(response);
+
+			} finally {
+
+				request.abort();
+			}
+		}
+
+		return response;
+	}
+
+	/**
+	 * Notifies the entity listeners of this client of a change that was
+	 * made on the REST server.
+	 *
+	 * @param name the kind of change, "created", "modified" or "deleted"
+	 * @param entity the changed entity
+	 */
+	void fireChange(final String name, final StructrObject entity) {
+
+		for (final EntityListener listener : listeners) {
+
+			if ("created".equals(name)) {
+
+				listener.entityCreated(entity);
+
+			} else if ("deleted".equals(name)) {
+
+				listener.entityDeleted(entity);
+
+			} else {
+
+				listener.entityStored(entity);
+			}
+		}
+	}
+
+	// ----- private methods -----
+	private <T extends StructrObject> T load(final Class<T> type, final String path) throws Throwable {
+		return load(type, path, !isBackground());
+	}
+
+	private <T extends StructrObject> T load(final Class<T> type, final String path, final boolean useCache) throws Throwable {
+
+		if (useCache) {
+
+			final T cached = cache.get(type, path);
+			if (cached != null) {
+				return cached;
+			}
+
+			final Prefetcher current = prefetcher;
+			if (current != null) {
+				current.cancel(path);
+			}
+		}
+
+		final HttpGet httpGet = new HttpGet();
+		HttpResponse response = null;
+		T result              = null;
+		Throwable throwable   = null;
+
+		configureRequest(httpGet);
+		configureAccept(httpGet);
+
+		try {
+
+			response = execute(httpGet, path);
+
+			if (response.getStatusLine().getStatusCode() == 200) {
+
+				StructrEntityResult<T> entityResult = decode(response.getEntity(), getEntityTypeToken(type));
+				if (entityResult != null && entityResult.getResult() != null) {
+
+					result = entityResult.getResult();
+
+					final Header etag = response.getFirstHeader("ETag");
+					if (etag != null) {
+						result.setEtag(etag.getValue());
+					}
+
+					StringPool.internFields(Collections.singletonList(result));
+					result.onDbLoad();
+				}
+
+			} else {
+
+				throw createException(response);
+			}
+
+		} catch(Throwable t) {
+
+			throwable = t;
+			httpGet.abort();
+
+		} finally {
+
+			if (response != null) {
+				response.getEntity().consumeContent();
+			}
+		}
+
+		if (throwable != null) {
+			throw throwable;
+		}
+
+		return result;
+	}
+
+	private int create(String path, StructrObject entity, Type type) throws Throwable {
+
+		final HttpPost httpPost = new HttpPost();
+		HttpResponse response   = null;
+		Throwable throwable     = null;
+		int responseCode        = 0;
+
+		try {
+			StringBuilder buf = new StringBuilder();
+			gson.toJson(entity, type, buf);
+
+			StringEntity body = new StringEntity(buf.toString(), "UTF-8");
+			body.setContentType("application/json");
+			httpPost.setEntity(body);
+
+			configureRequest(httpPost);
+
+			response = execute(httpPost, path);
+			responseCode = response.getStatusLine().getStatusCode();
+			if (responseCode == 201) {
+
+				String location = response.getFirstHeader("Location").getValue();
+				String newId = getIdFromLocation(location);
+
+				// only set ID of it's not already set
+				if (entity.getId() == null) {
+					entity.setId(newId);
+				}
+
+			} else {
+
+				throw createException(response);
+			}
+
+		} catch(Throwable t) {
+			throwable = t;
+		} finally {
+			if (response != null) {
+				response.getEntity().consumeContent();
+			}
+		}
+
+		if (throwable != null) {
+			throw throwable;
+		}
+
+		return responseCode;
+	}
+
+	private int store(String path, StructrObject entity, Type type) throws Throwable {
+
+		final HttpPut httpPut = new HttpPut();
+		HttpResponse response = null;
+		Throwable throwable   = null;
+		int responseCode      = 0;
+
+		try {
+			StringBuilder buf = new StringBuilder();
+			gson.toJson(entity, type, buf);
+
+			StringEntity body = new StringEntity(buf.toString());
+			body.setContentType("application/json");
+			httpPut.setEntity(body);
+
+			configureRequest(httpPut);
+
+			if (optimisticLocking) {
+				configurePrecondition(httpPut, entity);
+			}
+
+			response = execute(httpPut, path);
+			responseCode = response.getStatusLine().getStatusCode();
+
+			if (isSuccess(responseCode)) {
+
+				if (optimisticLocking) {
+					updatePrecondition(response, entity);
+				}
+
+			} else {
+
+				throw createException(response);
+			}
+
+		} catch(Throwable t) {
+
+			throwable = t;
+			httpPut.abort();
+
+		} finally {
+
+			if (response != null) {
+				response.getEntity().consumeContent();
+			}
+		}
+
+		if (throwable != null) {
+			throw throwable;
+		}
+
+		return responseCode;
+	}
+
+	private int delete(String path) throws Throwable {
+
+		final HttpDelete delete = new HttpDelete();
+		HttpResponse response   = null;
+		Throwable throwable     = null;
+		int responseCode        = 0;
+
+		configureRequest(delete);
+
+		try {
+			response = execute(delete, path);
+			responseCode = response.getStatusLine().getStatusCode();
+
+		} catch(Throwable t) {
+
+			throwable = t;
+			delete.abort();
+
+		} finally {
+
+			if (response != null) {
+				response.getEntity().consumeContent();
+			}
+		}
+
+		if (throwable != null) {
+			throw throwable;
+		}
+
+		return responseCode;
+	}
+
+	private boolean exists(final String path) throws Throwable {
+
+		final HttpRequestBase request = headUnsupported ? new HttpGet() : new HttpHead();
+		HttpResponse response         = null;
+		Throwable throwable           = null;
+		int responseCode              = 0;
+
+		configureRequest(request);
+
+		try {
+
+			response     = execute(request, path);
+			responseCode = response.getStatusLine().getStatusCode();
+
+			if ((responseCode == 405 || responseCode == 501) && request instanceof HttpHead) {
+
+				// fall back to GET requests for this client
+				headUnsupported = true;
+
+			} else if (responseCode != 200 && responseCode != 404) {
+
+				throw createException(response);
+			}
+
+		} catch(Throwable t) {
+
+			throwable = t;
+
+		} finally {
+
+			if (request instanceof HttpHead) {
+
+				if (response != null && response.getEntity() != null) {
+					response.getEntity().consumeContent();
+				}
+
+			} else {
+
+				// never read the body, closing the connection is cheaper for large entities
+				request.abort();
+			}
+		}
+
+		if (throwable != null) {
+			throw throwable;
+		}
+
+		// repeat a rejected HEAD request once as a GET request
+		if (responseCode == 405 || responseCode == 501) {
+			return exists(path);
+		}
+
+		return responseCode == 200;
+	}
+
+	private <R> R read(final String path, final ResponseReader<R> reader) throws Throwable {
+
+		final HttpGet httpGet = new HttpGet();
+		HttpResponse response = null;
+		Throwable throwable   = null;
+		R result              = null;
+
+		configureRequest(httpGet);
+
+		try {
+
+			response = execute(httpGet, path);
+
+			if (response.getStatusLine().getStatusCode() == 200) {
+
+				final PooledReader body = PooledReader.obtain(response.getEntity());
+				try {
+					result = reader.read(body);
+
+				} finally {
+
+					body.close();
+				}
+
+			} else {
+
+				throw createException(response);
+			}
+
+		} catch(Throwable t) {
+
+			throwable = t;
+			httpGet.abort();
+
+		} finally {
+
+			if (response != null) {
+				response.getEntity().consumeContent();
+			}
+		}
+
+		if (throwable != null) {
+			throw throwable;
+		}
+
+		return result;
+	}
+
+	private <T extends StructrObject> List<T> list(final Class<T> type, final String path) throws Throwable {
+		return listResult(type, path).getResult();
+	}
+
+	private <T extends StructrObject> StructrObject.StructrCollectionResult<T> listResult(final Class<T> type, final String path) throws Throwable {
+
+		final HttpGet httpGet = new HttpGet();
+
+		configureRequest(httpGet);
+		configureAccept(httpGet);
+
+		StructrObject.StructrCollectionResult<T> result = null;
+		HttpResponse response             = null;
+		Throwable throwable               = null;
+
+		try {
+
+			response = execute(httpGet, path);
+
+			if (response.getStatusLine().getStatusCode() == 200) {
+
+				result = decode(response.getEntity(), getCollectionTypeToken(type));
+				if (result != null && result.getResult() != null) {
+
+					StringPool.internFields(result.getResult());
+
+					for(StructrObject obj : result.getResult()) {
+
+						obj.onDbLoad();
+					}
+
+				} else {
+
+					result = new StructrObject.StructrCollectionResult<T>();
+					result.setResult(Collections.<T>emptyList());
+				}
+
+			} else {
+
+				throw createException(response);
+			}
+
+		} catch(Throwable t) {
+
+			throwable = t;
+			httpGet.abort();
+
+		} finally {
+
+			if (response != null) {
+				response.getEntity().consumeContent();
+			}
+		}
+
+		if (throwable != null) {
+			throw throwable;
+		}
+
+		return result;
+	}
+
+	private HttpResponse execute(final HttpRequestBase request, final String path) throws IOException, StructrException {
+
+		// foreground requests demote prefetching
+		final boolean counted = !isBackground();
+		if (counted) {
+			foreground.incrementAndGet();
+		}
+
+		try {
+			scheduler.acquire();
+
+		} catch (InterruptedException iex) {
+
+			if (counted) {
+				foreground.decrementAndGet();
+			}
+
+			throw new InterruptedIOException("Interrupted while waiting for a connection slot");
+		}
+
+		try {
+			return executeWithFailover(request, path);
+
+		} finally {
+
+			scheduler.release();
+
+			if (counted) {
+				foreground.decrementAndGet();
+			}
+		}
+	}
+
+	private HttpResponse executeWithFailover(final HttpRequestBase request, final String path) throws IOException, StructrException {
+
+		final ServerSet servers   = getServerSet();
+		final boolean write       = !(request instanceof HttpGet || request instanceof HttpHead);
+		final boolean idempotent  = !(request instanceof HttpPost);
+		final List<String> failed = new ArrayList<String>(1);
+		boolean renewed           = false;
+
+		while (true) {
+
+			final String server  = write ? servers.selectForWrite(failed) : servers.selectForRead(failed);
+			final String session = sessionAuthentication ? getSession(server) : null;
+			final long start     = System.currentTimeMillis();
+
+			request.setURI(URI.create(server + "/" + path));
+
+			if (session != null) {
+				request.setHeader("Cookie", session);
+			}
+
+			servers.requestStarted(server);
+
+			try {
+
+				final HttpResponse response = send(request);
+				final int responseCode      = response.getStatusLine().getStatusCode();
+
+				if (responseCode == 401 && session != null && !renewed) {
+
+					servers.requestSucceeded(server, System.currentTimeMillis() - start);
+
+					// the session expired, log in again and repeat the request once
+					invalidateSession(server, session);
+					renewed = true;
+
+					if (response.getEntity() != null) {
+						response.getEntity().consumeContent();
+					}
+
+					continue;
+				}
+
+				if (isUnavailable(responseCode)) {
+
+					servers.requestFailed(server);
+					failed.add(server);
+
+					// reads can safely be repeated on another server
+					if (!write && failed.size() < servers.size()) {
+
+						if (response.getEntity() != null) {
+							response.getEntity().consumeContent();
+						}
+
+						continue;
+					}
+
+				} else {
+
+					servers.requestSucceeded(server, System.currentTimeMillis() - start);
+				}
+
+				response.setEntity(scheduler.meter(server, System.currentTimeMillis() - start, response.getEntity()));
+
+				return response;
+
+			} catch (IOException ioex) {
+
+				servers.requestFailed(server);
+				failed.add(server);
+
+				// non-idempotent requests are only repeated when they did not reach the server
+				if (failed.size() >= servers.size() || !(idempotent || isConnectFailure(ioex))) {
+					throw ioex;
+				}
+			}
+		}
+	}
+
+	private HttpResponse send(final HttpUriRequest request) throws IOException {
+
+		final Transport current = transport;
+		if (current != null) {
+			return current.execute(request);
+		}
+
+		return getHttpClient().execute(request);
+	}
+
+	private void registerTlsConfig() {
+		client.getConnectionManager().getSchemeRegistry().register(new Scheme("https", tlsConfig, 443));
+	}
+
+	private String getSession(final String server) throws IOException, StructrException {
+
+		String session = sessions.get(server);
+		if (session == null) {
+
+			synchronized (sessions) {
+
+				session = sessions.get(server);
+				if (session == null) {
+
+					session = login(server);
+					sessions.put(server, session);
+				}
+			}
+		}
+
+		return session;
+	}
+
+	private void invalidateSession(final String server, final String session) {
+
+		synchronized (sessions) {
+
+			// another thread may have renewed the session already
+			if (session.equals(sessions.get(server))) {
+				sessions.remove(server);
+			}
+		}
+	}
+
+	private String login(final String server) throws IOException, StructrException {
+
+		final HttpPost httpPost = new HttpPost(server + "/login");
+		final JsonObject body   = new JsonObject();
+		final StringBuilder buf = new StringBuilder();
+		HttpResponse response   = null;
+
+		body.addProperty("name", getUserName());
+		body.addProperty("password", getPassword());
+
+		final StringEntity entity = new StringEntity(body.toString(), "UTF-8");
+		entity.setContentType("application/json");
+		httpPost.setEntity(entity);
+
+		try {
+
+			response = send(httpPost);
+
+			if (!isSuccess(response.getStatusLine().getStatusCode())) {
+				throw createException(response);
+			}
+
+			// pass all cookies of the response, not only the session ID
+			for (final Header header : response.getHeaders("Set-Cookie")) {
+
+				final String value = header.getValue();
+				final int pos      = value.indexOf(';');
+
+				if (buf.length() > 0) {
+					buf.append("; ");
+				}
+
+				buf.append(pos >= 0 ? value.substring(0, pos) : value);
+			}
+
+			if (buf.length() == 0) {
+				throw new StructrException(response.getStatusLine().getStatusCode(), "Login response contains no session cookie", null);
+			}
+
+		} catch (IOException ioex) {
+
+			httpPost.abort();
+			throw ioex;
+
+		} finally {
+
+			if (response != null && response.getEntity() != null) {
+				response.getEntity().consumeContent();
+			}
+		}
+
+		return buf.toString();
+	}
+
+	private void configureRequest(HttpRequest request) {
+
+		if (sessionAuthentication) {
+			return;
+		}
+
+		request.addHeader("X-User", getUserName());
+		request.addHeader("X-Password", getPassword());
+	}
+
+	private void configurePrecondition(final HttpRequest request, final StructrObject entity) throws IllegalAccessException {
+
+		final String etag = entity.getEtag();
+		if (etag != null) {
+
+			request.addHeader("If-Match", etag);
+			return;
+		}
+
+		final Field version = ExposedFields.getVersion(entity.getClass());
+		if (version != null) {
+
+			final Object value = version.get(entity);
+			if (value instanceof Date) {
+
+				request.addHeader("If-Unmodified-Since", DateUtils.formatDate((Date)value));
+
+			} else if (value != null) {
+
+				request.addHeader("If-Match", "\"" + value + "\"");
+			}
+		}
+	}
+
+	private void updatePrecondition(final HttpResponse response, final StructrObject entity) throws IllegalAccessException {
+
+		final Header etag = response.getFirstHeader("ETag");
+		entity.setEtag(etag != null ? etag.getValue() : null);
+
+		// the next store must not fail because of this modification
+		final Header lastModified = response.getFirstHeader("Last-Modified");
+		final Field version       = ExposedFields.getVersion(entity.getClass());
+
+		if (lastModified != null && version != null && Date.class.equals(version.getType())) {
+
+			try {
+				version.set(entity, DateUtils.parseDate(lastModified.getValue()));
+
+			} catch (DateParseException dpex) {
+
+				// keep the old value, the next store will be resolved as a conflict
+			}
+		}
+	}
+
+	private StructrObject resolve(final ConflictHandler handler, final StructrObject local, final String path, final StructrException conflict) throws Throwable {
+
+		// the current state must come from the server, not from the cache
+		final StructrObject remote = load(local.getClass(), path, false);
+		if (remote == null) {
+			throw conflict;
+		}
+
+		final StructrObject merged = handler.resolve(local, remote);
+		if (merged == null) {
+			throw conflict;
+		}
+
+		// the next attempt must be based on the current state
+		if (merged != remote) {
+
+			final Field version = ExposedFields.getVersion(merged.getClass());
+			if (version != null && version.getDeclaringClass().isInstance(remote)) {
+				version.set(merged, version.get(remote));
+			}
+
+			merged.setEtag(remote.getEtag());
+		}
+
+		return merged;
+	}
+
+	private void configureAccept(HttpRequest request) {
+
+		if (messagePack) {
+			request.addHeader("Accept", MessagePack.CONTENT_TYPE + ", application/json;q=0.9");
+		}
+	}
+
+	private <R> R decode(final HttpEntity entity, final Type typeToken) throws IOException {
+
+		final Header contentType = entity.getContentType();
+		if (contentType != null && contentType.getValue().startsWith(MessagePack.CONTENT_TYPE)) {
+
+			final MessagePack reader = new MessagePack(entity.getContent());
+			try {
+
+				if (MessagePack.canStream(typeToken)) {
+					return gson.<R>fromJson(reader, typeToken);
+				}
+
+				return gson.<R>fromJson(new JsonParser().parse(reader), typeToken);
+
+			} finally {
+
+				reader.close();
+			}
+		}
+
+		final PooledReader reader = PooledReader.obtain(entity);
+		try {
+			return gson.fromJson(reader, typeToken);
+
+		} finally {
+
+			reader.close();
+		}
+	}
+
+	private StructrException createException(final HttpResponse response) throws IOException {
+
+		final HttpEntity entity = response.getEntity();
+		byte[] body             = null;
+		String charset          = null;
+		boolean truncated       = false;
+
+		if (entity != null && errorBodyLimit > 0) {
+
+			final long length    = entity.getContentLength();
+			final InputStream in = entity.getContent();
+			final byte[] buf     = new byte[length >= 0 && length < errorBodyLimit ? (int)length : errorBodyLimit];
+			int count            = 0;
+			int read             = 0;
+
+			while (count < buf.length && (read = in.read(buf, count, buf.length - count)) >= 0) {
+				count += read;
+			}
+
+			truncated = count == buf.length && in.read() >= 0;
+			body      = count == buf.length ? buf : Arrays.copyOf(buf, count);
+			charset   = EntityUtils.getContentCharSet(entity);
+		}
+
+		return new StructrException(response.getStatusLine().getStatusCode(), response.getStatusLine().getReasonPhrase(), body, charset, truncated);
+	}
+
+	// ----- private static methods -----
+	private static void copyState(final StructrObject source, final StructrObject target) throws IllegalAccessException {
+
+		for (final Field field : ExposedFields.get(target.getClass()).values()) {
+
+			if (field.getDeclaringClass().isInstance(source)) {
+				field.set(target, field.get(source));
+			}
+		}
+
+		target.setEtag(source.getEtag());
+	}
+
+	private static String buildPath(String url, Object... params) {
+
+		StringBuilder path = new StringBuilder();
+
+		path.append(url);
+
+		for(Object o : params) {
+
+			if (o.getClass().isArray()) {
+				Object[] array = (Object[])o;
+				for(Object a : array) {
+					path.append(a);
+				}
+
+			} else {
+				path.append(o);
+			}
+		}
+
+		return path.toString();
+	}
+
+	private static boolean isUnavailable(final int responseCode) {
+		return responseCode == 502 || responseCode == 503 || responseCode == 504;
+	}
+
+	private static boolean isConnectFailure(final IOException ioex) {
+		return ioex instanceof ConnectException || ioex instanceof ConnectTimeoutException || ioex instanceof UnknownHostException || ioex instanceof NoRouteToHostException;
+	}
+
+	private static boolean isSuccess(final int responseCode) {
+		return responseCode >= 200 && responseCode < 300;
+	}
+
+	private static String getIdFromLocation(String location) {
+		int pos = location.lastIndexOf("/");
+		return location.substring(pos+1);
+	}
+
+	private static <T extends StructrObject> T newInstance(final Class<T> type) {
+		try { return type.newInstance(); } catch(Throwable t) {}
+		return null;
+	}
+
+	private static Type getCollectionTypeToken(Class<? extends StructrObject> type) {
+		return new ParameterizedTypeImpl(StructrObject.StructrCollectionResult.class, type);
+	}
+
+	private static Type getEntityTypeToken(Class<? extends StructrObject> type) {
+		return new ParameterizedTypeImpl(StructrEntityResult.class, type);
+	}
+
+	// ----- private static nested classes -----
+	private static class ParameterizedTypeImpl implements ParameterizedType {
+
+		private Class<?> genericType = null;
+		private Class<?> rawType = null;
+
+		public ParameterizedTypeImpl(Class<?> rawType, Class<?> genericType) {
+			this.rawType = rawType;
+			this.genericType = genericType;
+		}
+
+		@Override
+		public Type[] getActualTypeArguments() {
+			return new Type[] { genericType };
+		}
+
+		@Override
+		public Type getOwnerType() {
+			return StructrObject.class;
+		}
+
+		@Override
+		public Type getRawType() {
+			return rawType;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o.hashCode() == this.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return (genericType.hashCode() * 31) + rawType.hashCode();
+		}
+	}
+
+	private static class StructrEntityResult<T extends StructrObject> {
+
+		@Expose
+		T result = null;
+
+		public void setResult(T result) {
+			this.result = result;
+		}
+
+		public T getResult() {
+			return result;
+		}
+
+	}
+}
@@ -28,7 +28,9 @@ import android.preference.PreferenceManager;
  * this class use the default shared preferences of the given activity to obtain
  * server URL, user name and password that are used for connecting to the structr
  * REST server. The keys used for these values are "Server", "UserName" and
- * "Password".
+ * "Password". The server URL can be a comma-separated list of URLs, in which
+ * case the requests are distributed over the servers by a {@see ServerSet}.
+ * These settings configure the default {@see StructrClient}.
  *
  * @author Christian Morgner
  */
@@ -38,10 +40,6 @@ public abstract class StructrConnector<T> extends AsyncTask<Object, Progress, T>
 	public static final String USERNAME_KEY = "UserName";
 	public static final String PASSWORD_KEY = "Password";
 
-	private static String server                  = null;
-	private static String userName                = null;
-	private static String password                = null;
-
 	/**
 	 * This method must be called at least once to initialize the connection
 	 * settings for the structr REST client. Call this method in the onCreate
@@ -64,38 +62,34 @@ public abstract class StructrConnector<T> extends AsyncTask<Object, Progress, T>
 	}
 
 	public static void initialize(final String s, final String u, final String p) {
-		server   = s;
-		userName = u;
-		password = p;
+		StructrClient.getDefault().setServer(s);
+		StructrClient.getDefault().setCredentials(u, p);
 	}
 
 	private static void updatePreferences(SharedPreferences prefs) {
-		server   = prefs.getString(SERVER_KEY, "");
-		userName = prefs.getString(USERNAME_KEY, "");
-		password = prefs.getString(PASSWORD_KEY, "");
+		StructrClient.getDefault().setServer(prefs.getString(SERVER_KEY, ""));
+		StructrClient.getDefault().setCredentials(prefs.getString(USERNAME_KEY, ""), prefs.getString(PASSWORD_KEY, ""));
 	}
 
+	/**
+	 * @return the URL of the primary server of the default client
+	 */
 	public static String getServer() {
+		return StructrClient.getDefault().getServer();
+	}
 
-		if(server == null) {
-			throw new IllegalStateException("StructrConnector not initialized! You must call StructrConnector.initialize() before using it.");
-		}
-		return server;
+	/**
+	 * @return the set of servers the requests of the default client are distributed over
+	 */
+	public static ServerSet getServerSet() {
+		return StructrClient.getDefault().getServerSet();
 	}
 
 	public static String getUserName() {
-
-		if(userName == null) {
-			throw new IllegalStateException("StructrConnector not initialized! You must call StructrConnector.initialize() before using it.");
-		}
-		return userName;
+		return StructrClient.getDefault().getUserName();
 	}
 
 	public static String getPassword() {
-
-		if(password == null) {
-			throw new IllegalStateException("StructrConnector not initialized! You must call StructrConnector.initialize() before using it.");
-		}
-		return password;
+		return StructrClient.getDefault().getPassword();
 	}
 }
@@ -18,17 +18,45 @@
  */
 package org.structr.android.restclient;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * An exception that encapsulates the HTTP response code
  * and phrase of a REST operation.
  *
+ * <p>The response body is captured as raw bytes up to the limit set with
+ * {@see StructrObject#setErrorBodyLimit}, and only decoded when it is
+ * requested. Use the status code based methods like {@see #isRetryable}
+ * to classify a failure without touching the body at all. The structured
+ * error fields that structr sends (code, message and property errors) are
+ * parsed on demand.</p>
+ *
  * @author Christian Morgner
  */
 public class StructrException extends Throwable {
 
-	private String responsePhrase = null;
-	private String responseBody   = null;
-	private int responseCode      = 0;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private Map<String, List<String>> propertyErrors = null;
+	private String responsePhrase                    = null;
+	private String responseBody                      = null;
+	private String errorMessage                      = null;
+	private String charset                           = null;
+	private Integer errorCode                        = null;
+	private byte[] rawBody                           = null;
+	private boolean truncated                        = false;
+	private boolean parsed                           = false;
+	private int responseCode                         = 0;
 
 	public StructrException(final int responseCode, final String responsePhrase, final String responseBody) {
 
@@ -37,20 +65,214 @@ public class StructrException extends Throwable {
 		this.responseBody   = responseBody;
 	}
 
+	/**
+	 * Creates an exception with a captured, not yet decoded response body.
+	 *
+	 * @param responseCode the HTTP response code
+	 * @param responsePhrase the HTTP response phrase
+	 * @param rawBody the captured response body, or null
+	 * @param charset the charset of the response body, or null for UTF-8
+	 * @param truncated whether the body was longer than the captured bytes
+	 */
+	StructrException(final int responseCode, final String responsePhrase, final byte[] rawBody, final String charset, final boolean truncated) {
+
+		this.responsePhrase = responsePhrase;
+		this.responseCode   = responseCode;
+		this.rawBody        = rawBody;
+		this.charset        = charset;
+		this.truncated      = truncated;
+	}
+
 	@Override
 	public String getMessage() {
-		return "Error " + responseCode + ": " + responsePhrase + ": " + responseBody;
+		return "Error " + responseCode + ": " + responsePhrase + ": " + getResponseBody();
 	}
 
 	public String getResponsePhrase() {
 		return responsePhrase;
 	}
 
-	public String getResponseBody() {
+	/**
+	 * Returns the response body, decoded with the charset of the
+	 * Content-Type header of the response, or with UTF-8 if there is none
+	 * or the charset is not supported.
+	 *
+	 * @return the (possibly truncated) response body, or null if no body was captured
+	 */
+	public synchronized String getResponseBody() {
+
+		if (responseBody == null && rawBody != null) {
+
+			try {
+				responseBody = new String(rawBody, charset != null ? charset : "UTF-8");
+
+			} catch (UnsupportedEncodingException ueex) {
+
+				responseBody = new String(rawBody, UTF_8);
+			}
+
+			if (truncated) {
+				responseBody += "...";
+			}
+
+			rawBody = null;
+		}
+
 		return responseBody;
 	}
 
 	public int getResponseCode() {
 		return responseCode;
 	}
+
+	/**
+	 * @return whether the response body was longer than the captured part
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	/**
+	 * @return whether the request failed because of a client error (4xx)
+	 */
+	public boolean isClientError() {
+		return responseCode >= 400 && responseCode < 500;
+	}
+
+	/**
+	 * @return whether the request failed because of a server error (5xx)
+	 */
+	public boolean isServerError() {
+		return responseCode >= 500 && responseCode < 600;
+	}
+
+	/**
+	 * @return whether the requested resource does not exist (404)
+	 */
+	public boolean isNotFound() {
+		return responseCode == 404;
+	}
+
+	/**
+	 * @return whether the credentials were missing or invalid (401)
+	 */
+	public boolean isUnauthorized() {
+		return responseCode == 401;
+	}
+
+	/**
+	 * @return whether the request conflicts with the current state of the resource (409 or 412)
+	 */
+	public boolean isConflict() {
+		return responseCode == 409 || responseCode == 412;
+	}
+
+	/**
+	 * @return whether the request can be expected to succeed when it is repeated later (408, 429 and 5xx except 501)
+	 */
+	public boolean isRetryable() {
+		return responseCode == 408 || responseCode == 429 || (isServerError() && responseCode != 501);
+	}
+
+	/**
+	 * @return the error code from the structr error response, or null
+	 */
+	public Integer getErrorCode() {
+
+		parse();
+		return errorCode;
+	}
+
+	/**
+	 * @return the error message from the structr error response, or null
+	 */
+	public String getErrorMessage() {
+
+		parse();
+		return errorMessage;
+	}
+
+	/**
+	 * Returns the validation errors from the structr error response, keyed by
+	 * property name. Each property maps to the error tokens reported for it,
+	 * e.g. "must_not_be_empty".
+	 *
+	 * @return the property errors, or an empty map
+	 */
+	public Map<String, List<String>> getPropertyErrors() {
+
+		parse();
+		return propertyErrors;
+	}
+
+	// ----- private methods -----
+	private synchronized void parse() {
+
+		if (parsed) {
+			return;
+		}
+
+		parsed         = true;
+		propertyErrors = Collections.emptyMap();
+
+		final String body = getResponseBody();
+		if (body == null || truncated) {
+			return;
+		}
+
+		try {
+			final JsonElement root = new JsonParser().parse(body);
+			if (!root.isJsonObject()) {
+				return;
+			}
+
+			final JsonObject error = root.getAsJsonObject();
+
+			if (error.has("code") && error.get("code").isJsonPrimitive()) {
+				errorCode = error.get("code").getAsInt();
+			}
+
+			if (error.has("message") && error.get("message").isJsonPrimitive()) {
+				errorMessage = error.get("message").getAsString();
+			}
+
+			if (error.has("errors") && error.get("errors").isJsonObject()) {
+
+				final Map<String, List<String>> errors = new LinkedHashMap<String, List<String>>();
+
+				for (final Map.Entry<String, JsonElement> type : error.getAsJsonObject("errors").entrySet()) {
+
+					if (type.getValue().isJsonObject()) {
+
+						for (final Map.Entry<String, JsonElement> property : type.getValue().getAsJsonObject().entrySet()) {
+
+							List<String> tokens = errors.get(property.getKey());
+							if (tokens == null) {
+
+								tokens = new ArrayList<String>();
+								errors.put(property.getKey(), tokens);
+							}
+
+							if (property.getValue().isJsonArray()) {
+
+								final JsonArray array = property.getValue().getAsJsonArray();
+								for (int i=0; i<array.size(); i++) {
+									tokens.add(array.get(i).isJsonPrimitive() ? array.get(i).getAsString() : array.get(i).toString());
+								}
+
+							} else {
+
+								tokens.add(property.getValue().isJsonPrimitive() ? property.getValue().getAsString() : property.getValue().toString());
+							}
+						}
+					}
+				}
+
+				propertyErrors = errors;
+			}
+
+		} catch (RuntimeException rex) {
+			// not a structr error response, e.g. an HTML error page
+		}
+	}
 }
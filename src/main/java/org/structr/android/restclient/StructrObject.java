@@ -19,22 +19,11 @@
 package org.structr.android.restclient;
 
 import android.net.http.AndroidHttpClient;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.annotations.Expose;
 import java.io.Serializable;
-import java.lang.reflect.ParameterizedType;
-import java.lang.reflect.Type;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.List;
-import org.apache.http.HttpRequest;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.methods.HttpDelete;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.client.methods.HttpPut;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.util.EntityUtils;
+import java.util.Set;
 
 /**
  * An abstract base class for REST entities on a structr server. This class encapsulates everything
@@ -46,12 +35,13 @@ import org.apache.http.util.EntityUtils;
  */
 public abstract class StructrObject implements Serializable {
 
-	private static final Gson gson = new GsonBuilder().excludeFieldsWithoutExposeAnnotation().setDateFormat("yyyy-MM-dd'T'HH:mm:ssZ").create();
-	private static AndroidHttpClient client = null;
+	static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ssZ";
 
 	@Expose
 	private String id = null;
 
+	private transient String etag = null;
+
 	/**
 	 * Override this method to load additional resources after
 	 * the entity has been created from the JSON source. You can
@@ -91,7 +81,7 @@ public abstract class StructrObject implements Serializable {
 	 * @throws Throwable
 	 */
 	public void dbCreate(final String path) throws Throwable {
-		create(buildPath(path, getEntityName()), this, getClass());
+		StructrClient.getDefault().dbCreate(this, path);
 	}
 
 	/**
@@ -106,11 +96,23 @@ public abstract class StructrObject implements Serializable {
 
 	/**
 	 * Stores the exposed attributes of this entity on the REST server.
+	 * With optimistic locking enabled, the store fails with a
+	 * {@see StructrException} if the entity was modified on the server in
+	 * the meantime and the conflict could not be resolved.
 	 *
 	 * @throws Throwable
 	 */
 	public void dbStore() throws Throwable {
-		store(buildPath("/", getEntityName(), "/", getId()), this, getClass());
+		StructrClient.getDefault().dbStore(this);
+	}
+
+	/**
+	 * Schedules this entity to be stored on the REST server. Successive calls
+	 * for the same entity within a short time are coalesced into a single
+	 * request. See {@see WriteBehindBuffer}.
+	 */
+	public void dbStoreDeferred() {
+		StructrClient.getDefault().getWriteBehindBuffer().store(this);
 	}
 
 	/**
@@ -120,7 +122,18 @@ public abstract class StructrObject implements Serializable {
 	 * @throws Throwable
 	 */
 	public void dbDelete() throws Throwable {
-		delete(buildPath("/", getEntityName(), "/", getId()));
+		StructrClient.getDefault().dbDelete(this);
+	}
+
+	/**
+	 * Writes all deferred stores of the default client immediately and waits
+	 * until they are written. Call this method when the changes must not be
+	 * lost, e.g. in the onPause() method of your activity.
+	 *
+	 * @throws Throwable
+	 */
+	public static void flushDeferredStores() throws Throwable {
+		StructrClient.getDefault().getWriteBehindBuffer().flush();
 	}
 
 	/**
@@ -132,13 +145,7 @@ public abstract class StructrObject implements Serializable {
 	 * @throws Throwable
 	 */
 	public static <T extends StructrObject> T dbGet(final Class<T> type, final String id) throws Throwable {
-
-		StructrObject newInstance = newInstance(type);
-		if (newInstance != null) {
-			return load(type, buildPath("/", newInstance.getEntityName(), "/", id));
-		}
-
-		return null;
+		return StructrClient.getDefault().dbGet(type, id);
 	}
 
 	/**
@@ -151,13 +158,7 @@ public abstract class StructrObject implements Serializable {
 	 * @throws Throwable
 	 */
 	public static <T extends StructrObject> T dbLoad(final Class<T> type, final String key, final Object value) throws Throwable {
-
-		StructrObject newInstance = newInstance(type);
-		if (newInstance != null) {
-			return load(type, buildPath("/", newInstance.getEntityName(), "?", key, "=", value));
-		}
-
-		return null;
+		return StructrClient.getDefault().dbLoad(type, key, value);
 	}
 
 	/**
@@ -170,13 +171,7 @@ public abstract class StructrObject implements Serializable {
 	 * @throws Throwable
 	 */
 	public static <T extends StructrObject> T dbLoad(final Class<T> type, final String path) throws Throwable {
-
-		StructrObject newInstance = newInstance(type);
-		if (newInstance != null) {
-			return load(type, buildPath(path));
-		}
-
-		return null;
+		return StructrClient.getDefault().dbLoad(type, path);
 	}
 
 	/**
@@ -190,13 +185,7 @@ public abstract class StructrObject implements Serializable {
 	 * @throws Throwable
 	 */
 	public static <T extends StructrObject> List<T> dbList(final Class<T> type, final String sortKey, final boolean asc, final Object... params) throws Throwable {
-
-		StructrObject newInstance = newInstance(type);
-		if (newInstance != null) {
-			return list(type, buildPath("/", newInstance.getEntityName(), "?sort=", sortKey, asc ? "" : "&order=desc", params));
-		}
-
-		return null;
+		return StructrClient.getDefault().dbList(type, sortKey, asc, params);
 	}
 
 	/**
@@ -208,13 +197,7 @@ public abstract class StructrObject implements Serializable {
 	 * @throws Throwable
 	 */
 	public static <T extends StructrObject> List<T> dbList(final Class<T> type, final String path) throws Throwable {
-
-		StructrObject newInstance = newInstance(type);
-		if (newInstance != null) {
-			return list(type, buildPath(path));
-		}
-
-		return null;
+		return StructrClient.getDefault().dbList(type, path);
 	}
 
 	/**
@@ -229,13 +212,7 @@ public abstract class StructrObject implements Serializable {
 	 * @throws Throwable
 	 */
 	public static <T extends StructrObject> List<T> dbFind(final Class<T> type, final String key, final Object value, final String sortKey, final boolean asc) throws Throwable {
-
-		StructrObject newInstance = newInstance(type);
-		if (newInstance != null) {
-			return list(type, buildPath("/", newInstance.getEntityName(), "?", key, "=", value, "&sort=", sortKey, asc ? "" : "&order=desc"));
-		}
-
-		return null;
+		return StructrClient.getDefault().dbFind(type, key, value, sortKey, asc);
 	}
 
 	/**
@@ -249,21 +226,14 @@ public abstract class StructrObject implements Serializable {
 	 * @return a sorted list of entities that are children of a given parent entity with the given ID
 	 * @throws Throwable
 	 */
-	public static <T extends StructrObject> List<T> dbFind(final Class type, final String id, final Class<T> childType, final String sortKey, final boolean asc) throws Throwable {
-
-		StructrObject childInstance = newInstance(childType);
-		StructrObject newInstance = newInstance(type);
-		if (newInstance != null) {
-			return list(childType, buildPath("/", newInstance.getEntityName(), "/", id, "/", childInstance.getEntityName(), "?sort=", sortKey, asc ? "" : "&order=desc"));
-		}
-
-		return null;
+	public static <T extends StructrObject> List<T> dbFind(final Class<? extends StructrObject> type, final String id, final Class<T> childType, final String sortKey, final boolean asc) throws Throwable {
+		return StructrClient.getDefault().dbFindChildren(type, id, childType, sortKey, asc);
 	}
 
 	/**
-	 * Fetches a single child entitiy with a given ID from a parent with a given ID. This method can
-	 * be used to check for an existing relationship between the to entities. If a valid path exists
-	 * from one entity to the other, the entities are related.
+	 * Fetches a single child entitiy with a given ID from a parent with a given ID. If a valid path
+	 * exists from one entity to the other, the entities are related. Use {@see #dbIsRelated} if you
+	 * only want to check for an existing relationship between the two entities.
 	 *
 	 * @param type the parent's type
 	 * @param id the parent's ID
@@ -274,395 +244,268 @@ public abstract class StructrObject implements Serializable {
 	 * @return the child entity with the given ID, if there is a relationship with the parent
 	 * @throws Throwable
 	 */
-	public static <T extends StructrObject> T dbFind(final Class type, final String id, final Class<T> childType, final String childId, final String sortKey, final boolean asc) throws Throwable {
-
-		StructrObject childInstance = newInstance(childType);
-		StructrObject newInstance = newInstance(type);
-		if (newInstance != null) {
-			return load(childType, buildPath("/", newInstance.getEntityName(), "/", id, "/", childInstance.getEntityName(), "/", childId));
-		}
-
-		return null;
+	public static <T extends StructrObject> T dbFind(final Class<? extends StructrObject> type, final String id, final Class<T> childType, final String childId, final String sortKey, final boolean asc) throws Throwable {
+		return StructrClient.getDefault().dbFind(type, id, childType, childId, sortKey, asc);
 	}
 
 	/**
-	 * Shuts down the the http client that is used for the database connection.
+	 * Checks whether a relationship exists between a parent and a child
+	 * entity, without transferring or creating the child entity.
+	 *
+	 * @param type the parent's type
+	 * @param id the parent's ID
+	 * @param childType the child's type
+	 * @param childId the child's ID
+	 * @return whether the child is related to the parent
+	 * @throws Throwable
 	 */
-	public static void shutdownDatabaseConnection() {
-
-		if (client != null) {
-			client.getConnectionManager().shutdown();
-			client.close();
-			client = null;
-		}
+	public static boolean dbIsRelated(final Class<? extends StructrObject> type, final String id, final Class<? extends StructrObject> childType, final String childId) throws Throwable {
+		return StructrClient.getDefault().dbIsRelated(type, id, childType, childId);
 	}
 
 	/**
-	 * @return the http client that is used to connect to the REST server.
+	 * Checks which of the given children are related to a parent entity, in
+	 * a single request, without creating entities.
+	 *
+	 * @param type the parent's type
+	 * @param id the parent's ID
+	 * @param childType the children's type
+	 * @param childIds the IDs of the children to check
+	 * @return the IDs of the given children that are related to the parent
+	 * @throws Throwable
 	 */
-	public static AndroidHttpClient getHttpClient() {
-
-		if (client == null) {
-			client = AndroidHttpClient.newInstance("structr REST client");
-		}
-
-		return client;
+	public static Set<String> dbIsRelated(final Class<? extends StructrObject> type, final String id, final Class<? extends StructrObject> childType, final Collection<String> childIds) throws Throwable {
+		return StructrClient.getDefault().dbIsRelated(type, id, childType, childIds);
 	}
 
-	public static <T extends StructrObject> String toJson(final T value) {
-		return gson.toJson(value);
+	/**
+	 * Counts the entities with the given type on the REST server, without
+	 * loading them.
+	 *
+	 * @param type the type of the entities to count
+	 * @param params additional parameters, e.g. "&amp;name=example", may be empty
+	 * @return the number of entities matching the given type and parameters
+	 * @throws Throwable
+	 */
+	public static int dbCount(final Class<? extends StructrObject> type, final Object... params) throws Throwable {
+		return StructrClient.getDefault().dbCount(type, params);
 	}
 
-	public static <T extends StructrObject> T fromJson(final Class<T> type, final String source) {
-		return gson.fromJson(source, type);
+	/**
+	 * Counts the entities with the given type and property value on the
+	 * REST server, without loading them.
+	 *
+	 * @param type the type of the entities to count
+	 * @param key the property key
+	 * @param value the property value
+	 * @return the number of entities with the given property value
+	 * @throws Throwable
+	 */
+	public static int dbCount(final Class<? extends StructrObject> type, final String key, final Object value) throws Throwable {
+		return StructrClient.getDefault().dbCount(type, key, value);
 	}
 
-	// ----- private methods -----
-	private String getEntityName() {
-		return getClass().getSimpleName();
+	/**
+	 * Checks whether an entity with the given type and property value exists
+	 * on the REST server, without loading it.
+	 *
+	 * @param type the type of the entity
+	 * @param key the property key
+	 * @param value the property value
+	 * @return whether at least one entity with the given property value exists
+	 * @throws Throwable
+	 */
+	public static boolean dbExists(final Class<? extends StructrObject> type, final String key, final Object value) throws Throwable {
+		return StructrClient.getDefault().dbExists(type, key, value);
 	}
 
-
-	// ----- private static methods -----
-	private static <T extends StructrObject> T load(final Class<T> type, final String path) throws Throwable {
-
-		final AndroidHttpClient httpClient = getHttpClient();
-		final HttpGet httpGet              = new HttpGet(path);
-		HttpResponse response              = null;
-		T result                           = null;
-		Throwable throwable                = null;
-
-		configureRequest(httpGet);
-
-		try {
-
-			response = httpClient.execute(httpGet);
-
-			if (response.getStatusLine().getStatusCode() == 200) {
-
-				StructrEntityResult<T> entityResult = (StructrEntityResult<T>)gson.fromJson(EntityUtils.toString(response.getEntity()), getEntityTypeToken(type));
-				if (entityResult != null) {
-
-					result = entityResult.getResult();
-					result.onDbLoad();
-				}
-
-			} else {
-
-				throw new StructrException(response.getStatusLine().getStatusCode(), response.getStatusLine().getReasonPhrase(), EntityUtils.toString(response.getEntity()));
-			}
-
-		} catch(Throwable t) {
-
-			throwable = t;
-			httpGet.abort();
-
-		} finally {
-
-			if (response != null) {
-				response.getEntity().consumeContent();
-			}
-		}
-
-		if (throwable != null) {
-			throw throwable;
-		}
-
-		return result;
+	/**
+	 * Fetches the distinct values of a property of the entities with the
+	 * given type, without creating entities.
+	 *
+	 * @param type the type of the entities
+	 * @param key the property key
+	 * @param params additional parameters, may be empty
+	 * @return the distinct non-null values of the property, in order of appearance
+	 * @throws Throwable
+	 */
+	public static Set<String> dbDistinct(final Class<? extends StructrObject> type, final String key, final Object... params) throws Throwable {
+		return StructrClient.getDefault().dbDistinct(type, key, params);
 	}
 
-	private static int create(String path, StructrObject entity, Type type) throws Throwable {
-
-		final AndroidHttpClient httpClient = getHttpClient();
-		final HttpPost httpPost            = new HttpPost(path);
-		HttpResponse response              = null;
-		Throwable throwable                = null;
-		int responseCode                   = 0;
-
-		try {
-			StringBuilder buf = new StringBuilder();
-			gson.toJson(entity, type, buf);
-
-			StringEntity body = new StringEntity(buf.toString(), "UTF-8");
-			body.setContentType("application/json");
-			httpPost.setEntity(body);
-
-			configureRequest(httpPost);
-
-			response = httpClient.execute(httpPost);
-			responseCode = response.getStatusLine().getStatusCode();
-			if (responseCode == 201) {
-
-				String location = response.getFirstHeader("Location").getValue();
-				String newId = getIdFromLocation(location);
-
-				// only set ID of it's not already set
-				if (entity.getId() == null) {
-					entity.setId(newId);
-				}
-
-			} else {
-
-				throw new StructrException(response.getStatusLine().getStatusCode(), response.getStatusLine().getReasonPhrase(), EntityUtils.toString(response.getEntity()));
-			}
-
-		} catch(Throwable t) {
-			throwable = t;
-		} finally {
-			if (response != null) {
-				response.getEntity().consumeContent();
-			}
-		}
-
-		if (throwable != null) {
-			throw throwable;
-		}
-
-		return responseCode;
+	/**
+	 * Schedules the entities with the given type and IDs to be loaded into
+	 * the cache of the default client in the background, so that a later
+	 * dbGet() of these entities does not have to wait for the REST server.
+	 *
+	 * @param type the type of the entities
+	 * @param ids the IDs of the entities
+	 */
+	public static void prefetch(final Class<? extends StructrObject> type, final String... ids) {
+		StructrClient.getDefault().prefetch(type, ids);
 	}
 
-	private static int store(String path, StructrObject entity, Type type) throws Throwable {
-
-		final AndroidHttpClient httpClient = getHttpClient();
-		final HttpPut httpPut              = new HttpPut(path);
-		HttpResponse response              = null;
-		Throwable throwable                = null;
-		int responseCode                   = 0;
-
-		try {
-			StringBuilder buf = new StringBuilder();
-			gson.toJson(entity, type, buf);
-
-			StringEntity body = new StringEntity(buf.toString());
-			body.setContentType("application/json");
-			httpPut.setEntity(body);
-
-			configureRequest(httpPut);
-
-			response = httpClient.execute(httpPut);
-			responseCode = response.getStatusLine().getStatusCode();
-
-		} catch(Throwable t) {
-
-			throwable = t;
-			httpPut.abort();
-
-		} finally {
-
-			if (response != null) {
-				response.getEntity().consumeContent();
-			}
-		}
-
-		if (throwable != null) {
-			throw throwable;
-		}
-
-		return responseCode;
+	/**
+	 * Schedules the entity with the given type and path to be loaded into
+	 * the cache of the default client in the background, so that a later
+	 * dbLoad() of this path does not have to wait for the REST server.
+	 *
+	 * @param type the type of the entity
+	 * @param path the path of the entity
+	 */
+	public static void prefetchPath(final Class<? extends StructrObject> type, final String path) {
+		StructrClient.getDefault().prefetchPath(type, path);
 	}
 
-	private static int delete(String path) throws Throwable {
-
-		final AndroidHttpClient httpClient = getHttpClient();
-		final HttpDelete delete            = new HttpDelete(path);
-		HttpResponse response              = null;
-		Throwable throwable                = null;
-		int responseCode                   = 0;
-
-		configureRequest(delete);
-
-		try {
-			response = httpClient.execute(delete);
-			responseCode = response.getStatusLine().getStatusCode();
-
-		} catch(Throwable t) {
-
-			throwable = t;
-			delete.abort();
-
-		} finally {
-
-			if (response != null) {
-				response.getEntity().consumeContent();
-			}
-		}
-
-		if (throwable != null) {
-			throw throwable;
-		}
-
-		return responseCode;
+	/**
+	 * Registers a listener that will be notified of successful calls to
+	 * dbCreate(), dbStore() and dbDelete() on any entity.
+	 *
+	 * @param listener the listener to add
+	 */
+	public static void addEntityListener(final EntityListener listener) {
+		StructrClient.getDefault().addEntityListener(listener);
 	}
 
-	private static <T extends StructrObject> List<T> list(final Class<T> type, final String path) throws Throwable {
-
-		final AndroidHttpClient httpClient = getHttpClient();
-		final HttpGet httpGet              = new HttpGet(path);
-
-		configureRequest(httpGet);
-
-		List<T> result        = null;
-		HttpResponse response = null;
-		Throwable throwable   = null;
-
-		try {
-
-			response = httpClient.execute(httpGet);
-
-			if (response.getStatusLine().getStatusCode() == 200) {
-
-				StructrCollectionResult<T> collectionResult = (StructrCollectionResult<T>)gson.fromJson(EntityUtils.toString(response.getEntity()), getCollectionTypeToken(type));
-				if (collectionResult != null) {
-
-					result = collectionResult.getResult();
-					for(StructrObject obj : result) {
-
-						obj.onDbLoad();
-					}
-
-				} else {
-
-					result = Collections.emptyList();
-				}
-
-			} else {
-
-				throw new StructrException(response.getStatusLine().getStatusCode(), response.getStatusLine().getReasonPhrase(), EntityUtils.toString(response.getEntity()));
-			}
-
-		} catch(Throwable t) {
-
-			throwable = t;
-			httpGet.abort();
-
-		} finally {
-
-			if (response != null) {
-				response.getEntity().consumeContent();
-			}
-		}
-
-		if (throwable != null) {
-			throw throwable;
-		}
-
-		return result;
+	/**
+	 * Unregisters a listener that was registered with {@see #addEntityListener}.
+	 *
+	 * @param listener the listener to remove
+	 */
+	public static void removeEntityListener(final EntityListener listener) {
+		StructrClient.getDefault().removeEntityListener(listener);
 	}
 
-	private static String buildPath(String url, Object... params) {
-
-		StringBuilder path = new StringBuilder();
-		String base = StructrConnector.getServer();
-
-		path.append(base);
-		if (!base.endsWith("/")) {
-			path.append("/");
-		}
-		path.append(url);
-
-		for(Object o : params) {
-
-			if (o.getClass().isArray()) {
-				Object[] array = (Object[])o;
-				for(Object a : array) {
-					path.append(a);
-				}
-
-			} else {
-				path.append(o);
-			}
-		}
-
-		return path.toString();
+	/**
+	 * Shuts down the the http client that is used for the database connection.
+	 */
+	public static void shutdownDatabaseConnection() {
+		StructrClient.getDefault().shutdown();
 	}
 
-	private static void configureRequest(HttpRequest request) {
-
-		request.addHeader("X-User", StructrConnector.getUserName());
-		request.addHeader("X-Password", StructrConnector.getPassword());
+	/**
+	 * Enables or disables the negotiation of the MessagePack binary format for
+	 * requests that load entities. When enabled, these requests accept
+	 * MessagePack in addition to JSON, and the response is decoded according
+	 * to its content type, so servers (or proxies) that do not support
+	 * MessagePack can still answer with JSON. Entities are mapped with the
+	 * same @Expose rules in both formats.
+	 *
+	 * @param enabled whether to accept MessagePack responses
+	 */
+	public static void setMessagePackEnabled(final boolean enabled) {
+		StructrClient.getDefault().setMessagePackEnabled(enabled);
 	}
 
-	private static String getIdFromLocation(String location) {
-		int pos = location.lastIndexOf("/");
-		return location.substring(pos+1);
+	/**
+	 * Enables or disables session authentication for the default client. When
+	 * enabled, the client logs in once and sends the session cookie instead
+	 * of the user name and password with every request. Expired sessions are
+	 * renewed transparently.
+	 *
+	 * @param enabled whether to use session authentication
+	 */
+	public static void setSessionAuthentication(final boolean enabled) {
+		StructrClient.getDefault().setSessionAuthentication(enabled);
 	}
 
-	private static <T extends StructrObject> T newInstance(final Class<T> type) {
-		try { return type.newInstance(); } catch(Throwable t) {}
-		return null;
+	/**
+	 * Sets the TLS configuration for https connections of the default client.
+	 *
+	 * @param config the TLS configuration, or null to use the platform defaults
+	 */
+	public static void setTlsConfig(final TlsConfig config) {
+		StructrClient.getDefault().setTlsConfig(config);
 	}
 
-	private static Type getCollectionTypeToken(Class type) {
-		return new ParameterizedTypeImpl(StructrCollectionResult.class, type);
+	/**
+	 * Enables or disables optimistic locking for the default client. See
+	 * {@see StructrClient#setOptimisticLocking}.
+	 *
+	 * @param enabled whether to use optimistic locking
+	 * @param handler the handler that resolves conflicts, may be null
+	 */
+	public static void setOptimisticLocking(final boolean enabled, final ConflictHandler handler) {
+		StructrClient.getDefault().setOptimisticLocking(enabled, handler);
 	}
 
-	private static Type getEntityTypeToken(Class type) {
-		return new ParameterizedTypeImpl(StructrEntityResult.class, type);
+	/**
+	 * Sets the maximum number of bytes of an error response body that are
+	 * captured in a {@see StructrException}. Error bodies are captured as raw
+	 * bytes and only decoded when they are requested. A limit of 0 disables
+	 * reading error bodies entirely. The default limit is 4096 bytes.
+	 *
+	 * @param limit the maximum number of bytes to capture
+	 */
+	public static void setErrorBodyLimit(final int limit) {
+		StructrClient.getDefault().setErrorBodyLimit(limit);
 	}
 
-	// ----- private static nested classes -----
-	private static class ParameterizedTypeImpl implements ParameterizedType {
-
-		private Class genericType = null;
-		private Class rawType = null;
-
-		public ParameterizedTypeImpl(Class rawType, Class genericType) {
-			this.rawType = rawType;
-			this.genericType = genericType;
-		}
+	/**
+	 * @return the http client that is used to connect to the REST server.
+	 */
+	public static AndroidHttpClient getHttpClient() {
+		return StructrClient.getDefault().getHttpClient();
+	}
 
-		@Override
-		public Type[] getActualTypeArguments() {
-			return new Type[] { genericType };
-		}
+	public static <T extends StructrObject> String toJson(final T value) {
+		return StructrClient.getDefault().toJson(value);
+	}
 
-		@Override
-		public Type getOwnerType() {
-			return StructrObject.class;
-		}
+	public static <T extends StructrObject> T fromJson(final Class<T> type, final String source) {
+		return StructrClient.getDefault().fromJson(type, source);
+	}
 
-		@Override
-		public Type getRawType() {
-			return rawType;
-		}
+	// ----- package-private methods -----
+	String getEntityName() {
+		return getClass().getSimpleName();
+	}
 
-		@Override
-		public boolean equals(Object o) {
-			return o.hashCode() == this.hashCode();
-		}
+	/**
+	 * @return the ETag the REST server sent with this entity, or null
+	 */
+	String getEtag() {
+		return etag;
+	}
 
-		@Override
-		public int hashCode() {
-			return (genericType.hashCode() * 31) + rawType.hashCode();
-		}
+	void setEtag(final String etag) {
+		this.etag = etag;
 	}
 
-	private static class StructrEntityResult<T extends StructrObject> {
+	// ----- nested classes -----
+	static class StructrCollectionResult<T extends StructrObject> {
+
+		@Expose
+		List<T> result = null;
 
 		@Expose
-		T result = null;
+		Integer result_count = null;
 
-		public void setResult(T result) {
+		public void setResult(List<T> result) {
 			this.result = result;
 		}
 
-		public T getResult() {
+		public List<T> getResult() {
 			return result;
 		}
 
-	}
-
-	private class StructrCollectionResult<T extends StructrObject> {
+		/**
+		 * @return the total number of results on the server, or the size of the result list if the server did not send a count
+		 */
+		public int getResultCount() {
 
-		@Expose
-		List<T> result = null;
+			if (result_count != null) {
+				return result_count;
+			}
 
-		public void setResult(List<T> result) {
-			this.result = result;
+			return result != null ? result.size() : 0;
 		}
 
-		public List<T> getResult() {
-			return result;
+		/**
+		 * @return whether the server sent the total number of results
+		 */
+		public boolean hasResultCount() {
+			return result_count != null;
 		}
 	}
 }
@@ -0,0 +1,817 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Synchronizes entities with the REST server in the background, without an
+ * activity. Reads and writes are put into a prioritized queue, and a worker
+ * thread drains the queue in batches: the tasks of a batch are executed
+ * concurrently, and the next batch starts when the whole batch is finished.
+ * Tasks with the same key (e.g. two stores of the same entity) are merged
+ * while they are queued, so only the most recent one is executed, unless
+ * the queued task must not be replaced: a queued delete is never replaced
+ * by a store of the same entity.
+ *
+ * <p>The number of concurrent requests is limited by the configured maximum
+ * and by the link quality that the {@see RequestScheduler} of the client
+ * observes; on a poor link, only tasks with {@see #PRIORITY_HIGH} are
+ * executed. A {@see Budget} can restrict the queue further, e.g. depending
+ * on the battery level or the type of network, see {@see DeviceBudget}. Tasks
+ * that fail with a temporary error are retried with exponential backoff:
+ * each task waits for its own delay, which doubles with every attempt,
+ * while the other tasks go on. When no task of a batch succeeds, the whole
+ * worker backs off as well. Tasks that fail permanently, e.g. because the
+ * entity does not exist, are removed from the queue without delaying the
+ * next batch.</p>
+ *
+ * <p>The worker belongs to its {@see StructrClient}, not to an activity, so
+ * it keeps running when an activity is recreated. Activities register a
+ * {@see SyncListener} to be notified of the progress, and unregister it when
+ * they are destroyed. The worker only uses plain Java threads, so it can be
+ * used outside of Android as well.</p>
+ * <pre>
+ * SyncWorker worker = StructrClient.getDefault().getSyncWorker();
+ * worker.addSyncListener(listener);
+ * worker.enqueueStore(entity, SyncWorker.PRIORITY_HIGH);
+ * worker.enqueueLoad(Example.class, id, SyncWorker.PRIORITY_LOW);
+ * </pre>
+ *
+ * @author Christian Morgner
+ */
+public class SyncWorker {
+
+	public static final int PRIORITY_HIGH        = 0;
+	public static final int PRIORITY_NORMAL      = 1;
+	public static final int PRIORITY_LOW         = 2;
+	public static final int DEFAULT_BATCH_SIZE   = 20;
+	public static final int DEFAULT_CONCURRENCY  = 4;
+	public static final int DEFAULT_MAX_ATTEMPTS = 5;
+	public static final long DEFAULT_MIN_BACKOFF = 1000L;
+	public static final long DEFAULT_MAX_BACKOFF = 60000L;
+
+	private static final long RECHECK = 5000L;
+
+	private final List<SyncListener> listeners = new CopyOnWriteArrayList<SyncListener>();
+	private final PriorityQueue<Entry> queue   = new PriorityQueue<Entry>();
+	private final Map<String, Entry> keys      = new HashMap<String, Entry>();
+	private StructrClient client               = null;
+	private Budget budget                      = null;
+	private Thread coordinator                 = null;
+	private boolean paused                     = false;
+	private int batchSize                      = DEFAULT_BATCH_SIZE;
+	private int maxConcurrency                 = DEFAULT_CONCURRENCY;
+	private int maxAttempts                    = DEFAULT_MAX_ATTEMPTS;
+	private long minBackoff                    = DEFAULT_MIN_BACKOFF;
+	private long maxBackoff                    = DEFAULT_MAX_BACKOFF;
+	private int running                        = 0;
+	private int failedBatches                  = 0;
+	private long backoffUntil                  = 0L;
+	private long sequence                      = 0L;
+	private long completed                     = 0L;
+	private long failed                        = 0L;
+	private long retried                       = 0L;
+	private long merged                        = 0L;
+
+	/**
+	 * A unit of work of a {@see SyncWorker}.
+	 */
+	public static abstract class Task {
+
+		private String key = null;
+
+		/**
+		 * @param key the key of this task, queued tasks with the same key are replaced by newer ones, may be null
+		 */
+		protected Task(final String key) {
+			this.key = key;
+		}
+
+		/**
+		 * @return the key of this task, or null
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * Decides whether this task replaces a queued task with the same
+		 * key. Tasks replace queued tasks by default.
+		 *
+		 * @param queued the queued task
+		 * @return whether this task replaces the queued task, otherwise this task is dropped
+		 */
+		public boolean replaces(final Task queued) {
+			return true;
+		}
+
+		/**
+		 * Will be called on a worker thread to execute this task.
+		 *
+		 * @param client the client of the worker
+		 * @throws Throwable
+		 */
+		public abstract void execute(final StructrClient client) throws Throwable;
+	}
+
+	/**
+	 * Decides which tasks may be executed under the current conditions.
+	 */
+	public interface Budget {
+
+		/**
+		 * Will be called on the worker thread before each batch.
+		 *
+		 * @param priority the priority of a queued task
+		 * @return whether tasks with the given priority may be executed now
+		 */
+		public boolean allows(final int priority);
+	}
+
+	/**
+	 * A listener that is notified of the progress of a {@see SyncWorker}.
+	 * All methods are called on background threads, so implementations
+	 * that update the UI have to post to the main thread.
+	 */
+	public interface SyncListener {
+
+		/**
+		 * @param task the task that was executed successfully
+		 */
+		public void taskCompleted(final Task task);
+
+		/**
+		 * @param task the task that failed permanently and was removed from the queue
+		 * @param t the cause
+		 */
+		public void taskFailed(final Task task, final Throwable t);
+
+		/**
+		 * @param completed the number of tasks of the batch that were executed successfully
+		 * @param failed the number of tasks of the batch that failed, including tasks that will be retried
+		 * @param remaining the number of queued tasks
+		 */
+		public void batchCompleted(final int completed, final int failed, final int remaining);
+
+		/**
+		 * Will be called when the queue is empty.
+		 */
+		public void idle();
+	}
+
+	SyncWorker(final StructrClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * Sets the limits of this worker.
+	 *
+	 * @param batchSize the maximum number of tasks per batch
+	 * @param maxConcurrency the maximum number of concurrent requests
+	 * @param maxAttempts the maximum number of attempts for tasks that fail with a temporary error
+	 */
+	public synchronized void setLimits(final int batchSize, final int maxConcurrency, final int maxAttempts) {
+
+		this.batchSize      = Math.max(1, batchSize);
+		this.maxConcurrency = Math.max(1, maxConcurrency);
+		this.maxAttempts    = Math.max(1, maxAttempts);
+	}
+
+	/**
+	 * Sets the delays of retries. The delay starts at the minimum and is
+	 * doubled with every failed attempt, up to the maximum.
+	 *
+	 * @param minBackoff the delay after the first failure in milliseconds
+	 * @param maxBackoff the maximum delay in milliseconds
+	 */
+	public synchronized void setBackoff(final long minBackoff, final long maxBackoff) {
+
+		this.minBackoff = Math.max(1L, minBackoff);
+		this.maxBackoff = Math.max(this.minBackoff, maxBackoff);
+	}
+
+	/**
+	 * @param budget the budget that restricts the execution of tasks, may be null
+	 */
+	public synchronized void setBudget(final Budget budget) {
+
+		this.budget = budget;
+
+		notifyAll();
+	}
+
+	/**
+	 * Registers a listener that is notified of the progress of this worker.
+	 *
+	 * @param listener the listener to add
+	 */
+	public void addSyncListener(final SyncListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener that was registered with {@see #addSyncListener}.
+	 *
+	 * @param listener the listener to remove
+	 */
+	public void removeSyncListener(final SyncListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Schedules the given entity to be stored on the REST server.
+	 *
+	 * @param entity the entity to store, must be persistent
+	 * @param priority the priority
+	 */
+	public void enqueueStore(final StructrObject entity, final int priority) {
+
+		if (!entity.isPersistent()) {
+			throw new IllegalArgumentException("Only persistent entities can be stored");
+		}
+
+		enqueue(new StoreTask(entity), priority);
+	}
+
+	/**
+	 * Schedules the given entity to be created on the REST server.
+	 *
+	 * @param entity the entity to create
+	 * @param path the path of the collection, or null
+	 * @param priority the priority
+	 */
+	public void enqueueCreate(final StructrObject entity, final String path, final int priority) {
+
+		enqueue(new Task(null) {
+
+			@Override
+			public void execute(final StructrClient client) throws Throwable {
+				client.dbCreate(entity, path);
+			}
+
+		}, priority);
+	}
+
+	/**
+	 * Schedules the given entity to be deleted on the REST server. A queued
+	 * store of the same entity is replaced, and later stores of the entity
+	 * are dropped while the delete is queued.
+	 *
+	 * @param entity the entity to delete, must be persistent
+	 * @param priority the priority
+	 */
+	public void enqueueDelete(final StructrObject entity, final int priority) {
+
+		if (!entity.isPersistent()) {
+			throw new IllegalArgumentException("Only persistent entities can be deleted");
+		}
+
+		enqueue(new DeleteTask(entity), priority);
+	}
+
+	/**
+	 * Schedules the entity with the given type and ID to be loaded into the
+	 * {@see EntityCache} of the client.
+	 *
+	 * @param type the type of the entity
+	 * @param id the ID of the entity
+	 * @param priority the priority
+	 */
+	public void enqueueLoad(final Class<? extends StructrObject> type, final String id, final int priority) {
+
+		final StructrObject instance = newInstance(type);
+		if (instance != null) {
+
+			final String path = "/" + instance.getEntityName() + "/" + id;
+
+			enqueue(new Task("GET " + path) {
+
+				@Override
+				public void execute(final StructrClient client) throws Throwable {
+
+					final StructrObject entity = client.dbLoad(type, path);
+					if (entity != null) {
+						client.getCache().put(path, entity);
+					}
+				}
+
+			}, priority);
+		}
+	}
+
+	/**
+	 * Schedules the given task. If a task with the same key is queued, it
+	 * is replaced by the given task, or the given task is dropped if it
+	 * must not replace the queued task (see {@see Task#replaces}). In both
+	 * cases, the higher of both priorities is used.
+	 *
+	 * @param task the task
+	 * @param priority the priority, one of {@see #PRIORITY_HIGH}, {@see #PRIORITY_NORMAL} and {@see #PRIORITY_LOW}
+	 */
+	public synchronized void enqueue(final Task task, final int priority) {
+
+		final String key = task.getKey();
+		final Entry old  = key != null ? keys.get(key) : null;
+
+		if (old != null) {
+
+			// re-insert, so that the queue picks up the new priority
+			queue.remove(old);
+
+			if (task.replaces(old.task)) {
+
+				old.task     = task;
+				old.attempts = 0;
+			}
+
+			old.priority = Math.min(old.priority, priority);
+
+			queue.add(old);
+			merged++;
+
+		} else {
+
+			final Entry entry = new Entry(task, priority, sequence++);
+
+			queue.add(entry);
+
+			if (key != null) {
+				keys.put(key, entry);
+			}
+		}
+
+		if (coordinator == null) {
+
+			coordinator = new Thread(new Coordinator(), "structr sync");
+			coordinator.setDaemon(true);
+			coordinator.start();
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Pauses this worker after the current batch.
+	 */
+	public synchronized void pause() {
+		paused = true;
+	}
+
+	/**
+	 * Resumes a worker that was paused with {@see #pause}.
+	 */
+	public synchronized void resume() {
+
+		paused = false;
+
+		notifyAll();
+	}
+
+	/**
+	 * Removes all queued tasks. Tasks of the current batch are finished.
+	 */
+	public synchronized void cancelAll() {
+
+		queue.clear();
+		keys.clear();
+
+		notifyAll();
+	}
+
+	/**
+	 * Waits until the queue is empty and the current batch is finished.
+	 *
+	 * @param timeout the maximum time to wait in milliseconds
+	 * @return whether the worker is idle
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean awaitIdle(final long timeout) throws InterruptedException {
+
+		final long end = System.currentTimeMillis() + timeout;
+
+		while (!queue.isEmpty() || running > 0) {
+
+			final long wait = end - System.currentTimeMillis();
+			if (wait <= 0) {
+				return false;
+			}
+
+			wait(wait);
+		}
+
+		return true;
+	}
+
+	/**
+	 * @return the number of queued tasks
+	 */
+	public synchronized int getPendingCount() {
+		return queue.size();
+	}
+
+	/**
+	 * @return the number of tasks that were executed successfully
+	 */
+	public synchronized long getCompletedCount() {
+		return completed;
+	}
+
+	/**
+	 * @return the number of tasks that failed permanently
+	 */
+	public synchronized long getFailedCount() {
+		return failed;
+	}
+
+	/**
+	 * @return the number of attempts that failed with a temporary error and were retried
+	 */
+	public synchronized long getRetriedCount() {
+		return retried;
+	}
+
+	/**
+	 * @return the number of tasks that were merged with a queued task with the same key
+	 */
+	public synchronized long getMergedCount() {
+		return merged;
+	}
+
+	// ----- private methods -----
+	private synchronized List<Entry> nextBatch() throws InterruptedException {
+
+		while (true) {
+
+			if (queue.isEmpty()) {
+
+				// stop the idle coordinator, it is restarted by the next task
+				coordinator = null;
+				return null;
+			}
+
+			final long now = System.currentTimeMillis();
+			long wait      = RECHECK;
+
+			if (now < backoffUntil) {
+
+				// the server or the network is unavailable
+				wait = backoffUntil - now;
+
+			} else if (!paused) {
+
+				final List<Entry> delayed = new ArrayList<Entry>();
+				final List<Entry> batch   = new ArrayList<Entry>(batchSize);
+				final boolean defer       = client.getScheduler().shouldDefer();
+
+				// the queue is ordered by priority, so stop at the first task that is not allowed
+				while (batch.size() < batchSize && !queue.isEmpty() && isAllowed(queue.peek().priority, defer)) {
+
+					final Entry entry = queue.poll();
+
+					// a retried task waits for its own delay, the other tasks go on
+					if (entry.notBefore > now) {
+
+						delayed.add(entry);
+						wait = Math.min(wait, entry.notBefore - now);
+						continue;
+					}
+
+					final String key = entry.task.getKey();
+					if (key != null) {
+						keys.remove(key);
+					}
+
+					batch.add(entry);
+				}
+
+				queue.addAll(delayed);
+
+				if (!batch.isEmpty()) {
+
+					running = batch.size();
+					return batch;
+				}
+			}
+
+			wait(wait);
+		}
+	}
+
+	private boolean isAllowed(final int priority, final boolean defer) {
+
+		if (defer && priority > PRIORITY_HIGH) {
+			return false;
+		}
+
+		return budget == null || budget.allows(priority);
+	}
+
+	/**
+	 * @return whether the task failed permanently
+	 */
+	private synchronized boolean finished(final Entry entry, final Throwable t) {
+
+		boolean permanent = false;
+
+		running--;
+
+		if (t == null) {
+
+			completed++;
+
+		} else if (isTemporary(t) && entry.attempts + 1 < maxAttempts) {
+
+			final String key   = entry.task.getKey();
+			final Entry queued = key != null ? keys.get(key) : null;
+
+			entry.attempts++;
+			entry.notBefore = System.currentTimeMillis() + getBackoff(entry.attempts);
+			retried++;
+
+			// a newer task with the same key supersedes the failed one, unless it must not replace it
+			if (queued == null || !queued.task.replaces(entry.task)) {
+
+				if (queued != null) {
+
+					queue.remove(queued);
+					entry.priority = Math.min(entry.priority, queued.priority);
+				}
+
+				queue.add(entry);
+
+				if (key != null) {
+					keys.put(key, entry);
+				}
+			}
+
+		} else {
+
+			permanent = true;
+			failed++;
+		}
+
+		notifyAll();
+
+		return permanent;
+	}
+
+	/**
+	 * Backs off when no task of the batch succeeded and at least one failed
+	 * with a temporary error. Permanent failures show that the server is
+	 * reachable.
+	 */
+	private synchronized void batchFinished(final int successes, final int temporaryFailures) {
+
+		if (temporaryFailures > 0 && successes == 0) {
+
+			failedBatches++;
+			backoffUntil = System.currentTimeMillis() + getBackoff(failedBatches);
+
+		} else {
+
+			failedBatches = 0;
+			backoffUntil  = 0L;
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * @return the delay after the given number of consecutive failures
+	 */
+	private long getBackoff(final int failures) {
+		return Math.min(maxBackoff, minBackoff << Math.min(failures - 1, 16));
+	}
+
+	private synchronized int getConcurrency() {
+		return Math.min(maxConcurrency, client.getScheduler().getMaxConcurrency());
+	}
+
+	private void execute(final List<Entry> batch) throws InterruptedException {
+
+		final int count            = Math.min(batch.size(), getConcurrency());
+		final Thread[] threads     = new Thread[count];
+		final Throwable[] results  = new Throwable[batch.size()];
+		final boolean[] permanents = new boolean[batch.size()];
+		final int[] next           = new int[] { 0 };
+
+		for (int i=0; i<count; i++) {
+
+			threads[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+
+					client.setBackground(true);
+
+					while (true) {
+
+						int index = 0;
+
+						synchronized (next) {
+
+							if (next[0] >= batch.size()) {
+								return;
+							}
+
+							index = next[0]++;
+						}
+
+						final Entry entry = batch.get(index);
+
+						try {
+							entry.task.execute(client);
+
+						} catch (Throwable t) {
+
+							results[index] = t;
+						}
+
+						final boolean permanent = finished(entry, results[index]);
+
+						permanents[index] = permanent;
+
+						for (final SyncListener listener : listeners) {
+
+							if (results[index] == null) {
+
+								listener.taskCompleted(entry.task);
+
+							} else if (permanent) {
+
+								listener.taskFailed(entry.task, results[index]);
+							}
+						}
+					}
+				}
+
+			}, "structr sync worker");
+
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		int temporaryFailures = 0;
+		int successes         = 0;
+		int failures          = 0;
+
+		for (int i = 0; i < results.length; i++) {
+
+			if (results[i] == null) {
+
+				successes++;
+
+			} else {
+
+				failures++;
+
+				if (!permanents[i]) {
+					temporaryFailures++;
+				}
+			}
+		}
+
+		batchFinished(successes, temporaryFailures);
+
+		final int remaining = getPendingCount();
+
+		for (final SyncListener listener : listeners) {
+
+			listener.batchCompleted(successes, failures, remaining);
+
+			if (remaining == 0) {
+				listener.idle();
+			}
+		}
+	}
+
+	private static boolean isTemporary(final Throwable t) {
+
+		if (t instanceof StructrException) {
+			return ((StructrException)t).isRetryable();
+		}
+
+		return t instanceof IOException;
+	}
+
+	private static StructrObject newInstance(final Class<? extends StructrObject> type) {
+		try { return type.newInstance(); } catch(Throwable t) {}
+		return null;
+	}
+
+	// ----- nested classes -----
+	private class Coordinator implements Runnable {
+
+		@Override
+		public void run() {
+
+			try {
+				List<Entry> batch = null;
+
+				while ((batch = nextBatch()) != null) {
+					execute(batch);
+				}
+
+			} catch (InterruptedException iex) {
+
+				synchronized (SyncWorker.this) {
+					coordinator = null;
+				}
+			}
+		}
+	}
+
+	private static class StoreTask extends Task {
+
+		private StructrObject entity = null;
+
+		public StoreTask(final StructrObject entity) {
+
+			super(EntityCache.getPath(entity));
+
+			this.entity = entity;
+		}
+
+		@Override
+		public void execute(final StructrClient client) throws Throwable {
+			client.dbStore(entity);
+		}
+
+		@Override
+		public boolean replaces(final Task queued) {
+
+			// the entity will be deleted anyway
+			return !(queued instanceof DeleteTask);
+		}
+	}
+
+	private static class DeleteTask extends Task {
+
+		private StructrObject entity = null;
+
+		public DeleteTask(final StructrObject entity) {
+
+			super(EntityCache.getPath(entity));
+
+			this.entity = entity;
+		}
+
+		@Override
+		public void execute(final StructrClient client) throws Throwable {
+			client.dbDelete(entity);
+		}
+	}
+
+	private static class Entry implements Comparable<Entry> {
+
+		private Task task      = null;
+		private int priority   = 0;
+		private long sequence  = 0L;
+		private long notBefore = 0L;
+		private int attempts   = 0;
+
+		public Entry(final Task task, final int priority, final long sequence) {
+
+			this.task      = task;
+			this.priority  = priority;
+			this.sequence  = sequence;
+		}
+
+		@Override
+		public int compareTo(final Entry other) {
+
+			if (priority != other.priority) {
+				return priority < other.priority ? -1 : 1;
+			}
+
+			return sequence < other.sequence ? -1 : (sequence > other.sequence ? 1 : 0);
+		}
+	}
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import android.content.Context;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import org.apache.http.conn.scheme.LayeredSocketFactory;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.conn.ssl.X509HostnameVerifier;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+
+/**
+ * The TLS configuration of a {@see StructrClient}. A TLS configuration trusts
+ * only the certificates of a pinned keystore, e.g. a BKS keystore that was
+ * created with the bcprov provider and packaged as a raw resource. The
+ * keystore is loaded once, and all connections share one SSL context, so
+ * that TLS sessions are cached and resumed across connections instead of
+ * doing a full handshake for every new connection.
+ * <pre>
+ * TlsConfig tls = TlsConfig.load(context, R.raw.keystore, "password");
+ * StructrClient.getDefault().setTlsConfig(tls);
+ * </pre>
+ *
+ * @author Christian Morgner
+ */
+public class TlsConfig implements LayeredSocketFactory {
+
+	public static final String KEYSTORE_TYPE        = "BKS";
+	public static final int DEFAULT_CACHE_SIZE      = 32;
+	public static final int DEFAULT_SESSION_TIMEOUT = 3600;
+
+	private final AtomicLong handshakeTime        = new AtomicLong();
+	private final AtomicLong handshakes           = new AtomicLong();
+	private final AtomicLong resumed              = new AtomicLong();
+	private X509HostnameVerifier hostnameVerifier = SSLSocketFactory.BROWSER_COMPATIBLE_HOSTNAME_VERIFIER;
+	private SSLContext sslContext                 = null;
+
+	/**
+	 * Creates a new TLS configuration that trusts the certificates of the
+	 * given keystore.
+	 *
+	 * @param keystore the keystore
+	 * @param password the password of the keystore, may be null
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	public TlsConfig(final InputStream keystore, final String password) throws IOException, GeneralSecurityException {
+
+		final KeyStore trusted = KeyStore.getInstance(KEYSTORE_TYPE);
+		try {
+			trusted.load(keystore, password != null ? password.toCharArray() : null);
+
+		} finally {
+
+			keystore.close();
+		}
+
+		final TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagerFactory.init(trusted);
+
+		sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(null, trustManagerFactory.getTrustManagers(), null);
+
+		setSessionCache(DEFAULT_CACHE_SIZE, DEFAULT_SESSION_TIMEOUT);
+	}
+
+	/**
+	 * Loads a TLS configuration from a keystore in the raw resources of the
+	 * given context.
+	 *
+	 * @param context the context
+	 * @param resourceId the resource ID of the keystore
+	 * @param password the password of the keystore, may be null
+	 * @return the TLS configuration
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	public static TlsConfig load(final Context context, final int resourceId, final String password) throws IOException, GeneralSecurityException {
+		return new TlsConfig(context.getResources().openRawResource(resourceId), password);
+	}
+
+	/**
+	 * Configures the TLS session cache.
+	 *
+	 * @param size the maximum number of cached sessions, 0 for no limit
+	 * @param timeout the time in seconds after which a cached session cannot be resumed any more
+	 */
+	public void setSessionCache(final int size, final int timeout) {
+
+		final SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+		if (sessionContext != null) {
+
+			sessionContext.setSessionCacheSize(size);
+			sessionContext.setSessionTimeout(timeout);
+		}
+	}
+
+	/**
+	 * Sets the hostname verifier, the default verifier behaves like a browser.
+	 *
+	 * @param verifier the hostname verifier
+	 */
+	public void setHostnameVerifier(final X509HostnameVerifier verifier) {
+		this.hostnameVerifier = verifier;
+	}
+
+	/**
+	 * @return the number of TLS handshakes, including resumed sessions
+	 */
+	public long getHandshakeCount() {
+		return handshakes.get();
+	}
+
+	/**
+	 * @return the number of TLS handshakes that resumed a cached session
+	 */
+	public long getResumedCount() {
+		return resumed.get();
+	}
+
+	/**
+	 * @return the total duration of all TLS handshakes in milliseconds
+	 */
+	public long getHandshakeTime() {
+		return handshakeTime.get();
+	}
+
+	/**
+	 * @return the average duration of a TLS handshake in milliseconds, or 0 if there was no handshake yet
+	 */
+	public long getAverageHandshakeTime() {
+
+		final long count = handshakes.get();
+		if (count > 0) {
+			return handshakeTime.get() / count;
+		}
+
+		return 0;
+	}
+
+	// ----- interface LayeredSocketFactory -----
+	@Override
+	public Socket createSocket() throws IOException {
+		return new Socket();
+	}
+
+	@Override
+	public Socket connectSocket(final Socket sock, final String host, final int port, final InetAddress localAddress, int localPort, final HttpParams params) throws IOException, UnknownHostException {
+
+		final Socket socket = sock != null ? sock : createSocket();
+
+		if (localAddress != null || localPort > 0) {
+			socket.bind(new InetSocketAddress(localAddress, Math.max(0, localPort)));
+		}
+
+		socket.connect(new InetSocketAddress(host, port), HttpConnectionParams.getConnectionTimeout(params));
+		socket.setSoTimeout(HttpConnectionParams.getSoTimeout(params));
+
+		// layer TLS over the connected socket, so that the session cache knows the peer
+		if (socket instanceof SSLSocket) {
+
+			handshake((SSLSocket)socket, host);
+			return socket;
+		}
+
+		return createSocket(socket, host, port, true);
+	}
+
+	@Override
+	public Socket createSocket(final Socket socket, final String host, final int port, final boolean autoClose) throws IOException, UnknownHostException {
+
+		final SSLSocket sslSocket = (SSLSocket)sslContext.getSocketFactory().createSocket(socket, host, port, autoClose);
+
+		handshake(sslSocket, host);
+
+		return sslSocket;
+	}
+
+	@Override
+	public boolean isSecure(final Socket socket) throws IllegalArgumentException {
+		return socket instanceof SSLSocket;
+	}
+
+	// ----- private methods -----
+	private void handshake(final SSLSocket socket, final String host) throws IOException {
+
+		final long start = System.currentTimeMillis();
+
+		try {
+			socket.startHandshake();
+			hostnameVerifier.verify(host, socket);
+
+		} catch (IOException ioex) {
+
+			socket.close();
+			throw ioex;
+		}
+
+		final long end = System.currentTimeMillis();
+		handshakes.incrementAndGet();
+		handshakeTime.addAndGet(end - start);
+
+		// a resumed session was created before this handshake started
+		final SSLSession session = socket.getSession();
+		if (session != null && session.getCreationTime() < start) {
+			resumed.incrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.io.IOException;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+/**
+ * The transport that sends the requests of a {@see StructrClient} to the
+ * REST server. Clients use their AndroidHttpClient unless a different
+ * transport is set with {@see StructrClient#setTransport}, e.g. an
+ * {@see HttpClientTransport} with a larger connection pool, or an
+ * implementation that multiplexes requests over a single connection on
+ * platforms that support it.
+ *
+ * @author Christian Morgner
+ */
+public interface Transport {
+
+	/**
+	 * Sends the given request. The caller consumes the content of the
+	 * response.
+	 *
+	 * @param request the request to send
+	 * @return the response
+	 * @throws IOException
+	 */
+	public HttpResponse execute(final HttpUriRequest request) throws IOException;
+
+	/**
+	 * Closes all connections of this transport.
+	 */
+	public void shutdown();
+}
@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the field of an entity that changes with every modification on the
+ * REST server, e.g. a modification date or a version counter. When optimistic
+ * locking is enabled (see {@see StructrClient#setOptimisticLocking}) and the
+ * server did not send an ETag for the entity, dbStore() sends the value of
+ * this field as a precondition: Date values as If-Unmodified-Since, all
+ * other values as If-Match. The server should answer stores with the new
+ * ETag or Last-Modified header, otherwise the next store of the same entity
+ * instance is treated as a conflict.
+ *
+ * <pre>
+ * public class Example extends StructrObject {
+ *	&#64;Expose &#64;Version private Date lastModifiedDate;
+ * }
+ * </pre>
+ *
+ * @author Christian Morgner
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface Version {
+}
@@ -0,0 +1,364 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A sparse, read-only list over a sorted collection on a structr REST server.
+ * The list knows the total number of entities on the server, but only keeps
+ * the pages around the most recently accessed position in memory. Accessing
+ * an element that is not loaded yet returns null and schedules the load of
+ * the corresponding page; registered {@see PageListener}s are notified when
+ * the page arrives. Pages that are far away from the accessed positions are
+ * evicted when the number of resident pages exceeds the configured maximum,
+ * or when {@see #trimMemory} is called. A page that failed to load is not
+ * requested again until the retry delay has passed or {@see #retry} is
+ * called, so that an offline list does not send a request on every access.
+ *
+ * <p>A windowed list can be displayed with a {@see CollectionHandlerListAdapter},
+ * which has to handle null items by displaying a placeholder view. All methods
+ * of this class must be called on the main thread.</p>
+ * <pre>
+ * WindowedList&lt;Example&gt; list = new WindowedList&lt;Example&gt;(Example.class, "name", true, 50, 10);
+ * list.load(adapter);
+ * </pre>
+ *
+ * @author Christian Morgner
+ */
+public class WindowedList<T extends StructrObject> extends AbstractList<T> {
+
+	public static final long DEFAULT_RETRY_DELAY = 10000L;
+
+	private final List<PageListener> listeners   = new CopyOnWriteArrayList<PageListener>();
+	private final Map<Integer, Long> failedPages = new HashMap<Integer, Long>();
+	private final Set<Integer> pendingPages      = new HashSet<Integer>();
+	private Map<Integer, List<T>> pages          = null;
+	private StructrClient client                 = null;
+	private Object[] params                      = null;
+	private Class<T> type                        = null;
+	private String sortKey                       = null;
+	private boolean asc                          = true;
+	private int pageSize                         = 0;
+	private int maxPages                         = 0;
+	private int lastPage                         = 0;
+	private long retryDelay                      = DEFAULT_RETRY_DELAY;
+	private int size                             = 0;
+
+	/**
+	 * Creates a new windowed list that loads its pages with the default client.
+	 *
+	 * @param type the type of the entities
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 * @param pageSize the number of entities per page, adapted to the network conditions by the {@see RequestScheduler}
+	 * @param maxPages the maximum number of pages to keep in memory, must be at least 3
+	 * @param params additional parameters, may be empty
+	 */
+	public WindowedList(final Class<T> type, final String sortKey, final boolean asc, final int pageSize, final int maxPages, final Object... params) {
+		this(StructrClient.getDefault(), type, sortKey, asc, pageSize, maxPages, params);
+	}
+
+	/**
+	 * Creates a new windowed list that loads its pages with the given client.
+	 *
+	 * @param client the client to load the pages with
+	 * @param type the type of the entities
+	 * @param sortKey the sort key
+	 * @param asc whether to sort ascending or descending
+	 * @param pageSize the number of entities per page, adapted to the network conditions by the {@see RequestScheduler}
+	 * @param maxPages the maximum number of pages to keep in memory, must be at least 3
+	 * @param params additional parameters, may be empty
+	 */
+	public WindowedList(final StructrClient client, final Class<T> type, final String sortKey, final boolean asc, final int pageSize, final int maxPages, final Object... params) {
+
+		this.client   = client;
+		this.type     = type;
+		this.sortKey  = sortKey;
+		this.asc      = asc;
+		this.pageSize = client.getScheduler().getPageSize(pageSize);
+		this.maxPages = Math.max(3, maxPages);
+		this.params   = params;
+
+		// access-ordered, so the least recently accessed page is evicted first
+		this.pages = new LinkedHashMap<Integer, List<T>>(this.maxPages + 1, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(final Map.Entry<Integer, List<T>> eldest) {
+				return size() > WindowedList.this.maxPages;
+			}
+		};
+	}
+
+	/**
+	 * Loads the first page of this list to determine the total number of
+	 * entities, and passes this list to the given handler afterwards.
+	 *
+	 * @param handler the handler that receives this list
+	 */
+	public void load(final CollectionHandler<T> handler) {
+
+		pendingPages.add(0);
+		new PageLoader(0, handler).execute();
+	}
+
+	/**
+	 * Registers a listener that is notified when a page was loaded.
+	 *
+	 * @param listener the listener to add
+	 */
+	public void addPageListener(final PageListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Unregisters a listener that was registered with {@see #addPageListener}.
+	 *
+	 * @param listener the listener to remove
+	 */
+	public void removePageListener(final PageListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * @param index the position of the element
+	 * @return the element at the given position, or null if the element is not loaded yet
+	 */
+	@Override
+	public T get(final int index) {
+
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		}
+
+		final int page = index / pageSize;
+
+		lastPage = page;
+
+		// keep one page of margin in both directions
+		request(page - 1);
+		request(page + 1);
+
+		final List<T> entities = pages.get(page);
+		if (entities != null) {
+
+			final int offset = index % pageSize;
+			if (offset < entities.size()) {
+				return entities.get(offset);
+			}
+
+			return null;
+		}
+
+		request(page);
+
+		return null;
+	}
+
+	/**
+	 * Returns the element at the given position if it is loaded, without
+	 * scheduling the load of any page.
+	 *
+	 * @param index the position of the element
+	 * @return the element at the given position, or null if the element is not loaded
+	 */
+	public T peek(final int index) {
+
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+		}
+
+		final List<T> entities = pages.get(index / pageSize);
+		if (entities != null) {
+
+			final int offset = index % pageSize;
+			if (offset < entities.size()) {
+				return entities.get(offset);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return the total number of entities on the server
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param index the position of the element
+	 * @return whether the element at the given position is loaded
+	 */
+	public boolean isLoaded(final int index) {
+		return pages.containsKey(index / pageSize);
+	}
+
+	/**
+	 * Sets the time after which a page that failed to load is requested
+	 * again when it is accessed.
+	 *
+	 * @param retryDelay the retry delay in milliseconds
+	 */
+	public void setRetryDelay(final long retryDelay) {
+		this.retryDelay = retryDelay;
+	}
+
+	/**
+	 * Requests the pages around the most recently accessed position again
+	 * that failed to load, without waiting for the retry delay. Call this
+	 * method when the network is available again, or when the user asks
+	 * for a retry.
+	 */
+	public void retry() {
+
+		failedPages.clear();
+
+		request(lastPage - 1);
+		request(lastPage);
+		request(lastPage + 1);
+	}
+
+	/**
+	 * Evicts all pages except the most recently accessed page and its direct
+	 * neighbours. Call this method from the onLowMemory() or onTrimMemory()
+	 * callbacks of your activity.
+	 */
+	public void trimMemory() {
+
+		final Iterator<Integer> it = pages.keySet().iterator();
+		while (it.hasNext()) {
+
+			if (Math.abs(it.next() - lastPage) > 1) {
+				it.remove();
+			}
+		}
+	}
+
+	// ----- private methods -----
+	private void request(final int page) {
+
+		if (page >= 0 && page * pageSize < size && !pages.containsKey(page) && !pendingPages.contains(page)) {
+
+			final Long retryTime = failedPages.get(page);
+			if (retryTime != null) {
+
+				if (System.currentTimeMillis() < retryTime) {
+					return;
+				}
+
+				failedPages.remove(page);
+			}
+
+			pendingPages.add(page);
+			new PageLoader(page, null).execute();
+		}
+	}
+
+	// ----- nested classes -----
+	/**
+	 * A listener that is notified when a page of a {@see WindowedList} was loaded.
+	 */
+	public interface PageListener {
+
+		/**
+		 * Will be called on the main thread when a page was loaded.
+		 *
+		 * @param firstIndex the position of the first element of the page
+		 * @param count the number of elements in the page
+		 */
+		public void pageLoaded(final int firstIndex, final int count);
+	}
+
+	private class PageLoader extends StructrConnector<StructrObject.StructrCollectionResult<T>> {
+
+		private CollectionHandler<T> handler = null;
+		private int page                     = 0;
+
+		public PageLoader(final int page, final CollectionHandler<T> handler) {
+
+			this.handler = handler;
+			this.page    = page;
+		}
+
+		@Override
+		protected StructrObject.StructrCollectionResult<T> doInBackground(final Object... parameters) {
+
+			try {
+				return client.dbListPage(type, sortKey, asc, page + 1, pageSize, params);
+
+			} catch (Throwable t) {
+				publishProgress(new Progress(t));
+			}
+
+			return null;
+		}
+
+		@Override
+		protected void onProgressUpdate(final Progress... progress) {
+
+			if (handler != null) {
+				handler.handleProgress(progress);
+			}
+		}
+
+		@Override
+		protected void onPostExecute(final StructrObject.StructrCollectionResult<T> result) {
+
+			pendingPages.remove(page);
+
+			if (result != null) {
+
+				size = result.getResultCount();
+
+				failedPages.remove(page);
+
+				// do not keep pages that were scrolled out of the window while loading
+				if (handler != null || Math.abs(page - lastPage) <= maxPages / 2) {
+
+					pages.put(page, result.getResult());
+
+					for (final PageListener listener : listeners) {
+						listener.pageLoaded(page * pageSize, result.getResult().size());
+					}
+				}
+
+			} else {
+
+				failedPages.put(page, System.currentTimeMillis() + retryDelay);
+			}
+
+			if (handler != null) {
+				handler.handleResults(result != null ? WindowedList.this : null);
+			}
+		}
+	}
+}
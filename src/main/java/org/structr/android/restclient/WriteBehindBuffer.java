@@ -0,0 +1,363 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Coalesces successive stores of the same entity. Instead of sending a PUT
+ * request for every change of an entity, e.g. on every edit of a form field,
+ * {@see #store} only remembers the entity, and the entity is written to the
+ * REST server when it was not stored again for a configurable time, or when
+ * its first pending store is older than a maximum delay. Since every store
+ * writes all exposed attributes, the pending changes of an entity are merged
+ * by writing its most recent state once.
+ *
+ * <p>Call {@see #flush} when the changes must be written immediately, e.g.
+ * in the onPause() method of your activity, because pending stores are lost
+ * when the process is terminated. Writes are deferred up to the maximum delay
+ * while the {@see RequestScheduler} of the client reports a poor link.</p>
+ * <pre>
+ * entity.setName(name);
+ * entity.dbStoreDeferred();
+ * </pre>
+ *
+ * @author Christian Morgner
+ */
+public class WriteBehindBuffer {
+
+	public static final long DEFAULT_WINDOW    = 500L;
+	public static final long DEFAULT_MAX_DELAY = 5000L;
+
+	private final Map<String, Throwable> failed = new LinkedHashMap<String, Throwable>();
+	private final Map<String, Pending> pending  = new LinkedHashMap<String, Pending>();
+	private final Object writeLock              = new Object();
+	private FailureHandler failureHandler       = null;
+	private StructrClient client                = null;
+	private Thread writer                       = null;
+	private long maxDelay                       = DEFAULT_MAX_DELAY;
+	private long window                         = DEFAULT_WINDOW;
+	private long stores                         = 0L;
+	private long writes                         = 0L;
+
+	/**
+	 * A handler that is notified when a deferred store fails.
+	 */
+	public interface FailureHandler {
+
+		/**
+		 * Will be called on the writer thread when a deferred store failed.
+		 *
+		 * @param entity the entity that could not be stored
+		 * @param t the cause
+		 */
+		public void storeFailed(final StructrObject entity, final Throwable t);
+	}
+
+	WriteBehindBuffer(final StructrClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * Sets the timing of this buffer.
+	 *
+	 * @param window the time in milliseconds an entity must not be stored again before it is written
+	 * @param maxDelay the maximum time in milliseconds a store is deferred
+	 */
+	public synchronized void setTiming(final long window, final long maxDelay) {
+
+		this.window   = Math.max(0L, window);
+		this.maxDelay = Math.max(this.window, maxDelay);
+
+		notifyAll();
+	}
+
+	/**
+	 * @param handler the handler that is notified of failed deferred stores, may be null
+	 */
+	public synchronized void setFailureHandler(final FailureHandler handler) {
+		this.failureHandler = handler;
+	}
+
+	/**
+	 * Schedules the given entity to be stored on the REST server.
+	 *
+	 * @param entity the entity to store, must be persistent
+	 */
+	public synchronized void store(final StructrObject entity) {
+
+		if (!entity.isPersistent()) {
+			throw new IllegalArgumentException("Only persistent entities can be stored");
+		}
+
+		final String path = EntityCache.getPath(entity);
+		final long now    = System.currentTimeMillis();
+		final Pending old = pending.get(path);
+
+		// the most recent state of the entity contains all pending changes
+		if (old != null) {
+
+			old.entity     = entity;
+			old.lastChange = now;
+
+		} else {
+
+			pending.put(path, new Pending(entity, now));
+		}
+
+		stores++;
+
+		if (writer == null) {
+
+			writer = new Thread(new Writer(), "structr write-behind");
+			writer.setDaemon(true);
+			writer.start();
+		}
+
+		notifyAll();
+	}
+
+	/**
+	 * Writes all pending stores immediately and waits until they are
+	 * written, including a store that the writer thread is currently
+	 * sending. Stores that failed in the background since the last flush
+	 * are reported as well, even if they were passed to the
+	 * {@see FailureHandler} already.
+	 *
+	 * @throws Throwable the first error that occurred
+	 */
+	public void flush() throws Throwable {
+
+		Throwable first = null;
+
+		synchronized (writeLock) {
+
+			for (final String path : getPendingPaths()) {
+
+				try {
+					write(path);
+
+				} catch (Throwable t) {
+
+					if (first == null) {
+						first = t;
+					}
+				}
+			}
+
+			if (first == null && !failed.isEmpty()) {
+				first = failed.values().iterator().next();
+			}
+
+			failed.clear();
+		}
+
+		if (first != null) {
+			throw first;
+		}
+	}
+
+	/**
+	 * Writes the pending store of the given entity immediately, if there is
+	 * one, and waits until it is written. A store of the entity that failed
+	 * in the background since the last flush is reported as well.
+	 *
+	 * @param entity the entity
+	 * @throws Throwable
+	 */
+	public void flush(final StructrObject entity) throws Throwable {
+
+		final String path = EntityCache.getPath(entity);
+
+		synchronized (writeLock) {
+
+			write(path);
+
+			final Throwable failure = failed.remove(path);
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * @return the number of entities with pending stores
+	 */
+	public synchronized int getPendingCount() {
+		return pending.size();
+	}
+
+	/**
+	 * @return the number of calls to {@see #store}
+	 */
+	public synchronized long getStoreCount() {
+		return stores;
+	}
+
+	/**
+	 * @return the number of PUT requests that were sent
+	 */
+	public synchronized long getWriteCount() {
+		return writes;
+	}
+
+	/**
+	 * @return the number of PUT requests that were saved by coalescing
+	 */
+	public synchronized long getElidedCount() {
+		return stores - writes - pending.size();
+	}
+
+	// ----- private methods -----
+	private synchronized List<String> getPendingPaths() {
+		return new ArrayList<String>(pending.keySet());
+	}
+
+	private synchronized Pending take(final String path) {
+
+		final Pending entry = pending.remove(path);
+		if (entry != null) {
+			writes++;
+		}
+
+		return entry;
+	}
+
+	private void write(final String path) throws Throwable {
+
+		// serialize all writes, so that no older state can overwrite a newer one
+		synchronized (writeLock) {
+
+			final Pending entry = take(path);
+			if (entry != null) {
+
+				// a newer write replaces an earlier failure, its own failure is thrown instead
+				failed.remove(path);
+				client.dbStore(entry.entity);
+			}
+		}
+	}
+
+	private synchronized String next() throws InterruptedException {
+
+		while (true) {
+
+			final boolean defer = client.getScheduler().shouldDefer();
+			final long now      = System.currentTimeMillis();
+			long wait           = Long.MAX_VALUE;
+
+			for (final Map.Entry<String, Pending> entry : pending.entrySet()) {
+
+				final Pending value = entry.getValue();
+				final long due      = value.getDue(window, maxDelay, defer);
+
+				if (due <= now) {
+					return entry.getKey();
+				}
+
+				wait = Math.min(wait, due - now);
+			}
+
+			if (pending.isEmpty()) {
+
+				// stop the idle writer, it is restarted by the next store
+				writer = null;
+				return null;
+			}
+
+			wait(wait);
+		}
+	}
+
+	private synchronized FailureHandler getFailureHandler() {
+		return failureHandler;
+	}
+
+	// ----- nested classes -----
+	private class Writer implements Runnable {
+
+		@Override
+		public void run() {
+
+			client.setBackground(true);
+
+			try {
+				String path = null;
+
+				while ((path = next()) != null) {
+
+					synchronized (writeLock) {
+
+						final Pending entry = take(path);
+						if (entry != null) {
+
+							try {
+								client.dbStore(entry.entity);
+								failed.remove(path);
+
+							} catch (Throwable t) {
+
+								// remember the failure for the next flush
+								failed.put(path, t);
+
+								final FailureHandler handler = getFailureHandler();
+								if (handler != null) {
+									handler.storeFailed(entry.entity, t);
+								}
+							}
+						}
+					}
+				}
+
+			} catch (InterruptedException iex) {
+
+				synchronized (WriteBehindBuffer.this) {
+					writer = null;
+				}
+			}
+		}
+	}
+
+	private static class Pending {
+
+		private StructrObject entity = null;
+		private long firstChange     = 0L;
+		private long lastChange      = 0L;
+
+		public Pending(final StructrObject entity, final long time) {
+
+			this.firstChange = time;
+			this.lastChange  = time;
+			this.entity      = entity;
+		}
+
+		public long getDue(final long window, final long maxDelay, final boolean defer) {
+
+			final long latest = firstChange + maxDelay;
+			if (defer) {
+				return latest;
+			}
+
+			return Math.min(lastChange + window, latest);
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import junit.framework.TestCase;
+
+/**
+ * Compares the aggregate queries of {@see StructrClient} with loading all
+ * entities of a type with 10000 entities.
+ *
+ * @author Christian Morgner
+ */
+public class AggregateQueryTest extends TestCase {
+
+	private static final int SIZE = 10000;
+
+	private HttpClientTransport transport = null;
+	private StructrClient client          = null;
+	private StubServer server             = null;
+	private String firstPage              = null;
+	private String all                    = null;
+	private volatile boolean withCount    = true;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		final String[] objects = new String[SIZE];
+
+		for (int i = 0; i < SIZE; i++) {
+			objects[i] = StubServer.example(Integer.toString(i), "name" + (i % 10), i);
+		}
+
+		all       = StubServer.collection(SIZE, objects);
+		firstPage = StubServer.collection(SIZE, objects[0]);
+
+		server = new StubServer(new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+
+				final String query = exchange.getRequestURI().getRawQuery();
+				final boolean page = query != null && query.contains("pageSize=1&");
+				String body        = page ? firstPage : all;
+
+				if (!withCount) {
+					body = body.replace(",\"result_count\":" + SIZE, "");
+				}
+
+				server.send(exchange, 200, body);
+			}
+		});
+
+		transport = HttpClientTransport.create(4, 4, null);
+		client    = new StructrClient(server.getUrl(), "admin", "admin");
+
+		client.setTransport(transport);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		transport.shutdown();
+		server.stop();
+	}
+
+	public void testCountReadsResultCount() throws Throwable {
+
+		assertEquals(SIZE, client.dbCount(Example.class));
+		assertEquals(1, server.getRequestCount());
+		assertEquals(firstPage.length(), server.getBytesSent());
+	}
+
+	public void testCountWithoutResultCount() throws Throwable {
+
+		withCount = false;
+
+		assertEquals(SIZE, client.dbCount(Example.class));
+		assertEquals(2, server.getRequestCount());
+	}
+
+	public void testExists() throws Throwable {
+		assertTrue(client.dbExists(Example.class, "name", "name1"));
+	}
+
+	public void testDistinct() throws Throwable {
+
+		final Set<String> names = client.dbDistinct(Example.class, "name");
+
+		assertEquals(10, names.size());
+		assertEquals("name0", names.iterator().next());
+	}
+
+	public void testCollectorAddsToSet() throws Throwable {
+
+		final Set<String> names           = new LinkedHashSet<String>();
+		final PropertyCollector collector  = new PropertyCollector("name", names);
+
+		collector.read(new StringReader(all.replace(",\"result_count\":" + SIZE, "")));
+
+		// the rows are counted, but only the distinct values are kept
+		assertEquals(10, names.size());
+		assertEquals(SIZE, collector.getCount());
+		assertEquals(SIZE, collector.getResultCount());
+		assertTrue(Memory.sizeOf(collector) < 4096);
+	}
+
+	public void testComparisonWithList() throws Throwable {
+
+		// warm up both code paths
+		client.dbList(Example.class, "name", true);
+		client.dbCount(Example.class);
+		client.dbDistinct(Example.class, "name");
+
+		long bytes     = server.getBytesSent();
+		long allocated = Memory.getAllocatedBytes();
+		long time      = System.nanoTime();
+
+		final List<Example> list = client.dbList(Example.class, "name", true);
+
+		final long listTime      = System.nanoTime() - time;
+		final long listAllocated = Memory.getAllocatedBytes() - allocated;
+		final long listBytes     = server.getBytesSent() - bytes;
+		final long listHeap      = Memory.sizeOf(list);
+
+		assertEquals(SIZE, list.size());
+
+		bytes     = server.getBytesSent();
+		allocated = Memory.getAllocatedBytes();
+		time      = System.nanoTime();
+
+		final int count = client.dbCount(Example.class);
+
+		final long countTime      = System.nanoTime() - time;
+		final long countAllocated = Memory.getAllocatedBytes() - allocated;
+		final long countBytes     = server.getBytesSent() - bytes;
+
+		assertEquals(SIZE, count);
+
+		bytes     = server.getBytesSent();
+		allocated = Memory.getAllocatedBytes();
+		time      = System.nanoTime();
+
+		final Set<String> names = client.dbDistinct(Example.class, "name");
+
+		final long distinctTime      = System.nanoTime() - time;
+		final long distinctAllocated = Memory.getAllocatedBytes() - allocated;
+		final long distinctBytes     = server.getBytesSent() - bytes;
+		final long distinctHeap      = Memory.sizeOf(names);
+
+		assertEquals(10, names.size());
+
+		System.out.println("AggregateQueryTest: " + SIZE + " entities");
+		System.out.println("  dbList().size(): " + (listTime / 1000000L) + " ms, " + listBytes + " bytes received, " + listAllocated + " bytes allocated, " + listHeap + " bytes retained");
+		System.out.println("  dbCount():       " + (countTime / 1000000L) + " ms, " + countBytes + " bytes received, " + countAllocated + " bytes allocated");
+		System.out.println("  dbDistinct():    " + (distinctTime / 1000000L) + " ms, " + distinctBytes + " bytes received, " + distinctAllocated + " bytes allocated, " + distinctHeap + " bytes retained");
+
+		assertTrue(countBytes * 100 < listBytes);
+		assertTrue(distinctHeap * 100 < listHeap);
+
+		if (listAllocated > 0) {
+
+			assertTrue(countAllocated * 10 < listAllocated);
+			assertTrue(distinctAllocated < listAllocated);
+		}
+	}
+}
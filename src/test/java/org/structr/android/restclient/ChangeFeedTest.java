@@ -0,0 +1,343 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@see ChangeFeed} against a local server-sent events stub.
+ *
+ * @author Christian Morgner
+ */
+public class ChangeFeedTest extends TestCase {
+
+	private final List<String> resumeIds  = Collections.synchronizedList(new ArrayList<String>());
+	private final List<String> changes    = Collections.synchronizedList(new ArrayList<String>());
+	private final List<String> streams    = new ArrayList<String>();
+	private HttpClientTransport transport = null;
+	private StructrClient client          = null;
+	private StubServer server             = null;
+	private ChangeFeed feed               = null;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		server = new StubServer(new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+
+				final int connection = resumeIds.size();
+
+				resumeIds.add(exchange.getRequestHeaders().getFirst("Last-Event-ID"));
+
+				exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+				exchange.sendResponseHeaders(200, 0);
+
+				final OutputStream out = exchange.getResponseBody();
+
+				if (connection < streams.size()) {
+
+					// send the events of this connection and close it
+					out.write(streams.get(connection).getBytes("UTF-8"));
+					out.close();
+
+				} else {
+
+					// keep the connection open until the server stops
+					try {
+						Thread.sleep(10000L);
+
+					} catch (InterruptedException iex) {
+					}
+				}
+			}
+		});
+
+		transport = HttpClientTransport.create(4, 4, null);
+		client    = new StructrClient(server.getUrl(), "admin", "admin");
+		feed      = new ChangeFeed(client, "/events");
+
+		client.setTransport(transport);
+		client.addEntityListener(new EntityListener() {
+
+			@Override
+			public void entityCreated(final StructrObject entity) {
+				changes.add("created " + entity.getId());
+			}
+
+			@Override
+			public void entityStored(final StructrObject entity) {
+				changes.add("stored " + entity.getId() + " " + ((Example)entity).getName());
+			}
+
+			@Override
+			public void entityDeleted(final StructrObject entity) {
+				changes.add("deleted " + entity.getId());
+			}
+		});
+
+		feed.register(Example.class);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		feed.stop();
+		server.stop();
+		transport.shutdown();
+	}
+
+	public void testEventsAreDispatched() throws Throwable {
+
+		streams.add(
+			"retry: 50\n" +
+			"id: 1\nevent: created\ndata: " + StubServer.example("a", "x", 1) + "\n\n" +
+			": a comment\n" +
+			"id: 2\nevent: modified\ndata: " + StubServer.example("b", "y", 2) + "\n\n" +
+			"id: 3\nevent: deleted\ndata: {\"type\":\"Example\",\n" +
+			"data: \"id\":\"c\"}\n\n" +
+			"id: 4\nevent: deleted\ndata: {\"type\":\"Other\",\"id\":\"d\"}\n\n"
+		);
+
+		feed.start();
+
+		waitForLastEventId("4");
+		waitFor(2);
+
+		assertEquals(Arrays.asList("created a", "stored b y", "deleted c"), new ArrayList<String>(changes));
+		assertEquals(3L, feed.getDispatchedCount());
+		assertEquals("4", feed.getLastEventId());
+
+		// the feed reconnects after the stream was closed and resumes after the last event
+		assertEquals(null, resumeIds.get(0));
+		assertEquals("4", resumeIds.get(1));
+	}
+
+	public void testResumesFromLastEventId() throws Throwable {
+
+		feed.setLastEventId("7");
+		feed.start();
+
+		waitFor(1);
+
+		assertEquals("7", resumeIds.get(0));
+	}
+
+	public void testLastEventIdAdvancesAfterDispatch() throws Throwable {
+
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch blocked = new CountDownLatch(1);
+
+		client.addEntityListener(new EntityListener() {
+
+			@Override
+			public void entityCreated(final StructrObject entity) {
+
+				blocked.countDown();
+
+				try {
+					release.await(5, TimeUnit.SECONDS);
+
+				} catch (InterruptedException iex) {
+				}
+			}
+
+			@Override
+			public void entityStored(final StructrObject entity) {
+			}
+
+			@Override
+			public void entityDeleted(final StructrObject entity) {
+			}
+		});
+
+		streams.add(
+			"id: 1\nevent: created\ndata: " + StubServer.example("a", "x", 1) + "\n\n" +
+			"id: 2\nevent: modified\ndata: " + StubServer.example("b", "y", 2) + "\n\n" +
+			"id: 3\nevent: deleted\ndata: {\"type\":\"Other\",\"id\":\"d\"}\n\n"
+		);
+
+		feed.start();
+
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+		// received, but not dispatched yet
+		assertNull(feed.getLastEventId());
+
+		release.countDown();
+
+		waitForLastEventId("3");
+		assertEquals(Arrays.asList("created a", "stored b y"), new ArrayList<String>(changes));
+	}
+
+	public void testBackpressure() throws Throwable {
+
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch blocked = new CountDownLatch(1);
+
+		client.addEntityListener(new BlockingListener(blocked, release));
+
+		streams.add(
+			"id: 1\nevent: created\ndata: " + StubServer.example("a", "w", 1) + "\n\n" +
+			"id: 2\nevent: created\ndata: " + StubServer.example("b", "x", 2) + "\n\n" +
+			"id: 3\nevent: created\ndata: " + StubServer.example("c", "y", 3) + "\n\n" +
+			"id: 4\nevent: created\ndata: " + StubServer.example("d", "z", 4) + "\n\n"
+		);
+
+		feed.setCapacity(1);
+		feed.start();
+
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+		// the first event is being dispatched and the second fills the queue, so the reader waits with the third
+		waitForWaitingReader();
+		assertEquals(1L, feed.getDispatchedCount());
+
+		release.countDown();
+
+		waitForLastEventId("4");
+		assertEquals(Arrays.asList("created a", "created b", "created c", "created d"), new ArrayList<String>(changes));
+		assertEquals(0L, feed.getCoalescedCount());
+	}
+
+	public void testRestartWaitsForDelivery() throws Throwable {
+
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch blocked = new CountDownLatch(1);
+
+		client.addEntityListener(new BlockingListener(blocked, release));
+
+		streams.add("id: 1\nevent: created\ndata: " + StubServer.example("a", "x", 1) + "\n\n");
+		streams.add("id: 2\nevent: created\ndata: " + StubServer.example("b", "y", 2) + "\n\n");
+
+		feed.start();
+
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+		feed.stop();
+
+		final Thread restart = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				feed.start();
+			}
+		});
+
+		restart.start();
+		restart.join(300L);
+
+		// the restart waits until the old dispatcher delivered its event
+		assertTrue(restart.isAlive());
+
+		release.countDown();
+		restart.join(5000L);
+
+		assertFalse(restart.isAlive());
+
+		waitForLastEventId("2");
+		assertEquals("1", resumeIds.get(1));
+		assertEquals(Arrays.asList("created a", "created b"), new ArrayList<String>(changes));
+	}
+
+	// ----- private methods -----
+	private void waitForWaitingReader() throws InterruptedException {
+
+		final long timeout = System.currentTimeMillis() + 5000L;
+
+		while (System.currentTimeMillis() < timeout) {
+
+			for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+
+				if ("structr change feed".equals(thread.getName()) && thread.getState() == Thread.State.WAITING) {
+					return;
+				}
+			}
+
+			Thread.sleep(10L);
+		}
+
+		fail("The reader did not wait for free capacity");
+	}
+	private void waitFor(final int connections) throws InterruptedException {
+
+		final long timeout = System.currentTimeMillis() + 5000L;
+
+		while (resumeIds.size() < connections && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10L);
+		}
+
+		assertTrue(resumeIds.size() >= connections);
+	}
+
+	private void waitForLastEventId(final String id) throws InterruptedException {
+
+		final long timeout = System.currentTimeMillis() + 5000L;
+
+		while (!id.equals(feed.getLastEventId()) && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10L);
+		}
+
+		assertEquals(id, feed.getLastEventId());
+	}
+
+	// ----- nested classes -----
+	private static class BlockingListener implements EntityListener {
+
+		private CountDownLatch blocked = null;
+		private CountDownLatch release = null;
+
+		public BlockingListener(final CountDownLatch blocked, final CountDownLatch release) {
+
+			this.blocked = blocked;
+			this.release = release;
+		}
+
+		@Override
+		public void entityCreated(final StructrObject entity) {
+
+			blocked.countDown();
+
+			try {
+				release.await(5, TimeUnit.SECONDS);
+
+			} catch (InterruptedException iex) {
+			}
+		}
+
+		@Override
+		public void entityStored(final StructrObject entity) {
+		}
+
+		@Override
+		public void entityDeleted(final StructrObject entity) {
+		}
+	}
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.annotations.Expose;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Compares a {@see ColumnarList} with the list of entities that dbList()
+ * returns for 10000 entities with eight properties.
+ *
+ * @author Christian Morgner
+ */
+public class ColumnarListTest extends TestCase {
+
+	private static final int SIZE = 10000;
+
+	private HttpClientTransport transport = null;
+	private StructrClient client          = null;
+	private StubServer server             = null;
+	private volatile String body          = null;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		body   = Product.collection(SIZE);
+		server = new StubServer(new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				server.send(exchange, 200, body);
+			}
+		});
+
+		transport = HttpClientTransport.create(4, 4, null);
+		client    = new StructrClient(server.getUrl(), "admin", "admin");
+
+		client.setTransport(transport);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		transport.shutdown();
+		server.stop();
+	}
+
+	public void testValuesMatchEntities() throws Throwable {
+
+		final List<Product> entities     = client.dbList(Product.class, "name", true);
+		final ColumnarList<Product> list = ColumnarList.dbList(client, Product.class, "name", true);
+
+		assertEquals(SIZE, list.size());
+
+		for (int i = 0; i < SIZE; i += 997) {
+
+			final Product expected = entities.get(i);
+			final Product actual   = list.get(i);
+
+			assertEquals(expected.getId(), actual.getId());
+			assertEquals(expected.getName(), actual.getName());
+			assertEquals(expected.getStatus(), actual.getStatus());
+			assertEquals(expected.getCategory(), actual.getCategory());
+			assertEquals(expected.getOwner(), actual.getOwner());
+			assertEquals(expected.getPrice(), actual.getPrice());
+			assertEquals(expected.getQuantity(), actual.getQuantity());
+			assertEquals(expected.getAvailable(), actual.getAvailable());
+			assertEquals(expected.getCreated(), actual.getCreated());
+			assertEquals(expected.getStatus(), list.getValue(i, "status"));
+		}
+
+		final Product reuse = new Product();
+
+		assertSame(reuse, list.get(1, reuse));
+		assertEquals("Product 1", reuse.getName());
+		assertSame(list.getValue(0, "status"), list.getValue(4, "status"));
+	}
+
+	public void testInvalidDateFails() throws Throwable {
+
+		body = StubServer.collection(1, Product.json(0).replace("2012-03-10T12:00:00+0000", "yesterday"));
+
+		try {
+			ColumnarList.dbList(client, Product.class, "name", true);
+			fail("The invalid date was not reported");
+
+		} catch (JsonSyntaxException expected) {
+		}
+	}
+
+	public void testFallbackDateFormats() throws Throwable {
+
+		// ISO 8601 in UTC, which the date adapter of Gson accepts as well
+		body = StubServer.collection(1, Product.json(0).replace("2012-03-10T12:00:00+0000", "2012-03-10T12:00:00Z"));
+
+		final Product entity  = client.dbList(Product.class, "name", true).get(0);
+		final Product product = ColumnarList.dbList(client, Product.class, "name", true).get(0);
+
+		assertNotNull(entity.getCreated());
+		assertEquals(entity.getCreated(), product.getCreated());
+	}
+
+	public void testHeapPerRow() throws Throwable {
+
+		final List<PlainProduct> plain             = client.dbList(PlainProduct.class, "name", true);
+		final ColumnarList<PlainProduct> plainList = ColumnarList.dbList(client, PlainProduct.class, "name", true);
+		final List<Product> entities               = client.dbList(Product.class, "name", true);
+		final ColumnarList<Product> list           = ColumnarList.dbList(client, Product.class, "name", true);
+
+		// the global string pool and the mapping configuration are shared by all lists
+		final long plainHeap         = Memory.sizeOf(plain, StringPool.getGlobal(), client.getGson());
+		final long plainColumnarHeap = Memory.sizeOf(plainList, StringPool.getGlobal(), client.getGson());
+		final long entityHeap        = Memory.sizeOf(entities, StringPool.getGlobal(), client.getGson());
+		final long columnarHeap      = Memory.sizeOf(list, StringPool.getGlobal(), client.getGson());
+
+		System.out.println("ColumnarListTest: " + SIZE + " entities with 8 properties");
+		System.out.println("  List<PlainProduct>:         " + plainHeap + " bytes, " + (plainHeap / SIZE) + " bytes per row");
+		System.out.println("  ColumnarList<PlainProduct>: " + plainColumnarHeap + " bytes, " + (plainColumnarHeap / SIZE) + " bytes per row");
+		System.out.println("  List<Product>:              " + entityHeap + " bytes, " + (entityHeap / SIZE) + " bytes per row, with @Interned strings");
+		System.out.println("  ColumnarList<Product>:      " + columnarHeap + " bytes, " + (columnarHeap / SIZE) + " bytes per row, with @Interned strings");
+
+		assertTrue(plainColumnarHeap < plainHeap);
+		assertTrue(columnarHeap < entityHeap);
+	}
+
+	// ----- nested classes -----
+	/**
+	 * The properties of {@see Product} without interned strings, i.e. the
+	 * list that dbList() returns for a plain entity class.
+	 */
+	public static class PlainProduct extends StructrObject {
+
+		@Expose
+		private String name = null;
+
+		@Expose
+		private String status = null;
+
+		@Expose
+		private String category = null;
+
+		@Expose
+		private String owner = null;
+
+		@Expose
+		private Double price = null;
+
+		@Expose
+		private Integer quantity = null;
+
+		@Expose
+		private Boolean available = null;
+
+		@Expose
+		private Date created = null;
+	}
+}
@@ -0,0 +1,316 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@see DeltaSync} against a local stub server that pages like a
+ * structr server, caps the page size or ignores paging.
+ *
+ * @author Christian Morgner
+ */
+public class DeltaSyncTest extends TestCase {
+
+	private static final int SIZE = 250;
+
+	private static final Pattern CREATED = Pattern.compile("\"created\":\"([^\"]+)\"");
+
+	private final List<String> paths      = Collections.synchronizedList(new ArrayList<String>());
+	private HttpClientTransport transport = null;
+	private List<String> products         = null;
+	private StructrClient client          = null;
+	private StubServer server             = null;
+	private LocalStore store              = null;
+	private File directory                = null;
+	private volatile boolean withCount    = true;
+	private volatile boolean ignorePaging = false;
+	private volatile int maxPageSize      = Integer.MAX_VALUE;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		products = new ArrayList<String>();
+
+		for (int i = 0; i < SIZE; i++) {
+			products.add(Product.json(i));
+		}
+
+		server = new StubServer(new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+
+				try {
+					server.send(exchange, 200, respond(exchange.getRequestURI().getPath(), exchange.getRequestURI().getRawQuery()));
+
+				} catch (Exception ex) {
+
+					server.send(exchange, 500, "{}");
+				}
+			}
+		});
+
+		directory = File.createTempFile("deltasync", "");
+		directory.delete();
+
+		store     = new LocalStore(directory);
+		transport = HttpClientTransport.create(4, 4, null);
+		client    = new StructrClient(server.getUrl(), "admin", "admin");
+
+		client.setTransport(transport);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		store.close();
+		transport.shutdown();
+		server.stop();
+
+		final File[] files = directory.listFiles();
+		if (files != null) {
+
+			for (final File file : files) {
+				file.delete();
+			}
+		}
+
+		directory.delete();
+	}
+
+	public void testFullLoad() throws Throwable {
+
+		store.put(stale());
+
+		final DeltaSync.Result result = new DeltaSync(client, store, "created").sync(Product.class);
+
+		assertTrue(result.isFull());
+		assertEquals(SIZE, result.getUpdated());
+		assertEquals(1, result.getDeleted());
+		assertEquals(SIZE, store.count(Product.class));
+	}
+
+	public void testCappedPageSize() throws Throwable {
+
+		maxPageSize = 30;
+		store.put(stale());
+
+		final DeltaSync.Result result = new DeltaSync(client, store, "created").sync(Product.class);
+
+		// the load continues after the short first page until the reported count has arrived
+		assertTrue(result.isFull());
+		assertEquals(SIZE, store.count(Product.class));
+		assertEquals(1, result.getDeleted());
+		assertEquals((SIZE + 29) / 30, paths.size());
+	}
+
+	public void testCappedPageSizeWithoutCount() throws Throwable {
+
+		maxPageSize = 30;
+		withCount   = false;
+
+		store.put(stale());
+
+		final DeltaSync.Result result = new DeltaSync(client, store, "created").sync(Product.class);
+
+		assertTrue(result.isFull());
+		assertEquals(SIZE, store.count(Product.class));
+		assertEquals(1, result.getDeleted());
+	}
+
+	public void testIgnoredPaging() throws Throwable {
+
+		ignorePaging = true;
+		store.put(stale());
+
+		final DeltaSync.Result result = new DeltaSync(client, store, "created").sync(Product.class);
+
+		assertTrue(result.isFull());
+		assertEquals(1, result.getDeleted());
+		assertEquals(1, paths.size());
+	}
+
+	public void testIgnoredPagingWithoutCount() throws Throwable {
+
+		ignorePaging = true;
+		withCount    = false;
+
+		store.put(stale());
+
+		final DeltaSync sync          = new DeltaSync(client, store, "created");
+		final DeltaSync.Result result = sync.sync(Product.class);
+
+		// the second page repeats the first one, so the load is incomplete and nothing is removed
+		assertFalse(result.isFull());
+		assertEquals(0, result.getDeleted());
+		assertEquals(SIZE + 1, store.count(Product.class));
+	}
+
+	public void testDeltaPagesThroughEqualTimestamps() throws Throwable {
+
+		final DeltaSync sync = new DeltaSync(client, store, "created");
+
+		sync.sync(Product.class);
+
+		maxPageSize = 5;
+		paths.clear();
+
+		// a new product with the newest timestamp, behind 12 products that share the high-water mark
+		products.add(Product.json(SIZE + 9).replace("2012-03-29", "2012-03-30"));
+
+		final DeltaSync.Result result = sync.sync(Product.class);
+
+		assertFalse(result.isFull());
+		assertEquals(1, result.getUpdated());
+		assertEquals(SIZE + 1, store.count(Product.class));
+		assertTrue(paths.size() >= 3);
+		assertEquals(0, sync.sync(Product.class).getUpdated());
+	}
+
+	public void testReconcileReadsIdView() throws Throwable {
+
+		maxPageSize = 30;
+		store.put(stale());
+
+		final DeltaSync sync = new DeltaSync(client, store, "created");
+
+		sync.setIdView("ids");
+
+		assertEquals(1, sync.reconcile(Product.class));
+		assertEquals(0, store.count(Product.class));
+		assertEquals((SIZE + 29) / 30, paths.size());
+
+		for (final String path : paths) {
+			assertTrue(path, path.startsWith("/structr/rest//Product/ids?"));
+		}
+	}
+
+	// ----- private methods -----
+	private Product stale() {
+
+		final Product product = new Product();
+
+		product.setId("stale");
+
+		return product;
+	}
+
+	/**
+	 * Pages, filters and sorts the products like a structr server. The
+	 * "ids" view contains only the id property.
+	 */
+	private String respond(final String path, final String rawQuery) throws Exception {
+
+		final Map<String, String> query = new HashMap<String, String>();
+		final SimpleDateFormat format   = new SimpleDateFormat(StructrObject.DATE_FORMAT);
+		final List<String> matches      = new ArrayList<String>();
+
+		paths.add(path + "?" + rawQuery);
+
+		for (final String part : rawQuery.split("&")) {
+
+			final int pos = part.indexOf('=');
+			if (pos > 0) {
+				query.put(part.substring(0, pos), URLDecoder.decode(part.substring(pos + 1), "UTF-8"));
+			}
+		}
+
+		final String range = query.get("created");
+		final long from    = range != null ? format.parse(range.substring(1, range.indexOf(" TO "))).getTime() : Long.MIN_VALUE;
+
+		synchronized (products) {
+
+			for (final String product : products) {
+
+				if (created(product, format) >= from) {
+					matches.add(product);
+				}
+			}
+		}
+
+		if ("created".equals(query.get("sort"))) {
+
+			Collections.sort(matches, new Comparator<String>() {
+
+				@Override
+				public int compare(final String o1, final String o2) {
+
+					try {
+						final int result = Long.valueOf(created(o1, format)).compareTo(created(o2, format));
+						return result != 0 ? result : o1.compareTo(o2);
+
+					} catch (Exception ex) {
+
+						throw new IllegalStateException(ex);
+					}
+				}
+			});
+
+		} else {
+
+			Collections.sort(matches);
+		}
+
+		List<String> page = matches;
+
+		if (!ignorePaging && query.containsKey("pageSize")) {
+
+			final int pageSize = Math.min(maxPageSize, Integer.parseInt(query.get("pageSize")));
+			final int start    = Math.min(matches.size(), (Integer.parseInt(query.get("page")) - 1) * pageSize);
+
+			page = matches.subList(start, Math.min(matches.size(), start + pageSize));
+		}
+
+		final String[] objects = new String[page.size()];
+
+		for (int i = 0; i < objects.length; i++) {
+
+			final String product = page.get(i);
+			objects[i]           = path.endsWith("/ids") ? product.substring(0, product.indexOf(',')) + "}" : product;
+		}
+
+		final String body = StubServer.collection(matches.size(), objects);
+
+		return withCount ? body : body.replace(",\"result_count\":" + matches.size(), "");
+	}
+
+	private long created(final String product, final SimpleDateFormat format) throws Exception {
+
+		final Matcher matcher = CREATED.matcher(product);
+
+		matcher.find();
+
+		return format.parse(matcher.group(1)).getTime();
+	}
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Christian Morgner
+ */
+public class EntityCacheTest extends TestCase {
+
+	public void testEntityIsServedOnlyOnce() {
+
+		final EntityCache cache = new EntityCache(16);
+		final Example entity    = new Example("1", "one");
+
+		cache.putPrefetched("/Example/1", entity);
+
+		assertSame(entity, cache.get(Example.class, "/Example/1"));
+		assertNull(cache.get(Example.class, "/Example/1"));
+		assertEquals(1L, cache.getPrefetchHitCount());
+		assertEquals(1L, cache.getHitCount());
+		assertEquals(1L, cache.getMissCount());
+	}
+
+	public void testStoredEntityIsRemoved() {
+
+		final EntityCache cache = new EntityCache(16);
+
+		cache.putPrefetched(EntityCache.getPath(new Example("1", "one")), new Example("1", "one"));
+		cache.entityStored(new Example("1", "changed"));
+
+		assertEquals(0, cache.size());
+	}
+
+	public void testExpiredEntityIsNotServed() throws InterruptedException {
+
+		final EntityCache cache = new EntityCache(16);
+
+		cache.setMaxAge(0L);
+		cache.put("/Example/1", new Example("1", "one"));
+
+		Thread.sleep(5L);
+
+		assertNull(cache.get(Example.class, "/Example/1"));
+		assertEquals(0, cache.size());
+	}
+
+	public void testSizeIsBounded() {
+
+		final EntityCache cache = new EntityCache(2);
+
+		cache.put("/Example/1", new Example("1", "one"));
+		cache.put("/Example/2", new Example("2", "two"));
+		cache.put("/Example/3", new Example("3", "three"));
+
+		assertEquals(2, cache.size());
+		assertFalse(cache.contains("/Example/1"));
+		assertTrue(cache.contains("/Example/3"));
+	}
+}
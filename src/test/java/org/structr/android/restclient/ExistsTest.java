@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * @author Christian Morgner
+ */
+public class ExistsTest extends TestCase {
+
+	private final List<String> methods    = Collections.synchronizedList(new ArrayList<String>());
+	private HttpClientTransport transport = null;
+	private StructrClient client          = null;
+	private StubServer server             = null;
+	private volatile int headStatus       = 200;
+	private volatile int getStatus        = 200;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		server = new StubServer(new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+
+				final String method = exchange.getRequestMethod();
+
+				methods.add(method);
+
+				if ("HEAD".equals(method)) {
+
+					server.send(exchange, headStatus, null);
+
+				} else {
+
+					server.send(exchange, getStatus, "{\"result\":" + StubServer.example("2", "two", 2) + "}");
+				}
+			}
+		});
+
+		transport = HttpClientTransport.create(4, 4, null);
+		client    = new StructrClient(server.getUrl(), "admin", "admin");
+
+		client.setTransport(transport);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		transport.shutdown();
+		server.stop();
+	}
+
+	public void testHead() throws Throwable {
+
+		assertTrue(client.dbIsRelated(Example.class, "1", Example.class, "2"));
+
+		headStatus = 404;
+
+		assertFalse(client.dbIsRelated(Example.class, "1", Example.class, "3"));
+		assertEquals(2, methods.size());
+		assertEquals("HEAD", methods.get(1));
+	}
+
+	public void testFallbackToGet() throws Throwable {
+
+		headStatus = 405;
+
+		assertTrue(client.dbIsRelated(Example.class, "1", Example.class, "2"));
+		assertTrue(client.dbIsRelated(Example.class, "1", Example.class, "2"));
+
+		// the second check does not try HEAD again
+		assertEquals(3, methods.size());
+		assertEquals("HEAD", methods.get(0));
+		assertEquals("GET", methods.get(1));
+		assertEquals("GET", methods.get(2));
+	}
+
+	public void testRejectedGetFails() throws Throwable {
+
+		headStatus = 405;
+		getStatus  = 405;
+
+		try {
+			client.dbIsRelated(Example.class, "1", Example.class, "2");
+			fail("The rejected request was not reported");
+
+		} catch (StructrException sex) {
+			assertEquals(405, sex.getResponseCode());
+		}
+
+		assertEquals(2, methods.size());
+	}
+}
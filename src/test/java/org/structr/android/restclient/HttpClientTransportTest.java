@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests {@see HttpClientTransport} against a local stub server, and
+ * compares the time of concurrent requests with different connection
+ * pool sizes.
+ *
+ * @author Christian Morgner
+ */
+public class HttpClientTransportTest extends TestCase {
+
+	private static final int REQUESTS = 16;
+	private static final long LATENCY = 100L;
+
+	private StubServer server = null;
+	private String body       = null;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		body   = StubServer.collection(1, StubServer.example("1", "one", 1));
+		server = new StubServer(new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				server.send(exchange, 200, body);
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		server.stop();
+	}
+
+	public void testShutdownKeepsTransport() throws Throwable {
+
+		final HttpClientTransport transport = HttpClientTransport.create(4, 4, null);
+		try {
+			final StructrClient client = new StructrClient(server.getUrl(), "admin", "admin");
+
+			client.setTransport(transport);
+			assertEquals(1, client.dbList(Example.class, "name", true).size());
+
+			client.shutdown();
+			client.setTlsConfig(null);
+
+			// the transport is owned by the caller and still usable
+			assertEquals(1, client.dbList(Example.class, "name", true).size());
+			assertEquals(2, server.getRequestCount());
+
+			final StructrClient other = new StructrClient(server.getUrl(), "admin", "admin");
+
+			other.setTransport(transport);
+			assertEquals(1, other.dbList(Example.class, "name", true).size());
+
+		} finally {
+
+			transport.shutdown();
+		}
+	}
+
+	public void testPoolSize() throws Throwable {
+
+		server.setLatency(LATENCY);
+
+		// warm up
+		run(4);
+
+		final long small = run(2);
+		final long large = run(REQUESTS);
+
+		System.out.println("HttpClientTransportTest: " + REQUESTS + " concurrent requests with " + LATENCY + " ms latency");
+		System.out.println("  2 connections:  " + small + " ms");
+		System.out.println("  " + REQUESTS + " connections: " + large + " ms");
+
+		assertTrue(small >= (REQUESTS / 2) * LATENCY);
+		assertTrue(large < small);
+	}
+
+	// ----- private methods -----
+	/**
+	 * Sends {@see #REQUESTS} concurrent requests through a transport with
+	 * the given number of connections.
+	 *
+	 * @return the time it took in milliseconds
+	 */
+	private long run(final int connections) throws Throwable {
+
+		final HttpClientTransport transport = HttpClientTransport.create(connections, connections, null);
+		final StructrClient client          = new StructrClient(server.getUrl(), "admin", "admin");
+		final List<Thread> threads          = new ArrayList<Thread>();
+		final List<Throwable> errors        = new ArrayList<Throwable>();
+
+		client.setTransport(transport);
+		client.getScheduler().setConcurrency(REQUESTS, REQUESTS, REQUESTS);
+
+		final long start = System.currentTimeMillis();
+		try {
+			for (int i = 0; i < REQUESTS; i++) {
+
+				final Thread thread = new Thread() {
+
+					@Override
+					public void run() {
+
+						try {
+							client.dbList(Example.class, "name", true);
+
+						} catch (Throwable t) {
+
+							synchronized (errors) {
+								errors.add(t);
+							}
+						}
+					}
+				};
+
+				threads.add(thread);
+				thread.start();
+			}
+
+			for (final Thread thread : threads) {
+				thread.join();
+			}
+
+		} finally {
+
+			transport.shutdown();
+		}
+
+		if (!errors.isEmpty()) {
+			throw errors.get(0);
+		}
+
+		return System.currentTimeMillis() - start;
+	}
+}
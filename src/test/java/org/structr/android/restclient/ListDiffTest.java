@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * @author Christian Morgner
+ */
+public class ListDiffTest extends TestCase {
+
+	public void testInsertAtHeadMovesNothing() {
+
+		final List<Example> oldList = list("a", "b", "c", "d");
+		final List<Example> newList = new ArrayList<Example>(oldList);
+
+		newList.add(0, new Example("x", "x"));
+
+		final ListDiff diff = ListDiff.compute(oldList, newList);
+
+		assertEquals(Arrays.asList(0), diff.getInserted());
+		assertTrue(diff.getRemoved().isEmpty());
+		assertTrue(diff.getChanged().isEmpty());
+		assertTrue(diff.getMoved().isEmpty());
+	}
+
+	public void testRemoveMovesNothing() {
+
+		final ListDiff diff = ListDiff.compute(list("a", "b", "c", "d"), list("b", "c", "d"));
+
+		assertEquals(Arrays.asList(0), diff.getRemoved());
+		assertTrue(diff.getMoved().isEmpty());
+	}
+
+	public void testSingleMove() {
+
+		// "d" moved to the front, the relative order of the others is unchanged
+		final ListDiff diff = ListDiff.compute(list("a", "b", "c", "d"), list("d", "a", "b", "c"));
+
+		assertEquals(Arrays.asList(0), diff.getMoved());
+		assertTrue(diff.getInserted().isEmpty());
+		assertTrue(diff.getRemoved().isEmpty());
+	}
+
+	public void testReverse() {
+
+		final ListDiff diff = ListDiff.compute(list("a", "b", "c", "d"), list("d", "c", "b", "a"));
+
+		// only one entity can keep its place
+		assertEquals(3, diff.getMoved().size());
+	}
+
+	public void testChanged() {
+
+		final List<Example> oldList = list("a", "b", "c");
+		final List<Example> newList = list("a", "b", "c");
+
+		newList.get(1).setName("changed");
+
+		final ListDiff diff = ListDiff.compute(oldList, newList);
+
+		assertEquals(Arrays.asList(1), diff.getChanged());
+		assertTrue(diff.getMoved().isEmpty());
+	}
+
+	public void testChangedInPlace() {
+
+		final List<Example> list = list("a", "b", "c");
+		final ListDiff first     = ListDiff.compute(null, list);
+
+		assertEquals(Arrays.asList(0, 1, 2), first.getInserted());
+
+		// the same instances, modified in place, are compared with the states of the previous diff
+		list.get(2).setCount(1);
+
+		final ListDiff second = ListDiff.compute(list, first.getStates(), list);
+
+		assertEquals(Arrays.asList(2), second.getChanged());
+		assertFalse(second.isEmpty());
+		assertTrue(ListDiff.compute(list, second.getStates(), list).isEmpty());
+	}
+
+	// ----- private methods -----
+	private List<Example> list(final String... ids) {
+
+		final List<Example> list = new ArrayList<Example>();
+
+		for (final String id : ids) {
+			list.add(new Example(id, id));
+		}
+
+		return list;
+	}
+}
@@ -0,0 +1,217 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * @author Christian Morgner
+ */
+public class LocalStoreTest extends TestCase {
+
+	private File directory = null;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		directory = File.createTempFile("localstore", "");
+		directory.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		final File[] files = directory.listFiles();
+		if (files != null) {
+
+			for (final File file : files) {
+				file.delete();
+			}
+		}
+
+		directory.delete();
+	}
+
+	public void testReplay() throws IOException {
+
+		LocalStore store = new LocalStore(directory);
+
+		store.put(new Example("a", "first"));
+		store.put(new Example("b", "second"));
+		store.put(new Example("a", "changed"));
+		store.remove(Example.class, "b");
+		store.close();
+
+		store = new LocalStore(directory);
+
+		final List<Example> list = store.dbList(Example.class, "name", true);
+
+		assertEquals(1, list.size());
+		assertEquals("changed", list.get(0).getName());
+	}
+
+	public void testTornRecordIsDiscarded() throws IOException {
+
+		LocalStore store = new LocalStore(directory);
+
+		store.put(new Example("a", "first"));
+		store.put(new Example("b", "second"));
+		store.close();
+
+		final File journal = new File(directory, Example.class.getName() + ".journal");
+		final long length  = journal.length();
+
+		// simulate a power loss in the middle of a record
+		append(journal, "P {\"id\":\"c\",\"na");
+
+		store = new LocalStore(directory);
+
+		assertEquals(2, store.count(Example.class));
+		assertEquals(length, journal.length());
+
+		// the journal is usable again
+		store.put(new Example("c", "third"));
+		store.close();
+
+		store = new LocalStore(directory);
+
+		assertEquals(3, store.count(Example.class));
+		assertEquals("third", store.dbGet(Example.class, "c").getName());
+	}
+
+	public void testUnparseableLastRecordIsDiscarded() throws IOException {
+
+		LocalStore store = new LocalStore(directory);
+
+		store.put(new Example("a", "first"));
+		store.close();
+
+		final File journal = new File(directory, Example.class.getName() + ".journal");
+		final long length  = journal.length();
+
+		append(journal, "P {\"id\":\"b\",\n");
+
+		store = new LocalStore(directory);
+
+		assertEquals(1, store.count(Example.class));
+		assertEquals(length, journal.length());
+	}
+
+	public void testCorruptRecordInTheMiddleFails() throws IOException {
+
+		LocalStore store = new LocalStore(directory);
+
+		store.put(new Example("a", "first"));
+		store.close();
+
+		final File journal = new File(directory, Example.class.getName() + ".journal");
+
+		append(journal, "P {\"id\":\"b\",\nP {\"id\":\"c\"}\n");
+
+		store = new LocalStore(directory);
+
+		try {
+			store.count(Example.class);
+			fail("Corrupt journal was accepted");
+
+		} catch (IOException expected) {
+		}
+	}
+
+	public void testCompact() throws IOException {
+
+		LocalStore store = new LocalStore(directory);
+
+		for (int i=0; i<100; i++) {
+			store.put(new Example("a", "value " + i));
+		}
+
+		store.compact();
+		store.put(new Example("b", "after compaction"));
+		store.close();
+
+		store = new LocalStore(directory);
+
+		assertEquals(2, store.count(Example.class));
+		assertEquals("value 99", store.dbGet(Example.class, "a").getName());
+	}
+
+	public void testPutAll() throws IOException {
+
+		final List<Example> examples = new ArrayList<Example>();
+		LocalStore store             = new LocalStore(directory);
+
+		for (int i=0; i<1000; i++) {
+			examples.add(new Example(Integer.toString(i), "value " + i));
+		}
+
+		assertEquals(1000, store.putAll(examples));
+		assertEquals(0, store.putAll(examples));
+
+		store.close();
+		store = new LocalStore(directory);
+
+		assertEquals(1000, store.count(Example.class));
+		assertEquals("value 999", store.dbGet(Example.class, "999").getName());
+	}
+
+	public void testSameSimpleName() throws IOException {
+
+		LocalStore store = new LocalStore(directory);
+
+		store.put(new Example("a", "outer"));
+		store.put(new org.structr.android.restclient.other.Example("a", "other"));
+		store.close();
+
+		store = new LocalStore(directory);
+
+		assertEquals("outer", store.dbGet(Example.class, "a").getName());
+		assertEquals("other", store.dbGet(org.structr.android.restclient.other.Example.class, "a").getName());
+	}
+
+	public void testLegacyJournalIsRenamed() throws IOException {
+
+		directory.mkdirs();
+		append(new File(directory, "Example.journal"), "P {\"id\":\"a\",\"name\":\"legacy\"}\n");
+
+		final LocalStore store = new LocalStore(directory);
+
+		assertEquals("legacy", store.dbGet(Example.class, "a").getName());
+		assertTrue(new File(directory, Example.class.getName() + ".journal").exists());
+		assertFalse(new File(directory, "Example.journal").exists());
+	}
+
+	// ----- private methods -----
+	private void append(final File file, final String data) throws IOException {
+
+		final FileOutputStream out = new FileOutputStream(file, true);
+		try {
+			out.write(data.getBytes("UTF-8"));
+
+		} finally {
+
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,215 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Member;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the memory that tests allocate and retain. Allocations are
+ * measured by the JVM, so they should only be printed and compared
+ * loosely. Retained sizes are estimated by walking the object graph with
+ * the layout of a 64-bit JVM with compressed references, so they do not
+ * depend on garbage collection and other threads.
+ *
+ * @author Christian Morgner
+ */
+public class Memory {
+
+	private static final Map<Class<?>, List<Field>> fieldCache = new IdentityHashMap<Class<?>, List<Field>>();
+	private static final Map<Class<?>, Long> shallowCache      = new IdentityHashMap<Class<?>, Long>();
+
+	/**
+	 * @return the number of bytes the current thread allocated so far, or -1 if the JVM does not support the measurement
+	 */
+	public static long getAllocatedBytes() {
+
+		final ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+
+			final com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+			if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+				return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+			}
+		}
+
+		return -1L;
+	}
+
+	/**
+	 * Estimates the number of bytes that are reachable from the given
+	 * object. Shared instances are counted once, and classes, reflection
+	 * objects, threads and the given excluded objects are not counted.
+	 *
+	 * @param root the object to measure
+	 * @param excluded objects that are shared with other parts of the application
+	 * @return the estimated retained size in bytes
+	 */
+	public static synchronized long sizeOf(final Object root, final Object... excluded) {
+
+		final Map<Object, Object> visited = new IdentityHashMap<Object, Object>();
+		final LinkedList<Object> pending  = new LinkedList<Object>();
+		long size                         = 0L;
+
+		for (final Object object : excluded) {
+			visited.put(object, object);
+		}
+
+		pending.add(root);
+
+		while (!pending.isEmpty()) {
+
+			final Object object = pending.removeFirst();
+			if (object == null || visited.containsKey(object) || isShared(object)) {
+				continue;
+			}
+
+			visited.put(object, object);
+
+			final Class<?> type = object.getClass();
+			if (type.isArray()) {
+
+				final Class<?> componentType = type.getComponentType();
+				final int length             = Array.getLength(object);
+
+				size += align(16L + (long)length * getSize(componentType));
+
+				if (!componentType.isPrimitive()) {
+
+					for (int i = 0; i < length; i++) {
+						pending.add(Array.get(object, i));
+					}
+				}
+
+			} else {
+
+				size += getShallowSize(type);
+
+				for (final Field field : getReferenceFields(type)) {
+
+					try {
+						pending.add(field.get(object));
+
+					} catch (IllegalAccessException iaex) {
+
+						// not accessible, not counted
+					}
+				}
+			}
+		}
+
+		return size;
+	}
+
+	// ----- private methods -----
+	private static boolean isShared(final Object object) {
+		return object instanceof Class || object instanceof AccessibleObject || object instanceof Member || object instanceof ClassLoader || object instanceof Thread;
+	}
+
+	private static long getShallowSize(final Class<?> type) {
+
+		Long size = shallowCache.get(type);
+		if (size == null) {
+
+			long fields = 0L;
+
+			for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+
+				for (final Field field : current.getDeclaredFields()) {
+
+					if (!Modifier.isStatic(field.getModifiers())) {
+						fields += getSize(field.getType());
+					}
+				}
+			}
+
+			size = align(12L + fields);
+			shallowCache.put(type, size);
+		}
+
+		return size;
+	}
+
+	private static List<Field> getReferenceFields(final Class<?> type) {
+
+		List<Field> fields = fieldCache.get(type);
+		if (fields == null) {
+
+			fields = new ArrayList<Field>();
+
+			for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+
+				for (final Field field : current.getDeclaredFields()) {
+
+					if (!Modifier.isStatic(field.getModifiers()) && !field.getType().isPrimitive()) {
+
+						try {
+							field.setAccessible(true);
+							fields.add(field);
+
+						} catch (RuntimeException rex) {
+
+							// inaccessible on newer JVMs, not counted
+						}
+					}
+				}
+			}
+
+			fieldCache.put(type, fields);
+		}
+
+		return fields;
+	}
+
+	private static long getSize(final Class<?> type) {
+
+		if (type == Long.TYPE || type == Double.TYPE) {
+			return 8L;
+		}
+
+		if (type == Integer.TYPE || type == Float.TYPE) {
+			return 4L;
+		}
+
+		if (type == Short.TYPE || type == Character.TYPE) {
+			return 2L;
+		}
+
+		if (type == Byte.TYPE || type == Boolean.TYPE) {
+			return 1L;
+		}
+
+		// compressed reference
+		return 4L;
+	}
+
+	private static long align(final long size) {
+		return (size + 7L) & ~7L;
+	}
+}
@@ -0,0 +1,366 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.annotations.Expose;
+import com.google.gson.reflect.TypeToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ * Tests the MessagePack negotiation of {@see StructrClient} against a local
+ * stub server, and compares the size and decoding time of MessagePack and
+ * JSON for 10000 entities.
+ *
+ * @author Christian Morgner
+ */
+public class MessagePackTest extends TestCase {
+
+	private static final int SIZE = 10000;
+
+	private static final Type RESULT_TYPE = new TypeToken<StructrObject.StructrCollectionResult<Product>>() {}.getType();
+
+	private HttpClientTransport transport = null;
+	private StructrClient client          = null;
+	private StubServer server             = null;
+	private volatile boolean supported    = true;
+	private String json                   = null;
+	private byte[] packed                 = null;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		json   = Product.collection(SIZE);
+		packed = encode(new JsonParser().parse(json));
+		server = new StubServer(new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+
+				final String accept = exchange.getRequestHeaders().getFirst("Accept");
+
+				if (supported && accept != null && accept.contains(MessagePack.CONTENT_TYPE)) {
+
+					exchange.getResponseHeaders().add("Content-Type", MessagePack.CONTENT_TYPE);
+					exchange.sendResponseHeaders(200, packed.length);
+
+					final OutputStream out = exchange.getResponseBody();
+
+					out.write(packed);
+					out.close();
+
+				} else {
+
+					server.send(exchange, 200, json);
+				}
+			}
+		});
+
+		transport = HttpClientTransport.create(4, 4, null);
+		client    = new StructrClient(server.getUrl(), "admin", "admin");
+
+		client.setTransport(transport);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		transport.shutdown();
+		server.stop();
+	}
+
+	public void testDecodesLikeJson() throws Throwable {
+
+		final List<Product> expected = client.dbList(Product.class, "name", true);
+
+		client.setMessagePackEnabled(true);
+
+		final List<Product> actual = client.dbList(Product.class, "name", true);
+
+		assertEquals(SIZE, actual.size());
+
+		for (int i = 0; i < SIZE; i += 997) {
+			assertEquals(client.toJson(expected.get(i)), client.toJson(actual.get(i)));
+		}
+
+		// the dates were sent as MessagePack timestamps
+		assertEquals(expected.get(3).getCreated(), actual.get(3).getCreated());
+	}
+
+	public void testFallsBackToJson() throws Throwable {
+
+		supported = false;
+		client.setMessagePackEnabled(true);
+
+		assertEquals(SIZE, client.dbList(Product.class, "name", true).size());
+	}
+
+	public void testCodecComparison() throws Throwable {
+
+		// warm up both decoders
+		decodeJson();
+		decodePacked();
+
+		long time = System.nanoTime();
+
+		final List<Product> fromJson = decodeJson();
+		final long jsonTime          = System.nanoTime() - time;
+
+		time = System.nanoTime();
+
+		final List<Product> fromPacked = decodePacked();
+		final long packedTime          = System.nanoTime() - time;
+
+		final int jsonSize = json.getBytes("UTF-8").length;
+
+		System.out.println("MessagePackTest: " + SIZE + " entities with 8 properties");
+		System.out.println("  JSON:        " + jsonSize + " bytes, decoded in " + (jsonTime / 1000000L) + " ms");
+		System.out.println("  MessagePack: " + packed.length + " bytes, decoded in " + (packedTime / 1000000L) + " ms");
+
+		assertEquals(SIZE, fromJson.size());
+		assertEquals(SIZE, fromPacked.size());
+		assertTrue(packed.length < jsonSize);
+	}
+
+	public void testSkipsUnknownProperties() throws Throwable {
+
+		final String document = "{\"extra\":{\"a\":[1,\"x\",{\"b\":null}],\"c\":2.5},\"id\":\"1\",\"name\":\"first\",\"quantity\":3}";
+		final Product product  = client.getGson().fromJson(new MessagePack(new ByteArrayInputStream(encode(new JsonParser().parse(document)))), Product.class);
+
+		assertEquals("1", product.getId());
+		assertEquals("first", product.getName());
+		assertEquals(Integer.valueOf(3), product.getQuantity());
+	}
+
+	public void testMapsAreDecodedFromTree() throws Throwable {
+
+		assertTrue(MessagePack.canStream(RESULT_TYPE));
+		assertFalse(MessagePack.canStream(Tagged.class));
+		assertFalse(MessagePack.canStream(new TypeToken<StructrObject.StructrCollectionResult<Tagged>>() {}.getType()));
+
+		packed = encode(new JsonParser().parse("{\"result\":[{\"id\":\"1\",\"counts\":{\"a\":1,\"b\":2}}],\"result_count\":1}"));
+		client.setMessagePackEnabled(true);
+
+		final List<Tagged> tagged = client.dbList(Tagged.class, "name", true);
+
+		assertEquals(1, tagged.size());
+		assertEquals(Integer.valueOf(2), tagged.get(0).counts.get("b"));
+	}
+
+	public void testTimestamps() throws Throwable {
+
+		// epoch, leap days, century boundaries and a date before the epoch
+		for (final long seconds : new long[] { 0L, 951782400L, 1330516799L, 946684799L, 4102444800L, 253402300799L, -86400L }) {
+
+			final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+			final DataOutputStream out         = new DataOutputStream(buffer);
+
+			// { "created": timestamp 96 }
+			out.writeByte(0x81);
+			writeString(out, "created");
+			out.writeByte(0xc7);
+			out.writeByte(12);
+			out.writeByte(-1);
+			out.writeInt(0);
+			out.writeLong(seconds);
+			out.close();
+
+			final Product product = client.getGson().fromJson(new MessagePack(new ByteArrayInputStream(buffer.toByteArray())), Product.class);
+
+			assertEquals(seconds * 1000L, product.getCreated().getTime());
+		}
+	}
+
+	public void testRejectsNegativeLengths() throws Throwable {
+
+		// str 32, bin 32, ext 32, array 32 and map 32 with a length of 2^31
+		for (final int type : new int[] { 0xdb, 0xc6, 0xc9, 0xdd, 0xdf }) {
+
+			final MessagePack reader = new MessagePack(new ByteArrayInputStream(new byte[] { (byte)type, (byte)0x80, 0, 0, 0 }));
+			try {
+
+				reader.peek();
+				fail("Negative length of type 0x" + Integer.toHexString(type) + " was accepted");
+
+			} catch (IOException expected) {
+
+				assertTrue(expected.getMessage(), expected.getMessage().startsWith("Invalid MessagePack length"));
+			}
+		}
+	}
+
+	// ----- private methods -----
+	private List<Product> decodeJson() {
+
+		final StructrObject.StructrCollectionResult<Product> result = client.getGson().fromJson(json, RESULT_TYPE);
+		return result.getResult();
+	}
+
+	private List<Product> decodePacked() throws IOException {
+
+		final MessagePack reader = new MessagePack(new ByteArrayInputStream(packed));
+		try {
+
+			final StructrObject.StructrCollectionResult<Product> result = client.getGson().fromJson(reader, RESULT_TYPE);
+			return result.getResult();
+
+		} finally {
+
+			reader.close();
+		}
+	}
+
+	/**
+	 * Encodes the given JSON tree with MessagePack, like a server would.
+	 * Properties named "created" are encoded as timestamps.
+	 */
+	private static byte[] encode(final JsonElement element) throws IOException, ParseException {
+
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final DataOutputStream out         = new DataOutputStream(buffer);
+
+		write(out, element, new SimpleDateFormat(StructrObject.DATE_FORMAT));
+		out.close();
+
+		return buffer.toByteArray();
+	}
+
+	private static void write(final DataOutputStream out, final JsonElement element, final SimpleDateFormat dateFormat) throws IOException, ParseException {
+
+		if (element.isJsonNull()) {
+
+			out.writeByte(0xc0);
+
+		} else if (element.isJsonObject()) {
+
+			final JsonObject object = element.getAsJsonObject();
+			final int size          = object.entrySet().size();
+
+			if (size < 16) {
+
+				out.writeByte(0x80 | size);
+
+			} else {
+
+				out.writeByte(0xde);
+				out.writeShort(size);
+			}
+
+			for (final Map.Entry<String, JsonElement> entry : object.entrySet()) {
+
+				writeString(out, entry.getKey());
+
+				if ("created".equals(entry.getKey())) {
+
+					// timestamp 32
+					out.writeByte(0xd6);
+					out.writeByte(-1);
+					out.writeInt((int)(dateFormat.parse(entry.getValue().getAsString()).getTime() / 1000L));
+
+				} else {
+
+					write(out, entry.getValue(), dateFormat);
+				}
+			}
+
+		} else if (element.isJsonArray()) {
+
+			final JsonArray array = element.getAsJsonArray();
+
+			out.writeByte(0xdd);
+			out.writeInt(array.size());
+
+			for (final JsonElement child : array) {
+				write(out, child, dateFormat);
+			}
+
+		} else {
+
+			final JsonPrimitive primitive = element.getAsJsonPrimitive();
+
+			if (primitive.isBoolean()) {
+
+				out.writeByte(primitive.getAsBoolean() ? 0xc3 : 0xc2);
+
+			} else if (primitive.isNumber()) {
+
+				final String value = primitive.getAsString();
+
+				if (value.contains(".")) {
+
+					out.writeByte(0xcb);
+					out.writeDouble(primitive.getAsDouble());
+
+				} else if (primitive.getAsInt() >= 0 && primitive.getAsInt() < 128) {
+
+					out.writeByte(primitive.getAsInt());
+
+				} else {
+
+					out.writeByte(0xd2);
+					out.writeInt(primitive.getAsInt());
+				}
+
+			} else {
+
+				writeString(out, primitive.getAsString());
+			}
+		}
+	}
+
+	private static void writeString(final DataOutputStream out, final String value) throws IOException {
+
+		final byte[] bytes = value.getBytes("UTF-8");
+
+		if (bytes.length < 32) {
+
+			out.writeByte(0xa0 | bytes.length);
+
+		} else {
+
+			out.writeByte(0xd9);
+			out.writeByte(bytes.length);
+		}
+
+		out.write(bytes);
+	}
+
+	// ----- nested classes -----
+	public static class Tagged extends StructrObject {
+
+		@Expose
+		private Map<String, Integer> counts = null;
+	}
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import junit.framework.TestCase;
+
+/**
+ * @author Christian Morgner
+ */
+public class OptimisticLockingTest extends TestCase {
+
+	private HttpClientTransport transport = null;
+	private StructrClient client          = null;
+	private StubServer server             = null;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		// the entity was modified on the server, its current ETag is "v2"
+		server = new StubServer(new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+
+				if ("GET".equals(exchange.getRequestMethod())) {
+
+					exchange.getResponseHeaders().add("ETag", "\"v2\"");
+					server.send(exchange, 200, "{\"result\":" + StubServer.example("1", "remote", 7) + "}");
+
+				} else if ("\"v2\"".equals(exchange.getRequestHeaders().getFirst("If-Match"))) {
+
+					StubServer.readBody(exchange);
+					exchange.getResponseHeaders().add("ETag", "\"v3\"");
+					server.send(exchange, 200, "{}");
+
+				} else {
+
+					StubServer.readBody(exchange);
+					server.send(exchange, 412, "{}");
+				}
+			}
+		});
+
+		transport = HttpClientTransport.create(4, 4, null);
+		client    = new StructrClient(server.getUrl(), "admin", "admin");
+
+		client.setTransport(transport);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		transport.shutdown();
+		server.stop();
+	}
+
+	public void testMergedStateIsCopiedIntoEntity() throws Throwable {
+
+		final Example entity = new Example("1", "local");
+
+		entity.setEtag("\"v1\"");
+
+		client.setOptimisticLocking(true, new ConflictHandler() {
+
+			@Override
+			public StructrObject resolve(final StructrObject local, final StructrObject remote) {
+
+				// keep the local name and the remote count in a new instance
+				final Example merged = new Example(remote.getId(), ((Example)local).getName());
+				merged.setCount(((Example)remote).getCount());
+
+				return merged;
+			}
+		});
+
+		client.dbStore(entity);
+
+		assertEquals("local", entity.getName());
+		assertEquals(Integer.valueOf(7), entity.getCount());
+		assertEquals("\"v3\"", entity.getEtag());
+		assertEquals(3, server.getRequestCount());
+	}
+
+	public void testConflictWithoutHandlerFails() throws Throwable {
+
+		final Example entity = new Example("1", "local");
+
+		entity.setEtag("\"v1\"");
+		client.setOptimisticLocking(true, null);
+
+		try {
+			client.dbStore(entity);
+			fail("The conflict was not reported");
+
+		} catch (StructrException sex) {
+			assertTrue(sex.isConflict());
+		}
+
+		assertEquals("\"v1\"", entity.getEtag());
+	}
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import junit.framework.TestCase;
+import org.apache.http.entity.ByteArrayEntity;
+
+/**
+ * @author Christian Morgner
+ */
+public class PooledReaderTest extends TestCase {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final String TEXT   = "{\"name\":\"Grüße, café, naïve\"}";
+
+	public void testDefaultCharsetIsUtf8() throws IOException {
+		assertEquals(TEXT, read(entity(TEXT.getBytes("UTF-8"), "application/json")));
+	}
+
+	public void testDeclaredCharset() throws IOException {
+
+		assertEquals(TEXT, read(entity(TEXT.getBytes("ISO-8859-1"), "application/json; charset=ISO-8859-1")));
+		assertEquals(TEXT, read(entity(TEXT.getBytes("UTF-16BE"), "application/json;charset=UTF-16BE")));
+
+		// the pooled reader switches back to UTF-8
+		assertEquals(TEXT, read(entity(TEXT.getBytes("UTF-8"), "application/json; charset=utf-8")));
+	}
+
+	public void testUnsupportedCharset() throws IOException {
+
+		try {
+			read(entity(TEXT.getBytes("UTF-8"), "application/json; charset=x-unknown"));
+			fail("Unsupported charset was accepted");
+
+		} catch (IOException expected) {
+		}
+	}
+
+	public void testNestedRead() throws IOException {
+
+		final PooledReader outer = PooledReader.obtain(entity(TEXT.getBytes("UTF-8"), null));
+		try {
+			assertEquals(TEXT, read(entity(TEXT.getBytes("ISO-8859-1"), "text/plain; charset=ISO-8859-1")));
+			assertEquals(TEXT, drain(outer));
+
+		} finally {
+
+			outer.close();
+		}
+	}
+
+	public void testAllocations() throws IOException {
+
+		final int reads    = 1000;
+		final byte[] data   = TEXT.getBytes("UTF-8");
+		final char[] chars  = new char[256];
+
+		// warm up both paths
+		readPooled(data, chars, reads);
+		readUnpooled(data, chars, reads);
+
+		long allocated = Memory.getAllocatedBytes();
+		readPooled(data, chars, reads);
+		final long pooled = Memory.getAllocatedBytes() - allocated;
+
+		allocated = Memory.getAllocatedBytes();
+		readUnpooled(data, chars, reads);
+		final long unpooled = Memory.getAllocatedBytes() - allocated;
+
+		if (allocated < 0) {
+			return;
+		}
+
+		System.out.println("PooledReaderTest: " + reads + " small responses");
+		System.out.println("  PooledReader:      " + (pooled / reads) + " bytes allocated per read");
+		System.out.println("  InputStreamReader: " + (unpooled / reads) + " bytes allocated per read");
+
+		assertTrue(pooled * 4 < unpooled);
+	}
+
+	// ----- private methods -----
+	private void readPooled(final byte[] data, final char[] chars, final int reads) throws IOException {
+
+		for (int i = 0; i < reads; i++) {
+
+			final PooledReader reader = PooledReader.obtain(new ByteArrayInputStream(data), UTF_8);
+			try {
+				while (reader.read(chars, 0, chars.length) != -1);
+
+			} finally {
+
+				reader.close();
+			}
+		}
+	}
+
+	private void readUnpooled(final byte[] data, final char[] chars, final int reads) throws IOException {
+
+		for (int i = 0; i < reads; i++) {
+
+			final Reader reader = new InputStreamReader(new ByteArrayInputStream(data), "UTF-8");
+			try {
+				while (reader.read(chars, 0, chars.length) != -1);
+
+			} finally {
+
+				reader.close();
+			}
+		}
+	}
+
+	private ByteArrayEntity entity(final byte[] data, final String contentType) {
+
+		final ByteArrayEntity entity = new ByteArrayEntity(data);
+
+		if (contentType != null) {
+			entity.setContentType(contentType);
+		}
+
+		return entity;
+	}
+
+	private String read(final ByteArrayEntity entity) throws IOException {
+
+		final PooledReader reader = PooledReader.obtain(entity);
+		try {
+			return drain(reader);
+
+		} finally {
+
+			reader.close();
+		}
+	}
+
+	private String drain(final Reader reader) throws IOException {
+
+		final StringBuilder buf = new StringBuilder();
+		final char[] chars      = new char[7];
+		int count               = 0;
+
+		while ((count = reader.read(chars, 0, chars.length)) != -1) {
+			buf.append(chars, 0, count);
+		}
+
+		return buf.toString();
+	}
+}
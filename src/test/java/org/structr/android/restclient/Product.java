@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.google.gson.annotations.Expose;
+import java.util.Date;
+
+/**
+ * A typical entity with eight properties and repeated values, for the
+ * memory and speed comparisons of the tests.
+ *
+ * @author Christian Morgner
+ */
+public class Product extends StructrObject {
+
+	private static final String[] STATUS = { "active", "inactive", "pending", "deleted" };
+
+	@Expose
+	private String name = null;
+
+	@Expose @Interned
+	private String status = null;
+
+	@Expose @Interned
+	private String category = null;
+
+	@Expose @Interned(global = true)
+	private String owner = null;
+
+	@Expose
+	private Double price = null;
+
+	@Expose
+	private Integer quantity = null;
+
+	@Expose
+	private Boolean available = null;
+
+	@Expose
+	private Date created = null;
+
+	public String getName() {
+		return name;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public String getCategory() {
+		return category;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public Double getPrice() {
+		return price;
+	}
+
+	public Integer getQuantity() {
+		return quantity;
+	}
+
+	public Boolean getAvailable() {
+		return available;
+	}
+
+	public Date getCreated() {
+		return created;
+	}
+
+	/**
+	 * @return the JSON representation of the product with the given index
+	 */
+	public static String json(final int index) {
+
+		final StringBuilder buf = new StringBuilder();
+
+		buf.append("{\"id\":\"").append(String.format("%032x", index)).append("\"");
+		buf.append(",\"type\":\"Product\"");
+		buf.append(",\"name\":\"Product ").append(index).append("\"");
+		buf.append(",\"status\":\"").append(STATUS[index % STATUS.length]).append("\"");
+		buf.append(",\"category\":\"category ").append(index % 20).append("\"");
+		buf.append(",\"owner\":\"").append(String.format("%032x", 1000000 + (index % 50))).append("\"");
+		buf.append(",\"price\":").append(index % 1000).append(".95");
+		buf.append(",\"quantity\":").append(index % 100);
+		buf.append(",\"available\":").append(index % 3 != 0);
+		buf.append(",\"created\":\"2012-03-").append(10 + (index % 20)).append("T12:00:00+0000\"");
+		buf.append("}");
+
+		return buf.toString();
+	}
+
+	/**
+	 * @return a collection response with the given number of products
+	 */
+	public static String collection(final int count) {
+
+		final String[] objects = new String[count];
+
+		for (int i = 0; i < count; i++) {
+			objects[i] = json(i);
+		}
+
+		return StubServer.collection(count, objects);
+	}
+}
@@ -0,0 +1,189 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import junit.framework.TestCase;
+
+/**
+ * Tests the batch relationship check of {@see StructrClient} against a
+ * local stub server that pages a parent's children.
+ *
+ * @author Christian Morgner
+ */
+public class RelatedTest extends TestCase {
+
+	private final List<String> requests   = Collections.synchronizedList(new ArrayList<String>());
+	private HttpClientTransport transport = null;
+	private StructrClient client          = null;
+	private StubServer server             = null;
+	private volatile int children         = 0;
+	private volatile int maxPageSize      = Integer.MAX_VALUE;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		server = new StubServer(new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+
+				final String method = exchange.getRequestMethod();
+				final String path   = exchange.getRequestURI().getPath();
+				final String query  = exchange.getRequestURI().getRawQuery();
+
+				requests.add(method + " " + path + (query != null ? "?" + query : ""));
+
+				if ("HEAD".equals(method)) {
+
+					final String childId = path.substring(path.lastIndexOf('/') + 1);
+					server.send(exchange, isChild(childId) ? 200 : 404, null);
+
+				} else {
+
+					server.send(exchange, 200, page(query));
+				}
+			}
+		});
+
+		transport = HttpClientTransport.create(4, 4, null);
+		client    = new StructrClient(server.getUrl(), "admin", "admin");
+
+		client.setTransport(transport);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		transport.shutdown();
+		server.stop();
+	}
+
+	public void testSmallBatchUsesHead() throws Throwable {
+
+		children = 1000;
+
+		final Set<String> related = client.dbIsRelated(Example.class, "1", Example.class, Arrays.asList(id(999), "unknown", id(5)));
+
+		assertEquals(new LinkedHashSet<String>(Arrays.asList(id(999), id(5))), related);
+
+		// one child to read the count, then one HEAD request per child
+		assertEquals(4, requests.size());
+		assertTrue(requests.get(0), requests.get(0).startsWith("GET "));
+		assertTrue(requests.get(1), requests.get(1).startsWith("HEAD "));
+	}
+
+	public void testLargeBatchReadsPages() throws Throwable {
+
+		children = 50;
+
+		final List<String> childIds = new ArrayList<String>();
+		for (int i = 0; i < 60; i += 6) {
+			childIds.add(id(i));
+		}
+
+		final Set<String> related = client.dbIsRelated(Example.class, "1", Example.class, childIds);
+
+		assertEquals(9, related.size());
+		assertFalse(related.contains(id(54)));
+		assertEquals(2, requests.size());
+	}
+
+	public void testCappedPageSize() throws Throwable {
+
+		children    = 50;
+		maxPageSize = 7;
+
+		final Set<String> related = client.dbIsRelated(Example.class, "1", Example.class, Arrays.asList(id(0), id(49), id(50), id(51), id(52)));
+
+		// the last child is on the last page, the unknown children end the check at the count
+		assertEquals(new LinkedHashSet<String>(Arrays.asList(id(0), id(49))), related);
+		assertEquals(1 + ((50 + 6) / 7), requests.size());
+	}
+
+	public void testStopsWhenAllChildrenAreFound() throws Throwable {
+
+		children    = 300;
+		maxPageSize = 20;
+
+		final List<String> childIds = new ArrayList<String>();
+		for (int i = 0; i < 30; i++) {
+			childIds.add(id(i));
+		}
+
+		assertEquals(30, client.dbIsRelated(Example.class, "1", Example.class, childIds).size());
+		assertEquals(3, requests.size());
+	}
+
+	public void testNoChildren() throws Throwable {
+
+		assertTrue(client.dbIsRelated(Example.class, "1", Example.class, Arrays.asList(id(1))).isEmpty());
+		assertEquals(1, requests.size());
+	}
+
+	// ----- private methods -----
+	private String page(final String query) {
+
+		final Map<String, String> params = new HashMap<String, String>();
+
+		for (final String part : query.split("&")) {
+
+			final int pos = part.indexOf('=');
+			if (pos > 0) {
+				params.put(part.substring(0, pos), part.substring(pos + 1));
+			}
+		}
+
+		final int pageSize      = Math.min(maxPageSize, Integer.parseInt(params.get("pageSize")));
+		final int start         = Math.min(children, (Integer.parseInt(params.get("page")) - 1) * pageSize);
+		final int end           = Math.min(children, start + pageSize);
+		final List<String> page = new ArrayList<String>();
+
+		for (int i = start; i < end; i++) {
+			page.add(StubServer.example(id(i), "child", i));
+		}
+
+		return StubServer.collection(children, page.toArray(new String[page.size()]));
+	}
+
+	private boolean isChild(final String childId) {
+
+		try {
+			return childId.startsWith("c") && Integer.parseInt(childId.substring(1)) < children;
+
+		} catch (NumberFormatException nfex) {
+
+			return false;
+		}
+	}
+
+	private static String id(final int index) {
+		return String.format("c%04d", index);
+	}
+}
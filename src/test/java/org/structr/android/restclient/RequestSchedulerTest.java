@@ -0,0 +1,181 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * @author Christian Morgner
+ */
+public class RequestSchedulerTest extends TestCase {
+
+	private HttpClientTransport transport = null;
+	private StructrClient client          = null;
+	private StubServer server             = null;
+	private String body                   = null;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		body   = StubServer.collection(1, StubServer.example("1", "one", 1));
+		server = new StubServer(new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				server.send(exchange, 200, body);
+			}
+		});
+
+		transport = HttpClientTransport.create(16, 16, null);
+		client    = new StructrClient(server.getUrl(), "admin", "admin");
+
+		client.setTransport(transport);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		transport.shutdown();
+		server.stop();
+	}
+
+	public void testRecordedMeasurements() {
+
+		final RequestScheduler scheduler = new RequestScheduler();
+
+		assertEquals(RequestScheduler.Link.MODERATE, scheduler.getLink());
+		assertEquals(50, scheduler.getPageSize(50));
+
+		for (int i = 0; i < 10; i++) {
+			scheduler.record("host", 50L, 100000L, 200L);
+		}
+
+		assertEquals(RequestScheduler.Link.GOOD, scheduler.getLink());
+		assertEquals(RequestScheduler.Link.GOOD, scheduler.getLink("host"));
+		assertEquals(6, scheduler.getMaxConcurrency());
+		assertEquals(100, scheduler.getPageSize(50));
+		assertEquals(2, scheduler.getPrefetchConcurrency());
+		assertFalse(scheduler.shouldDefer());
+
+		for (int i = 0; i < 10; i++) {
+			scheduler.record("host", 2000L, 10000L, 5000L);
+		}
+
+		assertEquals(RequestScheduler.Link.POOR, scheduler.getLink());
+		assertEquals(2, scheduler.getMaxConcurrency());
+		assertEquals(25, scheduler.getPageSize(50));
+		assertEquals(0, scheduler.getPrefetchConcurrency());
+		assertTrue(scheduler.shouldDefer());
+	}
+
+	public void testFastServerIsGood() throws Throwable {
+
+		for (int i = 0; i < 3; i++) {
+			assertEquals(1, client.dbList(Example.class, "name", true).size());
+		}
+
+		assertEquals(RequestScheduler.Link.GOOD, client.getScheduler().getLink());
+		assertEquals(RequestScheduler.Link.GOOD, client.getScheduler().getLink(server.getUrl()));
+	}
+
+	public void testLatencyIsMeasured() throws Throwable {
+
+		server.setLatency(RequestScheduler.POOR_RTT + 200L);
+
+		assertEquals(1, client.dbList(Example.class, "name", true).size());
+
+		final RequestScheduler scheduler = client.getScheduler();
+
+		System.out.println("RequestSchedulerTest: rtt " + Math.round(scheduler.getRtt()) + " ms with " + (RequestScheduler.POOR_RTT + 200L) + " ms latency");
+
+		assertTrue(scheduler.getRtt() >= RequestScheduler.POOR_RTT);
+		assertEquals(RequestScheduler.Link.POOR, scheduler.getLink());
+		assertTrue(scheduler.shouldDefer());
+	}
+
+	public void testBandwidthIsMeasured() throws Throwable {
+
+		final List<String> objects = new ArrayList<String>();
+		int size                   = 0;
+
+		// a body that is large enough to yield a throughput sample
+		for (int i = 0; size < RequestScheduler.MIN_THROUGHPUT_SAMPLE * 2; i++) {
+
+			final String object = StubServer.example(Integer.toString(i), "example " + i, i);
+
+			objects.add(object);
+			size += object.length() + 1;
+		}
+
+		body = StubServer.collection(objects.size(), objects.toArray(new String[objects.size()]));
+
+		server.setBandwidth(4);
+
+		assertEquals(objects.size(), client.dbList(Example.class, "name", true).size());
+
+		final RequestScheduler scheduler = client.getScheduler();
+
+		System.out.println("RequestSchedulerTest: throughput " + Math.round(scheduler.getThroughput()) + " kB/s with a 4 kB/s link");
+
+		assertTrue(scheduler.getThroughput() > 0);
+		assertTrue(scheduler.getThroughput() < RequestScheduler.POOR_THROUGHPUT);
+		assertEquals(RequestScheduler.Link.POOR, scheduler.getLink());
+	}
+
+	public void testConcurrencyIsLimited() throws Throwable {
+
+		final List<Thread> threads = new ArrayList<Thread>();
+
+		client.getScheduler().setConcurrency(3, 3, 3);
+		server.setLatency(100L);
+
+		for (int i = 0; i < 10; i++) {
+
+			final Thread thread = new Thread() {
+
+				@Override
+				public void run() {
+
+					try {
+						client.dbList(Example.class, "name", true);
+
+					} catch (Throwable t) {
+						t.printStackTrace();
+					}
+				}
+			};
+
+			threads.add(thread);
+			thread.start();
+		}
+
+		for (final Thread thread : threads) {
+			thread.join();
+		}
+
+		assertEquals(10, server.getRequestCount());
+		assertTrue(server.getMaxConcurrentRequests() <= 3);
+		assertTrue(server.getMaxConcurrentRequests() > 1);
+	}
+}
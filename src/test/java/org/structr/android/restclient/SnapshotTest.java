@@ -0,0 +1,204 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.google.gson.reflect.TypeToken;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Compares loading 50000 entities from a {@see Snapshot} with decoding
+ * them from JSON.
+ *
+ * @author Christian Morgner
+ */
+public class SnapshotTest extends TestCase {
+
+	private static final int SIZE = 50000;
+
+	private static final Type RESULT_TYPE = new TypeToken<StructrObject.StructrCollectionResult<Product>>() {}.getType();
+
+	private StructrClient client = null;
+	private List<Product> source = null;
+	private String json          = null;
+	private File file            = null;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		client = new StructrClient();
+		json   = Product.collection(SIZE);
+		source = decode(json);
+		file   = File.createTempFile("snapshot", ".bin");
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+	}
+
+	public void testRoundTrip() throws Throwable {
+
+		Snapshot.write(client, file, Product.class, source);
+
+		final List<Product> snapshot = Snapshot.read(client, file, Product.class);
+
+		assertEquals(SIZE, snapshot.size());
+
+		for (int i = 0; i < SIZE; i += 4999) {
+
+			final Product expected = source.get(i);
+			final Product actual   = snapshot.get(i);
+
+			assertEquals(expected.getId(), actual.getId());
+			assertEquals(expected.getName(), actual.getName());
+			assertEquals(expected.getStatus(), actual.getStatus());
+			assertEquals(expected.getOwner(), actual.getOwner());
+			assertEquals(expected.getPrice(), actual.getPrice());
+			assertEquals(expected.getQuantity(), actual.getQuantity());
+			assertEquals(expected.getAvailable(), actual.getAvailable());
+			assertEquals(expected.getCreated(), actual.getCreated());
+		}
+
+		// entities are decoded once and cached
+		assertSame(snapshot.get(1), snapshot.get(1));
+	}
+
+	public void testWrongTypeFails() throws Throwable {
+
+		Snapshot.write(client, file, Product.class, source.subList(0, 10));
+
+		try {
+			Snapshot.read(client, file, Example.class);
+			fail("The snapshot of another type was read");
+
+		} catch (IOException expected) {
+		}
+	}
+
+	public void testChangedPropertyTypeIsStale() throws Throwable {
+
+		Snapshot.write(client, file, Product.class, source.subList(0, 10));
+
+		// pretend that the snapshot was written when quantity was a Boolean
+		final byte[] bytes = readFile();
+		final String data  = new String(bytes, "ISO-8859-1");
+		final int position = data.indexOf("class java.lang.Integer");
+
+		assertTrue(position > 0);
+
+		System.arraycopy("class java.lang.Boolean".getBytes("ISO-8859-1"), 0, bytes, position, 23);
+		writeFile(bytes);
+
+		try {
+			Snapshot.read(client, file, Product.class);
+			fail("The stale snapshot was read");
+
+		} catch (IOException expected) {
+			assertTrue(expected.getMessage(), expected.getMessage().contains("quantity"));
+		}
+	}
+
+	public void testLoadTime() throws Throwable {
+
+		Snapshot.write(client, file, Product.class, source);
+
+		// warm up both code paths
+		decode(json);
+		firstScreen(Snapshot.read(client, file, Product.class));
+
+		long time = System.nanoTime();
+
+		final List<Product> decoded = decode(json);
+		firstScreen(decoded);
+
+		final long jsonTime = System.nanoTime() - time;
+
+		time = System.nanoTime();
+
+		final List<Product> snapshot = Snapshot.read(client, file, Product.class);
+		firstScreen(snapshot);
+
+		final long snapshotTime = System.nanoTime() - time;
+
+		time = System.nanoTime();
+
+		for (int i = 0; i < SIZE; i++) {
+			snapshot.get(i);
+		}
+
+		final long snapshotAllTime = System.nanoTime() - time + snapshotTime;
+
+		System.out.println("SnapshotTest: " + SIZE + " entities, " + json.length() + " bytes of JSON, " + file.length() + " bytes of snapshot");
+		System.out.println("  JSON decode:                 " + (jsonTime / 1000000L) + " ms");
+		System.out.println("  snapshot, first 20 entities: " + (snapshotTime / 1000000L) + " ms");
+		System.out.println("  snapshot, all entities:      " + (snapshotAllTime / 1000000L) + " ms");
+
+		assertEquals(SIZE, decoded.size());
+		assertTrue(snapshotTime < jsonTime);
+	}
+
+	// ----- private methods -----
+	private List<Product> decode(final String source) {
+
+		final StructrObject.StructrCollectionResult<Product> result = client.getGson().fromJson(source, RESULT_TYPE);
+
+		return result.getResult();
+	}
+
+	private byte[] readFile() throws IOException {
+
+		final byte[] bytes         = new byte[(int)file.length()];
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try {
+			raf.readFully(bytes);
+
+		} finally {
+
+			raf.close();
+		}
+
+		return bytes;
+	}
+
+	private void writeFile(final byte[] bytes) throws IOException {
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+		try {
+			raf.write(bytes);
+
+		} finally {
+
+			raf.close();
+		}
+	}
+
+	private static void firstScreen(final List<Product> products) {
+
+		for (int i = 0; i < 20; i++) {
+			assertNotNull(products.get(i).getName());
+		}
+	}
+}
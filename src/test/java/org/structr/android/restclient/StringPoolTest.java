@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.google.gson.annotations.Expose;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * @author Christian Morgner
+ */
+public class StringPoolTest extends TestCase {
+
+	private static final int SIZE = 10000;
+
+	private HttpClientTransport transport = null;
+	private StructrClient client          = null;
+	private StubServer server             = null;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		final String body = Product.collection(SIZE);
+
+		server = new StubServer(new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+				server.send(exchange, 200, body);
+			}
+		});
+
+		transport = HttpClientTransport.create(4, 4, null);
+		client    = new StructrClient(server.getUrl(), "admin", "admin");
+
+		client.setTransport(transport);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		transport.shutdown();
+		server.stop();
+	}
+
+	public void testIntern() {
+
+		final StringPool pool = new StringPool(2);
+		final String first    = new String("active");
+
+		assertSame(first, pool.intern(first));
+		assertSame(first, pool.intern(new String("active")));
+		assertNull(pool.intern(null));
+		assertEquals(1L, pool.getHits());
+		assertEquals(40L + 2L * "active".length(), pool.getSavedBytes());
+
+		// the least recently used value is evicted
+		pool.intern("pending");
+		pool.intern("active");
+		pool.intern("deleted");
+
+		assertEquals(2, pool.size());
+		assertSame(first, pool.intern(new String("active")));
+	}
+
+	public void testInternedFieldsAreShared() throws Throwable {
+
+		final List<Product> products = client.dbList(Product.class, "name", true);
+
+		assertEquals(SIZE, products.size());
+
+		// status, category and owner repeat every 4, 20 and 50 entities
+		assertSame(products.get(0).getStatus(), products.get(4).getStatus());
+		assertSame(products.get(0).getCategory(), products.get(20).getCategory());
+		assertSame(products.get(0).getOwner(), products.get(50).getOwner());
+		assertNotSame(products.get(0).getName(), products.get(1).getName());
+
+		// the global pool keeps the owners across requests
+		final List<Product> again = client.dbList(Product.class, "name", true);
+
+		assertSame(products.get(0).getOwner(), again.get(0).getOwner());
+		assertNotSame(products.get(0).getStatus(), again.get(0).getStatus());
+	}
+
+	/**
+	 * Compares the heap of both representations on the synthetic payload
+	 * generated by {@see Product#collection}, whose values repeat in a fixed
+	 * pattern. The savings printed here are not taken from a recorded server
+	 * response and only indicate the order of magnitude.
+	 */
+	public void testMemorySaved() throws Throwable {
+
+		final List<PlainProduct> plain = client.dbList(PlainProduct.class, "name", true);
+		final List<Product> interned   = client.dbList(Product.class, "name", true);
+
+		final long plainHeap    = Memory.sizeOf(plain);
+		final long internedHeap = Memory.sizeOf(interned, StringPool.getGlobal());
+
+		System.out.println("StringPoolTest: " + SIZE + " synthetic entities with 3 repeated String properties");
+		System.out.println("  without @Interned: " + plainHeap + " bytes");
+		System.out.println("  with @Interned:    " + internedHeap + " bytes, " + (plainHeap - internedHeap) + " bytes saved");
+
+		assertTrue(internedHeap < plainHeap);
+	}
+
+	// ----- nested classes -----
+	/**
+	 * The same properties as {@see Product}, without deduplication.
+	 */
+	public static class PlainProduct extends StructrObject {
+
+		@Expose private String name      = null;
+		@Expose private String status    = null;
+		@Expose private String category  = null;
+		@Expose private String owner     = null;
+		@Expose private Double price     = null;
+		@Expose private Integer quantity = null;
+		@Expose private Boolean available = null;
+		@Expose private Date created     = null;
+	}
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import junit.framework.TestCase;
+
+/**
+ * Tests the decoding of captured error bodies against a local stub server.
+ *
+ * @author Christian Morgner
+ */
+public class StructrExceptionTest extends TestCase {
+
+	private static final String MESSAGE = "{\"code\":422,\"message\":\"Ungültige Größe\"}";
+
+	private HttpClientTransport transport = null;
+	private StructrClient client          = null;
+	private StubServer server             = null;
+	private volatile String encoding      = "UTF-8";
+	private volatile String charset       = null;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		server = new StubServer(new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+
+				final byte[] body = MESSAGE.getBytes(encoding);
+
+				exchange.getResponseHeaders().add("Content-Type", "application/json" + (charset != null ? "; charset=" + charset : ""));
+				exchange.sendResponseHeaders(422, body.length);
+
+				final OutputStream out = exchange.getResponseBody();
+
+				out.write(body);
+				out.close();
+			}
+		});
+
+		transport = HttpClientTransport.create(4, 4, null);
+		client    = new StructrClient(server.getUrl(), "admin", "admin");
+
+		client.setTransport(transport);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		transport.shutdown();
+		server.stop();
+	}
+
+	public void testDefaultCharset() throws Throwable {
+		assertEquals(MESSAGE, request().getResponseBody());
+	}
+
+	public void testResponseCharset() throws Throwable {
+
+		encoding = "ISO-8859-1";
+		charset  = "ISO-8859-1";
+
+		final StructrException exception = request();
+
+		assertEquals(MESSAGE, exception.getResponseBody());
+		assertEquals("Ungültige Größe", exception.getErrorMessage());
+	}
+
+	public void testUnsupportedCharset() throws Throwable {
+
+		// decoded as UTF-8
+		charset = "x-unknown";
+
+		assertEquals(MESSAGE, request().getResponseBody());
+	}
+
+	// ----- private methods -----
+	private StructrException request() throws Throwable {
+
+		try {
+			client.dbList(Example.class, "name", true);
+
+		} catch (StructrException sex) {
+			return sex;
+		}
+
+		throw new AssertionError("The error response was not reported");
+	}
+}
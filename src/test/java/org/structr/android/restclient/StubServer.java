@@ -0,0 +1,263 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local HTTP server for tests that answers requests with a configurable
+ * handler, and can simulate the latency and bandwidth of a slow network.
+ * All requests are handled by the same handler, regardless of their path.
+ *
+ * @author Christian Morgner
+ */
+public class StubServer {
+
+	private final AtomicLong bytesSent    = new AtomicLong();
+	private final AtomicInteger maxActive = new AtomicInteger();
+	private final AtomicInteger requests  = new AtomicInteger();
+	private final AtomicInteger active    = new AtomicInteger();
+	private ExecutorService executor      = null;
+	private HttpServer server             = null;
+	private volatile HttpHandler handler  = null;
+	private volatile long latency         = 0L;
+	private volatile int bandwidth        = 0;
+
+	/**
+	 * Creates and starts a new server on a free local port.
+	 */
+	public StubServer(final HttpHandler handler) throws IOException {
+
+		this.handler  = handler;
+		this.executor = Executors.newCachedThreadPool();
+		this.server   = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+
+		server.createContext("/", new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+
+				requests.incrementAndGet();
+
+				try {
+					StubServer.this.handler.handle(exchange);
+
+				} finally {
+
+					exchange.close();
+				}
+			}
+		});
+
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * @return the URL of the REST API of this server
+	 */
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/structr/rest";
+	}
+
+	/**
+	 * Sets the handler that answers the requests.
+	 */
+	public void setHandler(final HttpHandler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Sets the time before the response headers of {@see #send} are sent.
+	 *
+	 * @param latency the latency in milliseconds
+	 */
+	public void setLatency(final long latency) {
+		this.latency = latency;
+	}
+
+	/**
+	 * Limits the rate at which {@see #send} writes response bodies.
+	 *
+	 * @param bandwidth the bandwidth in kilobytes per second, 0 for no limit
+	 */
+	public void setBandwidth(final int bandwidth) {
+		this.bandwidth = bandwidth;
+	}
+
+	/**
+	 * @return the number of requests this server received
+	 */
+	public int getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * @return the number of response body bytes sent by {@see #send}
+	 */
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	/**
+	 * @return the maximum number of requests that waited for the response headers of {@see #send} at the same time
+	 */
+	public int getMaxConcurrentRequests() {
+		return maxActive.get();
+	}
+
+	/**
+	 * Sends a response with the configured latency and bandwidth.
+	 *
+	 * @param exchange the exchange
+	 * @param status the HTTP status code
+	 * @param body the response body, may be null
+	 */
+	public void send(final HttpExchange exchange, final int status, final String body) throws IOException {
+
+		final byte[] data = body != null ? body.getBytes("UTF-8") : new byte[0];
+
+		final int current = active.incrementAndGet();
+
+		while (true) {
+
+			final int max = maxActive.get();
+			if (current <= max || maxActive.compareAndSet(max, current)) {
+				break;
+			}
+		}
+
+		bytesSent.addAndGet(data.length);
+
+		try {
+			pause(latency);
+
+			if (data.length > 0) {
+				exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+			}
+
+			exchange.sendResponseHeaders(status, data.length > 0 ? data.length : -1);
+
+		} finally {
+
+			// the client releases its request slot when the headers arrive
+			active.decrementAndGet();
+		}
+
+		if (data.length > 0) {
+
+			final OutputStream out = exchange.getResponseBody();
+			final int chunkSize    = 1024;
+
+			for (int offset = 0; offset < data.length; offset += chunkSize) {
+
+				final int length = Math.min(chunkSize, data.length - offset);
+
+				out.write(data, offset, length);
+				out.flush();
+
+				// kilobytes per second are bytes per millisecond
+				if (bandwidth > 0) {
+					pause(length / bandwidth);
+				}
+			}
+
+			out.close();
+		}
+	}
+
+	/**
+	 * Stops this server.
+	 */
+	public void stop() {
+
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	/**
+	 * @return the body of the given request
+	 */
+	public static String readBody(final HttpExchange exchange) throws IOException {
+
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final InputStream in               = exchange.getRequestBody();
+		final byte[] data                  = new byte[1024];
+		int count                          = 0;
+
+		while ((count = in.read(data)) >= 0) {
+			buffer.write(data, 0, count);
+		}
+
+		return buffer.toString("UTF-8");
+	}
+
+	/**
+	 * @return a collection response with the given JSON objects
+	 */
+	public static String collection(final int resultCount, final String... objects) {
+
+		final StringBuilder buf = new StringBuilder("{\"result\":[");
+
+		for (int i = 0; i < objects.length; i++) {
+
+			if (i > 0) {
+				buf.append(",");
+			}
+
+			buf.append(objects[i]);
+		}
+
+		buf.append("],\"result_count\":").append(resultCount).append("}");
+
+		return buf.toString();
+	}
+
+	/**
+	 * @return a JSON object for an {@see Example} entity
+	 */
+	public static String example(final String id, final String name, final int count) {
+		return "{\"id\":\"" + id + "\",\"type\":\"Example\",\"name\":\"" + name + "\",\"count\":" + count + "}";
+	}
+
+	// ----- private methods -----
+	private static void pause(final long millis) throws IOException {
+
+		if (millis > 0) {
+
+			try {
+				Thread.sleep(millis);
+
+			} catch (InterruptedException iex) {
+				throw new IOException("Interrupted");
+			}
+		}
+	}
+}
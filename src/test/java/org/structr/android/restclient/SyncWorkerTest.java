@@ -0,0 +1,275 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@see SyncWorker} on a plain JVM, with tasks that record their
+ * execution and with a local stub server for stores and deletes.
+ *
+ * @author Christian Morgner
+ */
+public class SyncWorkerTest extends TestCase {
+
+	private final List<String> executed   = Collections.synchronizedList(new ArrayList<String>());
+	private HttpClientTransport transport = null;
+	private StructrClient client          = null;
+	private StubServer server             = null;
+	private SyncWorker worker             = null;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		server = new StubServer(new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+
+				StubServer.readBody(exchange);
+				executed.add(exchange.getRequestMethod());
+				server.send(exchange, 200, "{}");
+			}
+		});
+
+		transport = HttpClientTransport.create(4, 4, null);
+		client    = new StructrClient(server.getUrl(), "admin", "admin");
+		worker    = client.getSyncWorker();
+
+		client.setTransport(transport);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		worker.cancelAll();
+		transport.shutdown();
+		server.stop();
+	}
+
+	public void testTasksWithSameKeyAreMerged() throws Throwable {
+
+		worker.pause();
+		worker.enqueue(new RecordingTask("a", "first"), SyncWorker.PRIORITY_NORMAL);
+		worker.enqueue(new RecordingTask("a", "second"), SyncWorker.PRIORITY_NORMAL);
+		worker.enqueue(new RecordingTask(null, "third"), SyncWorker.PRIORITY_NORMAL);
+		worker.resume();
+
+		assertTrue(worker.awaitIdle(5000L));
+		assertEquals(Arrays.asList("second", "third"), sorted(executed));
+		assertEquals(1L, worker.getMergedCount());
+		assertEquals(2L, worker.getCompletedCount());
+	}
+
+	public void testHigherPriorityRunsFirst() throws Throwable {
+
+		worker.setLimits(1, 1, 1);
+		worker.pause();
+		worker.enqueue(new RecordingTask(null, "low"), SyncWorker.PRIORITY_LOW);
+		worker.enqueue(new RecordingTask(null, "normal"), SyncWorker.PRIORITY_NORMAL);
+		worker.enqueue(new RecordingTask(null, "high"), SyncWorker.PRIORITY_HIGH);
+		worker.resume();
+
+		assertTrue(worker.awaitIdle(5000L));
+		assertEquals(Arrays.asList("high", "normal", "low"), new ArrayList<String>(executed));
+	}
+
+	public void testDeleteReplacesQueuedStore() throws Throwable {
+
+		final Example entity = new Example("1", "one");
+
+		worker.pause();
+		worker.enqueueStore(entity, SyncWorker.PRIORITY_NORMAL);
+		worker.enqueueDelete(entity, SyncWorker.PRIORITY_NORMAL);
+		worker.resume();
+
+		assertTrue(worker.awaitIdle(5000L));
+		assertEquals(Arrays.asList("DELETE"), new ArrayList<String>(executed));
+	}
+
+	public void testStoreDoesNotReplaceQueuedDelete() throws Throwable {
+
+		final Example entity = new Example("1", "one");
+
+		worker.pause();
+		worker.enqueueDelete(entity, SyncWorker.PRIORITY_LOW);
+		worker.enqueueStore(entity, SyncWorker.PRIORITY_HIGH);
+		worker.resume();
+
+		assertTrue(worker.awaitIdle(5000L));
+		assertEquals(Arrays.asList("DELETE"), new ArrayList<String>(executed));
+		assertEquals(1L, worker.getMergedCount());
+	}
+
+	public void testPermanentFailuresDoNotBackOff() throws Throwable {
+
+		worker.pause();
+		worker.enqueue(new FailingTask(new StructrException(404, "Not Found", null)), SyncWorker.PRIORITY_NORMAL);
+		worker.enqueue(new FailingTask(new StructrException(404, "Not Found", null)), SyncWorker.PRIORITY_NORMAL);
+		worker.resume();
+
+		assertTrue(worker.awaitIdle(5000L));
+		assertEquals(2L, worker.getFailedCount());
+		assertEquals(0L, worker.getRetriedCount());
+
+		// the next task must not wait for a backoff
+		worker.enqueue(new RecordingTask(null, "next"), SyncWorker.PRIORITY_NORMAL);
+
+		assertTrue(worker.awaitIdle(500L));
+		assertEquals(Arrays.asList("next"), new ArrayList<String>(executed));
+	}
+
+	public void testTemporaryFailureIsRetried() throws Throwable {
+
+		final FailingTask task = new FailingTask(new IOException("Connection reset"));
+
+		worker.enqueue(task, SyncWorker.PRIORITY_NORMAL);
+
+		assertTrue(worker.awaitIdle(5000L));
+		assertEquals(2, task.attempts);
+		assertEquals(1L, worker.getRetriedCount());
+		assertEquals(1L, worker.getCompletedCount());
+		assertEquals(0L, worker.getFailedCount());
+	}
+
+	public void testRetriesBackOffWhileOtherTasksSucceed() throws Throwable {
+
+		final List<Long> attempts = Collections.synchronizedList(new ArrayList<Long>());
+		final long[] stop         = new long[] { System.currentTimeMillis() + 5000L };
+
+		worker.setLimits(4, 4, 4);
+		worker.setBackoff(100L, 10000L);
+
+		worker.enqueue(new SyncWorker.Task(null) {
+
+			@Override
+			public void execute(final StructrClient client) throws Throwable {
+
+				attempts.add(System.currentTimeMillis());
+				throw new StructrException(503, "Service Unavailable", null);
+			}
+
+		}, SyncWorker.PRIORITY_NORMAL);
+
+		// a stream of tasks that succeed, so that batches keep running
+		worker.enqueue(new TickTask(stop), SyncWorker.PRIORITY_NORMAL);
+		worker.enqueue(new TickTask(stop), SyncWorker.PRIORITY_NORMAL);
+
+		for (int i = 0; i < 100 && worker.getFailedCount() == 0; i++) {
+			Thread.sleep(50L);
+		}
+
+		stop[0] = 0L;
+
+		assertTrue(worker.awaitIdle(5000L));
+		assertEquals(1L, worker.getFailedCount());
+		assertEquals(4, attempts.size());
+
+		// each retry waits for twice the delay of the previous one, although the other tasks succeed
+		for (int i = 1; i < attempts.size(); i++) {
+			assertTrue("Retry " + i + " after " + (attempts.get(i) - attempts.get(i - 1)) + " ms", attempts.get(i) - attempts.get(i - 1) >= 100L << (i - 1));
+		}
+
+		assertTrue(executed.size() > 4);
+	}
+
+	// ----- private methods -----
+	private static List<String> sorted(final List<String> values) {
+
+		final List<String> copy = new ArrayList<String>(values);
+		Collections.sort(copy);
+
+		return copy;
+	}
+
+	// ----- nested classes -----
+	private class RecordingTask extends SyncWorker.Task {
+
+		private String name = null;
+
+		public RecordingTask(final String key, final String name) {
+
+			super(key);
+
+			this.name = name;
+		}
+
+		@Override
+		public void execute(final StructrClient client) throws Throwable {
+			executed.add(name);
+		}
+	}
+
+	/**
+	 * Succeeds and enqueues a new instance of itself until the given time.
+	 */
+	private class TickTask extends SyncWorker.Task {
+
+		private long[] stop = null;
+
+		public TickTask(final long[] stop) {
+
+			super(null);
+
+			this.stop = stop;
+		}
+
+		@Override
+		public void execute(final StructrClient client) throws Throwable {
+
+			executed.add("tick");
+			Thread.sleep(10L);
+
+			if (System.currentTimeMillis() < stop[0]) {
+				worker.enqueue(new TickTask(stop), SyncWorker.PRIORITY_NORMAL);
+			}
+		}
+	}
+
+	/**
+	 * Fails on the first attempt and succeeds on the second.
+	 */
+	private static class FailingTask extends SyncWorker.Task {
+
+		private Throwable failure = null;
+		private int attempts      = 0;
+
+		public FailingTask(final Throwable failure) {
+
+			super(null);
+
+			this.failure = failure;
+		}
+
+		@Override
+		public void execute(final StructrClient client) throws Throwable {
+
+			if (attempts++ == 0) {
+				throw failure;
+			}
+		}
+	}
+}
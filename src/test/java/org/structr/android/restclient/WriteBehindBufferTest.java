@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import junit.framework.TestCase;
+
+/**
+ * @author Christian Morgner
+ */
+public class WriteBehindBufferTest extends TestCase {
+
+	private final AtomicInteger stored    = new AtomicInteger();
+	private HttpClientTransport transport = null;
+	private WriteBehindBuffer buffer      = null;
+	private StructrClient client          = null;
+	private StubServer server             = null;
+	private volatile int status           = 200;
+
+	@Override
+	protected void setUp() throws Exception {
+
+		server = new StubServer(new HttpHandler() {
+
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException {
+
+				StubServer.readBody(exchange);
+				server.send(exchange, status, "{}");
+			}
+		});
+
+		transport = HttpClientTransport.create(4, 4, null);
+		client    = new StructrClient(server.getUrl(), "admin", "admin");
+		buffer    = client.getWriteBehindBuffer();
+
+		client.setTransport(transport);
+		client.addEntityListener(new EntityListener() {
+
+			@Override
+			public void entityCreated(final StructrObject entity) {
+			}
+
+			@Override
+			public void entityStored(final StructrObject entity) {
+				stored.incrementAndGet();
+			}
+
+			@Override
+			public void entityDeleted(final StructrObject entity) {
+			}
+		});
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+
+		transport.shutdown();
+		server.stop();
+	}
+
+	public void testStoresAreCoalesced() throws Throwable {
+
+		final Example entity = new Example("1", "one");
+
+		buffer.setTiming(10000L, 10000L);
+
+		for (int i = 0; i < 5; i++) {
+
+			entity.setCount(i);
+			buffer.store(entity);
+		}
+
+		assertEquals(1, buffer.getPendingCount());
+
+		buffer.flush();
+
+		assertEquals(1, server.getRequestCount());
+		assertEquals(5L, buffer.getStoreCount());
+		assertEquals(1L, buffer.getWriteCount());
+		assertEquals(4L, buffer.getElidedCount());
+	}
+
+	public void testFlushWaitsForWriteInFlight() throws Throwable {
+
+		buffer.setTiming(0L, 0L);
+		server.setLatency(300L);
+
+		buffer.store(new Example("1", "one"));
+
+		// let the writer thread take the store
+		waitForRequests(1);
+		assertEquals(0, buffer.getPendingCount());
+
+		buffer.flush();
+
+		assertEquals(1, stored.get());
+	}
+
+	public void testFlushReportsFailureOfWriteInFlight() throws Throwable {
+
+		buffer.setTiming(0L, 0L);
+		server.setLatency(300L);
+		status = 500;
+
+		buffer.store(new Example("1", "one"));
+
+		waitForRequests(1);
+		assertEquals(0, buffer.getPendingCount());
+
+		try {
+			buffer.flush();
+			fail("The failed write was not reported");
+
+		} catch (StructrException expected) {
+		}
+
+		// the failure is reported only once
+		buffer.flush();
+	}
+
+	public void testFlushOfEntityReportsFailure() throws Throwable {
+
+		final Example entity = new Example("1", "one");
+
+		buffer.setTiming(0L, 0L);
+		server.setLatency(300L);
+		status = 500;
+
+		buffer.store(entity);
+
+		waitForRequests(1);
+
+		try {
+			buffer.flush(entity);
+			fail("The failed write was not reported");
+
+		} catch (StructrException expected) {
+		}
+	}
+
+	// ----- private methods -----
+	private void waitForRequests(final int count) throws InterruptedException {
+
+		final long timeout = System.currentTimeMillis() + 5000L;
+
+		while (server.getRequestCount() < count && System.currentTimeMillis() < timeout) {
+			Thread.sleep(10L);
+		}
+
+		assertEquals(count, server.getRequestCount());
+	}
+}
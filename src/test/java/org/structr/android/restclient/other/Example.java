@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2012-2015 Morgner UG (haftungsbeschränkt)
+ *
+ * This file is part of Structr <http://structr.org>.
+ *
+ * Structr is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * Structr is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Structr.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.structr.android.restclient.other;
+
+import com.google.gson.annotations.Expose;
+import org.structr.android.restclient.StructrObject;
+
+/**
+ * An entity with the same simple name as the Example entity in the parent
+ * package, for the tests of the local store.
+ *
+ * @author Christian Morgner
+ */
+public class Example extends StructrObject {
+
+	@Expose
+	private String name = null;
+
+	public Example() {
+	}
+
+	public Example(final String id, final String name) {
+
+		setId(id);
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+}